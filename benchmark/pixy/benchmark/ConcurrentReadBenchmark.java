@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pixy.image.ImageType;
+import pixy.meta.Metadata;
+import pixy.meta.MetadataType;
+
+/**
+ * Reads metadata from many threads at once without any locking around pixymeta.
+ * <p>
+ * All threads share the same images and each thread cycles through the formats
+ * from its own starting point, so JPEG, TIFF, PNG and GIF readers run side by side.
+ * Every read is checked against a single threaded read done at setup and the
+ * benchmark fails on the first difference. Run it on its own with:
+ * <pre>
+ * java -jar target/benchmarks.jar ConcurrentReadBenchmark
+ * </pre>
+ * and with -t to try other thread counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class ConcurrentReadBenchmark {
+	private static final ImageType[] FORMATS = {ImageType.JPG, ImageType.TIFF, ImageType.PNG, ImageType.GIF};
+
+	@State(Scope.Benchmark)
+	public static class SharedImages {
+		private byte[][] images;
+		private String[] expected;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			images = new byte[FORMATS.length][];
+			expected = new String[FORMATS.length];
+			for(int i = 0; i < FORMATS.length; i++) {
+				images[i] = Fixtures.createImage(FORMATS[i], 512);
+				expected[i] = fingerprint(images[i]);
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			next = (int)(Thread.currentThread().getId() % FORMATS.length);
+		}
+	}
+
+	@Benchmark
+	public String readMetadata(SharedImages shared, Cursor cursor) throws IOException {
+		int i = cursor.next;
+		cursor.next = (i + 1) % FORMATS.length;
+		String actual = fingerprint(shared.images[i]);
+		if(!actual.equals(shared.expected[i]))
+			throw new IllegalStateException(FORMATS[i] + " metadata read concurrently differs: " + actual + " expected " + shared.expected[i]);
+
+		return actual;
+	}
+
+	// Types found in the image along with a hash of the data each of them writes
+	private static String fingerprint(byte[] image) throws IOException {
+		Map<MetadataType, Metadata> metadataMap = Metadata.readMetadata(image);
+		StringBuilder sb = new StringBuilder();
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		for(MetadataType type : new TreeSet<MetadataType>(metadataMap.keySet())) {
+			Metadata metadata = metadataMap.get(type);
+			metadata.ensureDataRead();
+			bout.reset();
+			metadata.write(bout);
+			sb.append(type).append('=').append(Arrays.hashCode(bout.toByteArray())).append(';');
+		}
+
+		return sb.toString();
+	}
+}
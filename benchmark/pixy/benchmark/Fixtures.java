@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.benchmark;
+
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import pixy.image.ImageType;
+import pixy.image.tiff.FieldType;
+import pixy.image.tiff.TiffTag;
+import pixy.meta.Metadata;
+import pixy.meta.exif.Exif;
+import pixy.meta.exif.ExifTag;
+import pixy.meta.jpeg.JpegExif;
+import pixy.meta.tiff.TiffExif;
+
+/**
+ * Synthetic images and metadata for the benchmarks.
+ * <p>
+ * Images are generated on the fly with ImageIO, TIFF through the jai_imageio
+ * plugin, and then given XMP, comments and, where supported, EXIF and an ICC
+ * profile with pixymeta itself so that reading has something to find.
+ * The pixels are seeded noise over a gradient, which keeps the compressed
+ * size close to that of a photo.
+ */
+public final class Fixtures {
+	private static final String XMP =
+		"<x:xmpmeta xmlns:x='adobe:ns:meta/'>" +
+		"<rdf:RDF xmlns:rdf='http://www.w3.org/1999/02/22-rdf-syntax-ns#'>" +
+		"<rdf:Description rdf:about='' xmlns:dc='http://purl.org/dc/elements/1.1/'>" +
+		"<dc:creator><rdf:Seq><rdf:li>pixymeta benchmark</rdf:li></rdf:Seq></dc:creator>" +
+		"<dc:rights><rdf:Alt><rdf:li xml:lang='x-default'>Copyright 2014-2016, yuwen_66@yahoo.com</rdf:li></rdf:Alt></dc:rights>" +
+		"</rdf:Description>" +
+		"</rdf:RDF>" +
+		"</x:xmpmeta>";
+
+	private Fixtures() {}
+
+	/**
+	 * Creates an image of the given type with metadata already in it.
+	 *
+	 * @param imageType JPG, TIFF, PNG or GIF
+	 * @param size width and height of the image in pixels
+	 * @return the encoded image
+	 * @throws IOException
+	 */
+	public static byte[] createImage(ImageType imageType, int size) throws IOException {
+		byte[] image = encode(createPixels(size), imageType);
+
+		image = apply(image, new Transform() {
+			public void apply(ByteArrayInputStream is, ByteArrayOutputStream os) throws IOException {
+				Metadata.insertXMP(is, os, XMP);
+			}
+		});
+		image = apply(image, new Transform() {
+			public void apply(ByteArrayInputStream is, ByteArrayOutputStream os) throws IOException {
+				Metadata.insertComments(is, os, Arrays.asList("Synthetic benchmark image"));
+			}
+		});
+
+		if(imageType == ImageType.JPG || imageType == ImageType.TIFF) {
+			final Exif exif = createExif(imageType);
+			image = apply(image, new Transform() {
+				public void apply(ByteArrayInputStream is, ByteArrayOutputStream os) throws IOException {
+					Metadata.insertExif(is, os, exif);
+				}
+			});
+		}
+
+		if(imageType != ImageType.GIF) {
+			image = apply(image, new Transform() {
+				public void apply(ByteArrayInputStream is, ByteArrayOutputStream os) throws IOException {
+					Metadata.insertICCProfile(is, os, getICCProfile());
+				}
+			});
+		}
+
+		return image;
+	}
+
+	/**
+	 * Creates a small EXIF without thumbnail for the given image type.
+	 */
+	public static Exif createExif(ImageType imageType) {
+		Exif exif = (imageType == ImageType.TIFF)?new TiffExif() : new JpegExif();
+		exif.addImageField(TiffTag.WINDOWS_XP_AUTHOR, FieldType.WINDOWSXP, "Author");
+		exif.addImageField(TiffTag.WINDOWS_XP_KEYWORDS, FieldType.WINDOWSXP, "Copyright;Author");
+		DateFormat formatter = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss");
+		exif.addExifField(ExifTag.EXPOSURE_TIME, FieldType.RATIONAL, new int[] {10, 600});
+		exif.addExifField(ExifTag.FNUMBER, FieldType.RATIONAL, new int[] {49, 10});
+		exif.addExifField(ExifTag.ISO_SPEED_RATINGS, FieldType.SHORT, new short[]{273});
+		exif.addExifField(ExifTag.EXIF_VERSION, FieldType.UNDEFINED, "0220".getBytes());
+		exif.addExifField(ExifTag.DATE_TIME_ORIGINAL, FieldType.ASCII, formatter.format(new Date(0)));
+		exif.addExifField(ExifTag.FOCAL_LENGTH, FieldType.RATIONAL, new int[] {240, 10});
+
+		return exif;
+	}
+
+	public static byte[] getICCProfile() {
+		return ICC_Profile.getInstance(ColorSpace.CS_sRGB).getData();
+	}
+
+	public static String getXMP() {
+		return XMP;
+	}
+
+	private static byte[] apply(byte[] image, Transform transform) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream(image.length + 8192);
+		transform.apply(new ByteArrayInputStream(image), os);
+		return os.toByteArray();
+	}
+
+	private static BufferedImage createPixels(int size) {
+		BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_3BYTE_BGR);
+		Random random = new Random(size);
+		for(int y = 0; y < size; y++) {
+			for(int x = 0; x < size; x++) {
+				int r = (x * 255 / size + random.nextInt(32)) & 0xff;
+				int g = (y * 255 / size + random.nextInt(32)) & 0xff;
+				int b = ((x + y) * 127 / size + random.nextInt(32)) & 0xff;
+				img.setRGB(x, y, (r << 16) | (g << 8) | b);
+			}
+		}
+
+		return img;
+	}
+
+	private static byte[] encode(BufferedImage img, ImageType imageType) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		if(!ImageIO.write(img, imageType.getExtension(), os))
+			throw new IOException("No ImageIO writer for " + imageType + " image");
+
+		return os.toByteArray();
+	}
+
+	private interface Transform {
+		public void apply(ByteArrayInputStream is, ByteArrayOutputStream os) throws IOException;
+	}
+}
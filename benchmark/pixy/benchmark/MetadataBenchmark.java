@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import pixy.image.ImageType;
+import pixy.meta.Metadata;
+import pixy.meta.MetadataType;
+import pixy.meta.xmp.XMP;
+
+/**
+ * JMH benchmarks for reading, inserting and removing metadata.
+ * <p>
+ * Build and run with:
+ * <pre>
+ * mvn -P benchmark package
+ * java -jar target/benchmarks.jar
+ * </pre>
+ * Each operation runs on synthetic images of every supported format at several
+ * sizes, see {@link Fixtures}. Input and output stay in memory so the numbers
+ * reflect pixymeta rather than the disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetadataBenchmark {
+
+	/**
+	 * Holds the synthetic image and a reusable output buffer.
+	 * Subclasses list the formats the benchmarked operation supports.
+	 */
+	public static abstract class ImageState {
+		@Param({"256", "1024", "2048"})
+		public int size;
+
+		private byte[] image;
+		private ByteArrayOutputStream out;
+
+		protected abstract String getFormat();
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			image = Fixtures.createImage(getImageType(), size);
+			out = new ByteArrayOutputStream(image.length + 65536);
+		}
+
+		public ImageType getImageType() {
+			return ImageType.valueOf(getFormat());
+		}
+
+		public byte[] getImage() {
+			return image;
+		}
+
+		public InputStream getInputStream() {
+			return new ByteArrayInputStream(image);
+		}
+
+		public OutputStream getOutputStream() {
+			out.reset();
+			return out;
+		}
+
+		public int getOutputLength() {
+			return out.size();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class AnyImage extends ImageState {
+		@Param({"JPG", "TIFF", "PNG", "GIF"})
+		public String format;
+
+		protected String getFormat() {
+			return format;
+		}
+	}
+
+	/** EXIF can only go into JPEG and TIFF */
+	@State(Scope.Thread)
+	public static class ExifImage extends ImageState {
+		@Param({"JPG", "TIFF"})
+		public String format;
+
+		protected String getFormat() {
+			return format;
+		}
+	}
+
+	/** GIF has no ICC profile and no metadata removing support */
+	@State(Scope.Thread)
+	public static class ICCImage extends ImageState {
+		@Param({"JPG", "TIFF", "PNG"})
+		public String format;
+
+		protected String getFormat() {
+			return format;
+		}
+	}
+
+	@Benchmark
+	public void readMetadata(AnyImage state, Blackhole bh) throws IOException {
+		consume(Metadata.readMetadata(state.getInputStream()), bh);
+	}
+
+	@Benchmark
+	public void readMetadataFromArray(AnyImage state, Blackhole bh) throws IOException {
+		consume(Metadata.readMetadata(state.getImage()), bh);
+	}
+
+	/*
+	 * Metadata are parsed on first access, so reading the image alone mostly
+	 * measures the segment scan. Parse everything that was found, XMP included,
+	 * and hand the results to the blackhole.
+	 */
+	private static void consume(Map<MetadataType, Metadata> metadataMap, Blackhole bh) throws IOException {
+		for(Metadata metadata : metadataMap.values()) {
+			metadata.ensureDataRead();
+			if(metadata instanceof XMP)
+				bh.consume(((XMP)metadata).getProperties());
+			bh.consume(metadata);
+		}
+	}
+
+	@Benchmark
+	public int insertExif(ExifImage state) throws IOException {
+		Metadata.insertExif(state.getInputStream(), state.getOutputStream(), Fixtures.createExif(state.getImageType()));
+		return state.getOutputLength();
+	}
+
+	@Benchmark
+	public int insertXMP(AnyImage state) throws IOException {
+		Metadata.insertXMP(state.getInputStream(), state.getOutputStream(), Fixtures.getXMP());
+		return state.getOutputLength();
+	}
+
+	@Benchmark
+	public int insertICCProfile(ICCImage state) throws IOException {
+		Metadata.insertICCProfile(state.getInputStream(), state.getOutputStream(), Fixtures.getICCProfile());
+		return state.getOutputLength();
+	}
+
+	@Benchmark
+	public int removeMetadata(ICCImage state) throws IOException {
+		Metadata.removeMetadata(state.getInputStream(), state.getOutputStream(), MetadataType.EXIF, MetadataType.XMP, MetadataType.ICC_PROFILE);
+		return state.getOutputLength();
+	}
+}
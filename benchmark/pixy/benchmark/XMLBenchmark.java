@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import pixy.string.XMLUtils;
+
+/**
+ * Parses and serializes the fixture XMP packet through XMLUtils, which keeps
+ * its parser and transformer per thread, next to the same work done with
+ * factories looked up on every call as XMLUtils used to. The difference
+ * between the two is the per call factory overhead. Run it with:
+ * <pre>
+ * java -jar target/benchmarks.jar XMLBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class XMLBenchmark {
+	private byte[] xmp;
+	private Document document;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		xmp = Fixtures.getXMP().getBytes("UTF-8");
+		document = XMLUtils.createXML(xmp);
+	}
+
+	@Benchmark
+	public Document parse() {
+		return XMLUtils.createXML(xmp);
+	}
+
+	@Benchmark
+	public Document parseNewFactory() throws Exception {
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xmp));
+	}
+
+	@Benchmark
+	public byte[] serialize() throws Exception {
+		return XMLUtils.serializeToByteArray(document);
+	}
+
+	@Benchmark
+	public byte[] serializeNewFactory() throws Exception {
+		Transformer transformer = TransformerFactory.newInstance().newTransformer();
+		transformer.setOutputProperty(OutputKeys.INDENT, "no");
+		transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+		transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		transformer.transform(new DOMSource(document), new StreamResult(out));
+
+		return out.toByteArray();
+	}
+}
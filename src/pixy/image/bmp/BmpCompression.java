@@ -61,6 +61,6 @@ public enum BmpCompression {
     	  typeMap.put(compression.getValue(), compression);
     } 
 
-	private String description;
-	private int value;
+	private final String description;
+	private final int value;
 }
\ No newline at end of file
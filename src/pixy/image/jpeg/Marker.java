@@ -10,9 +10,6 @@
 
 package pixy.image.jpeg;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Class represents JPEG marker.
  *
@@ -114,7 +111,9 @@ public enum Marker {
 	    }
 	    
 	    public static Marker fromShort(short value) {
-	       	Marker marker = markerMap.get(value);
+	    	if (((value >>> 8) & 0xff) != 0xff)
+	    		return UNKNOWN;
+	       	Marker marker = markers[value & 0xff];
 	    	if (marker == null)
 	    	   return UNKNOWN;
 	      	return marker;
@@ -124,12 +123,15 @@ public enum Marker {
 		   return name() + ": " + description;
 	    }
 	   
-	    private static final Map<Short, Marker> markerMap = new HashMap<Short, Marker>();
+	    // All markers but UNKNOWN are 0xFFnn, indexed by the second byte.
+	    // Only written during class initialization, safe to read from any thread.
+	    private static final Marker[] markers = new Marker[256];
 	    
 	    static
 	    {
 	      for(Marker marker : values()) {
-	          markerMap.put(marker.getValue(), marker);
+	    	  if (marker != UNKNOWN)
+	    		  markers[marker.getValue() & 0xff] = marker;
 	      }
 	    }	    
    	  
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.image.jpeg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import pixy.io.IOUtils;
+
+/**
+ * Scans the entropy-coded data following a JPEG SOS header for the next marker.
+ * <p>
+ * Data are read in blocks into a reusable buffer and runs of entropy-coded bytes
+ * are copied to the output with a single write. If the input stream supports
+ * mark/reset, the stream is left positioned right after the marker found, otherwise
+ * the scanner falls back to reading one byte at a time.
+ * <p>
+ * Stuffed bytes (0xff00) and RSTn markers are treated as part of the scan data.
+ * <p>
+ * A scanner instance is not thread-safe.
+ */
+public class SOSScanner {
+	// Constants
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	private final byte[] buf;
+
+	public SOSScanner() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	public SOSScanner(int bufferSize) {
+		this(new byte[Math.max(bufferSize, 0)]);
+	}
+
+	/**
+	 * Creates a scanner working in the given buffer, one from a BufferPool for
+	 * instance. The whole buffer is used and it must not be used elsewhere while
+	 * the scanner is in use.
+	 */
+	public SOSScanner(byte[] buffer) {
+		if(buffer == null || buffer.length < 2) throw new IllegalArgumentException("Buffer size must be at least 2");
+		this.buf = buffer;
+	}
+
+	/**
+	 * Copies the scan data to the output stream up to the next marker. The marker
+	 * itself is consumed but not written.
+	 *
+	 * @param is InputStream positioned at the start of the scan data
+	 * @param os OutputStream to copy the scan data to, or null to skip the data
+	 * @return the marker which terminates the scan data
+	 * @throws IOException if the stream ends before a marker is found
+	 */
+	public short copy(InputStream is, OutputStream os) throws IOException {
+		if(!is.markSupported())
+			return copyBytewise(is, os);
+
+		for(;;) {
+			is.mark(buf.length);
+			int n = is.read(buf, 0, buf.length);
+
+			if(n <= 0)
+				throw new IOException("Premature end of SOS segment!");
+
+			int i = 0;
+			int limit = n - 1; // Need one more byte to tell what follows 0xff
+
+			while(i < limit) {
+				if(buf[i] != (byte)0xff) {
+					i++;
+					continue;
+				}
+				int nextByte = buf[i + 1]&0xff;
+				if(isScanData(nextByte)) {
+					i += 2;
+					continue;
+				}
+				// Found a marker, write what we have so far and rewind to right after the marker
+				if(os != null) os.write(buf, 0, i);
+				is.reset();
+				IOUtils.readFully(is, buf, 0, i + 2);
+
+				return (short)((0xff<<8)|nextByte);
+			}
+
+			if(i == n || buf[i] != (byte)0xff) {
+				if(os != null) os.write(buf, 0, n);
+				continue;
+			}
+
+			// The last byte of the block is 0xff, look at the next byte
+			int nextByte = is.read();
+
+			if(nextByte == -1)
+				throw new IOException("Premature end of SOS segment!");
+
+			if(isScanData(nextByte)) {
+				if(os != null) {
+					os.write(buf, 0, n);
+					os.write(nextByte);
+				}
+				continue;
+			}
+
+			if(os != null) os.write(buf, 0, n - 1);
+
+			return (short)((0xff<<8)|nextByte);
+		}
+	}
+
+	// Fallback for streams which can't be rewound
+	private short copyBytewise(InputStream is, OutputStream os) throws IOException {
+		int nextByte = 0;
+
+		while((nextByte = is.read()) != -1) {
+			if(nextByte == 0xff) {
+				nextByte = is.read();
+
+				if (nextByte == -1)
+					break;
+
+				if(!isScanData(nextByte))
+					return (short)((0xff<<8)|nextByte);
+
+				if(os != null) {
+					os.write(0xff);
+					os.write(nextByte);
+				}
+			} else if(os != null) {
+				os.write(nextByte);
+			}
+		}
+
+		throw new IOException("Premature end of SOS segment!");
+	}
+
+	/**
+	 * Skips the scan data and the marker following it.
+	 *
+	 * @param is InputStream positioned at the start of the scan data
+	 * @return the marker which terminates the scan data
+	 * @throws IOException if the stream ends before a marker is found
+	 */
+	public short skip(InputStream is) throws IOException {
+		return copy(is, null);
+	}
+
+	// Stuffed zero byte or RSTn marker
+	private static boolean isScanData(int byteAfterFF) {
+		return byteAfterFF == 0x00 || (byteAfterFF >= 0xd0 && byteAfterFF <= 0xd7);
+	}
+}
@@ -15,7 +15,6 @@ import java.io.OutputStream;
 
 import pixy.util.zip.CRC32;
 import pixy.io.IOUtils;
-import pixy.util.ArrayUtils;
 import pixy.util.LangUtils;
 
 /**
@@ -102,7 +101,7 @@ public class Chunk implements Comparable<Chunk> {
 	{
 		CRC32 crc32 = new CRC32();
 		 
-		crc32.update(ArrayUtils.toByteArrayMM(chunkValue));
+		crc32.updateIntMM(chunkValue);
 		crc32.update(data);
 		 
 		return crc32.getValue();
@@ -112,7 +111,7 @@ public class Chunk implements Comparable<Chunk> {
 	{
 		CRC32 crc32 = new CRC32();
 		 
-		crc32.update(ArrayUtils.toByteArrayMM(chunkValue));
+		crc32.updateIntMM(chunkValue);
 		crc32.update(data, offset, length);
 		 
 		return crc32.getValue();
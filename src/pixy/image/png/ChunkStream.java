@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.image.png;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import pixy.io.BufferPool;
+import pixy.io.IOUtils;
+
+/**
+ * Streaming reader for PNG chunks.
+ * <p>
+ * Only the chunk header (length and type) is read when moving to the next chunk.
+ * The payload can then be read into a Chunk, copied to an output stream through
+ * a fixed size buffer or skipped. A payload left untouched is skipped when moving
+ * on, so large chunks such as IDAT never need to be held in memory.
+ * <p>
+ * Typical usage:
+ * <pre>
+ * ChunkStream chunks = new ChunkStream(is);
+ * while(chunks.nextChunk()) {
+ *     if(chunks.getChunkType() == ChunkType.TEXT)
+ *         list.add(chunks.readChunk());
+ * }
+ * </pre>
+ */
+public class ChunkStream {
+	/** PNG signature constant */
+	public static final long SIGNATURE = 0x89504E470D0A1A0AL;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private InputStream is;
+	private int length = -1;
+	private int chunkValue;
+	private ChunkType chunkType;
+	// Whether or not the payload and CRC of the current chunk are still in the stream
+	private boolean pending;
+	private boolean finished;
+	// Length and type of the current chunk
+	private final byte[] header = new byte[8];
+
+	/**
+	 * @param is InputStream for the PNG image positioned at the signature
+	 * @throws IOException if the signature is invalid
+	 */
+	public ChunkStream(InputStream is) throws IOException {
+		this(is, true);
+	}
+
+	/**
+	 * @param is InputStream for the PNG image
+	 * @param readSignature whether or not to read and check the PNG signature first
+	 * @throws IOException if the signature is invalid
+	 */
+	public ChunkStream(InputStream is, boolean readSignature) throws IOException {
+		this.is = is;
+		if(readSignature && IOUtils.readLongMM(is) != SIGNATURE)
+			throw new IOException("Invalid PNG signature");
+	}
+
+	/**
+	 * Writes the current chunk, header, payload and CRC, to the output stream as is.
+	 */
+	public void copyChunk(OutputStream os) throws IOException {
+		ensurePending();
+		IOUtils.writeIntMM(os, length);
+		IOUtils.writeIntMM(os, chunkValue);
+		BufferPool pool = BufferPool.getDefault();
+		byte[] buf = pool.acquire(BUFFER_SIZE);
+		try {
+			// Payload plus 4 bytes CRC
+			long remaining = length + 4L;
+			while(remaining > 0) {
+				int nbytes = (int)Math.min(remaining, buf.length);
+				IOUtils.readFully(is, buf, 0, nbytes);
+				os.write(buf, 0, nbytes);
+				remaining -= nbytes;
+			}
+		} finally {
+			pool.release(buf);
+		}
+		pending = false;
+	}
+
+	private void ensurePending() {
+		if(!pending)
+			throw new IllegalStateException("Chunk data already consumed or no current chunk");
+	}
+
+	public ChunkType getChunkType() {
+		return chunkType;
+	}
+
+	/**
+	 * @return the raw chunk type value, useful for ChunkType.UNKNOWN chunks
+	 */
+	public int getChunkValue() {
+		return chunkValue;
+	}
+
+	/**
+	 * @return length of the current chunk payload
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Moves to the next chunk, skipping what is left of the current one.
+	 *
+	 * @return false if there are no more chunks, i.e. the previous chunk was IEND
+	 * or the stream ends right after the previous chunk
+	 * @throws IOException
+	 */
+	public boolean nextChunk() throws IOException {
+		if(finished) return false;
+		if(pending) skipChunk();
+		if(chunkType == ChunkType.IEND) {
+			finished = true;
+			return false;
+		}
+		int first = is.read();
+		if(first < 0) { // Truncated image without IEND
+			finished = true;
+			return false;
+		}
+		header[0] = (byte)first;
+		IOUtils.readFully(is, header, 1, 7);
+		length = IOUtils.readIntMM(header, 0);
+		chunkValue = IOUtils.readIntMM(header, 4);
+		chunkType = ChunkType.fromInt(chunkValue);
+		if(length < 0)
+			throw new IOException("Invalid PNG chunk length: " + (length&0xffffffffL));
+		pending = true;
+
+		return true;
+	}
+
+	/**
+	 * Reads the payload and CRC of the current chunk into a Chunk.
+	 */
+	public Chunk readChunk() throws IOException {
+		ensurePending();
+		byte[] data = new byte[length];
+		IOUtils.readFully(is, data);
+		long crc = IOUtils.readUnsignedIntMM(is);
+		pending = false;
+
+		if(chunkType == ChunkType.UNKNOWN)
+			return new UnknownChunk(length, chunkValue, data, crc);
+
+		return new Chunk(chunkType, length, data, crc);
+	}
+
+	/**
+	 * Skips the payload and CRC of the current chunk.
+	 */
+	public void skipChunk() throws IOException {
+		ensurePending();
+		IOUtils.skipFully(is, length + 4L);
+		pending = false;
+	}
+}
@@ -22,10 +22,11 @@
 package pixy.image.tiff;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -34,20 +35,35 @@ import pixy.string.StringUtils;
 
 /**
  * Image File Directory
+ * <p>
+ * Fields are kept in an array sorted by unsigned tag value, which is also the
+ * order they have to be written in. Lookups are binary searches on the tag
+ * without boxing, and no map entries are allocated per field.
  *
  * @author Wen Yu, yuwen_66@yahoo.com
  * @version 1.0 01/04/2013
  */
 public final class IFD {
-		
+	
+	private static final TiffField<?>[] NO_FIELDS = new TiffField<?>[0];
+	
 	/**
 	 * Create a children map for sub IFDs. A sub IFD is associated with a tag of the current IFD
-	 * which serves as pointer to the sub IFD.
+	 * which serves as pointer to the sub IFD. The map is only created when the first child is added.
+	 * Children are written in the order they were added: Tag enums hash by identity, so a HashMap
+	 * would lay out the same IFD differently from one JVM or run to the next.
 	 */	 
-	private Map<Tag, IFD> children = new HashMap<Tag, IFD>();
+	private Map<Tag, IFD> children;
+	
+	/** Fields of this IFD sorted by unsigned tag value */
+	private TiffField<?>[] tiffFields = NO_FIELDS;
+	
+	private int numOfFields;
 	
-	/** Create a fields map to hold all of the fields for this IFD */
-	private Map<Short, TiffField<?>> tiffFields = new HashMap<Short, TiffField<?>>();
+	/** Read-only list view of the fields, created on demand */
+	private FieldList fieldList;
+	
+	private boolean readOnly;
 
 	private int endOffset;
 	
@@ -58,18 +74,35 @@ public final class IFD {
 	// Copy constructor
 	public IFD(IFD other) {
 		// Defensive copy
-		this.children = Collections.unmodifiableMap(other.children);
-		this.tiffFields = Collections.unmodifiableMap(other.tiffFields);
+		this.children = (other.children == null)? null : Collections.unmodifiableMap(new LinkedHashMap<Tag, IFD>(other.children));
+		this.tiffFields = (other.numOfFields == 0)? NO_FIELDS : Arrays.copyOf(other.tiffFields, other.numOfFields);
+		this.numOfFields = other.numOfFields;
+		this.readOnly = true;
 		this.startOffset = other.startOffset;
 		this.endOffset = other.endOffset;
 	}
 	
 	public void addChild(Tag tag, IFD child) {
+		ensureWritable();
+		if(children == null)
+			children = new LinkedHashMap<Tag, IFD>();
 		children.put(tag, child);
 	}
 	
 	public void addField(TiffField<?> tiffField) {
-		tiffFields.put(tiffField.getTag(), tiffField);
+		ensureWritable();
+		int index = indexOf(tiffField.getTag());
+		if(index >= 0) { // Replace the old field
+			tiffFields[index] = tiffField;
+			return;
+		}
+		index = -(index + 1);
+		fieldsChanged();
+		if(numOfFields == tiffFields.length)
+			tiffFields = Arrays.copyOf(tiffFields, Math.max(16, numOfFields*2));
+		System.arraycopy(tiffFields, index, tiffFields, index + 1, numOfFields - index);
+		tiffFields[index] = tiffField;
+		numOfFields++;
 	}
 	
 	public void addFields(Collection<TiffField<?>> tiffFields) {
@@ -78,11 +111,18 @@ public final class IFD {
 		}
 	}
 	
+	private void ensureWritable() {
+		if(readOnly)
+			throw new UnsupportedOperationException("This IFD is a read-only copy");
+	}
+	
 	public IFD getChild(Tag tag) {
-		return children.get(tag);
+		return (children == null)? null : children.get(tag);
 	}
 	
 	public Map<Tag, IFD> getChildren() {
+		if(children == null)
+			return Collections.emptyMap();
 		return Collections.unmodifiableMap(children);
 	}
 	
@@ -91,7 +131,8 @@ public final class IFD {
 	}
 	
 	public TiffField<?> getField(Tag tag) {
-		return tiffFields.get(tag.getValue());
+		int index = indexOf(tag.getValue());
+		return (index >= 0)? tiffFields[index] : null;
 	}
 	
 	/**
@@ -100,7 +141,7 @@ public final class IFD {
 	 * @return a String representation of the field
 	 */
 	public String getFieldAsString(Tag tag) {
-		TiffField<?> field = tiffFields.get(tag.getValue());
+		TiffField<?> field = getField(tag);
 		if(field != null) {
 			FieldType ftype = field.getType();
 			String suffix = null;
@@ -114,31 +155,92 @@ public final class IFD {
 		return "";
 	}
 	
-	/** Get all the fields for this IFD from the internal map. */
+	/**
+	 * Get all the fields for this IFD in tag order as a read-only live view.
+	 * Its iterators fail fast if fields are added or removed while iterating.
+	 */
 	public Collection<TiffField<?>> getFields() {
-		return Collections.unmodifiableCollection(tiffFields.values());
+		if(fieldList == null)
+			fieldList = new FieldList();
+		return fieldList;
+	}
+	
+	private final class FieldList extends AbstractList<TiffField<?>> {
+		public TiffField<?> get(int index) {
+			if(index < 0 || index >= numOfFields)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + numOfFields);
+			return tiffFields[index];
+		}
+		
+		public int size() {
+			return numOfFields;
+		}
+		
+		void changed() {
+			modCount++;
+		}
+	}
+	
+	// Lets iterators over the view notice that fields were added or removed
+	private void fieldsChanged() {
+		if(fieldList != null)
+			fieldList.changed();
 	}
 	
 	public int getSize() {
-		return tiffFields.size();
+		return numOfFields;
 	}
 	
 	public int getStartOffset() {
 		return startOffset;
 	}
 	
+	/**
+	 * Binary search for the field with the given tag.
+	 * 
+	 * @return index of the field, or -(insertion point) - 1 if there is no such field
+	 */
+	private int indexOf(short tag) {
+		int key = tag&0xffff;
+		int low = 0;
+		int high = numOfFields - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			int midKey = tiffFields[mid].getTag()&0xffff;
+			if(midKey < key)
+				low = mid + 1;
+			else if(midKey > key)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -(low + 1);
+	}
+	
 	/** Remove all the entries from the IDF fields map */
 	public void removeAllFields() {
-		tiffFields.clear();
+		ensureWritable();
+		fieldsChanged();
+		Arrays.fill(tiffFields, 0, numOfFields, null);
+		numOfFields = 0;
 	}
 	
 	public IFD removeChild(Tag tag) {
-		return children.remove(tag);
+		ensureWritable();
+		return (children == null)? null : children.remove(tag);
 	}
 	
 	/** Remove a specific field associated with the given tag */
 	public TiffField<?> removeField(Tag tag) {
-		return tiffFields.remove(tag.getValue());
+		ensureWritable();
+		int index = indexOf(tag.getValue());
+		if(index < 0)
+			return null;
+		TiffField<?> field = tiffFields[index];
+		fieldsChanged();
+		System.arraycopy(tiffFields, index + 1, tiffFields, index, numOfFields - index - 1);
+		tiffFields[--numOfFields] = null;
+		return field;
 	}
 	
 	/**
@@ -164,22 +266,39 @@ public final class IFD {
 	 * @throws IOException
 	 */
 	public int write(RandomAccessOutputStream os, int offset) throws IOException {
+		return write(os, offset, Collections.<TiffField<?>, Integer>emptyMap());
+	}
+	
+	/**
+	 * Write this IFD and all the children, if any, to the output stream. Fields found
+	 * in valueOffsets are not written again, their entries point to the values already
+	 * in the stream at the mapped offsets instead.
+	 * 
+	 * @param os RandomAccessOutputStream
+	 * @param offset stream offset to write this IFD
+	 * @param valueOffsets stream offsets of the out-of-line values to keep, by field
+	 * 
+	 * @throws IOException
+	 */
+	public int write(RandomAccessOutputStream os, int offset, Map<TiffField<?>, Integer> valueOffsets) throws IOException {
 		startOffset = offset;
 		// Write this IFD and its children, if any, to the RandomAccessOutputStream
-		List<TiffField<?>> list = new ArrayList<TiffField<?>>(tiffFields.values());
-		// Make sure tiffFields are in incremental order.
-		Collections.sort(list);
+		// Fields are already in incremental tag order
 		os.seek(offset);
-		os.writeShort(list.size());
+		os.writeShort(numOfFields);
 		offset += 2;
-		endOffset = offset + list.size() * 12 + 4;			
+		endOffset = offset + numOfFields * 12 + 4;			
 		// The first available offset to write tiffFields. 
 		int toOffset = endOffset;
 		os.seek(offset); // Set first field offset.
 				
-		for (TiffField<?> tiffField : list)
+		for (int i = 0; i < numOfFields; i++)
 		{
-			toOffset = tiffField.write(os, toOffset);
+			Integer valueOffset = valueOffsets.get(tiffFields[i]);
+			if(valueOffset != null)
+				tiffFields[i].writeEntry(os, valueOffset);
+			else
+				toOffset = tiffFields[i].write(os, toOffset);
 			offset += 12; // Move to next field. Each field is of fixed length 12.
 			os.seek(offset); // Reset position to next directory field.
 		}
@@ -191,7 +310,7 @@ public final class IFD {
 		os.writeInt(0);	// Set next IFD offset to default 0 
 		
 		// Write sub IFDs if any (we assume bare-bone sub IFDs pointed by long field type with no image data associated)
-		if(children.size() > 0) {
+		if(children != null && children.size() > 0) {
 			for (Map.Entry<Tag, IFD> entry : children.entrySet()) {
 			    Tag key = entry.getKey();
 			    IFD value = entry.getValue();
@@ -202,7 +321,7 @@ public final class IFD {
 					os.seek(dataPos);
 					os.writeInt(toOffset);
 					os.seek(toOffset);
-					toOffset = value.write(os, toOffset);
+					toOffset = value.write(os, toOffset, valueOffsets);
 			    }
 		    }
 		}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.image.tiff;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Maps tag values of one tag family such as TiffTag or ExifTag to their Tag.
+ * <p>
+ * The 16 bit tag value indexes a table split into 256 pages of 256 entries,
+ * and only the pages which actually hold tags are allocated, so a lookup is
+ * two array reads without boxing or reflection. Custom tag sets, maker notes
+ * for instance, can be plugged in by creating a resolver for their tags.
+ */
+public class TagResolver {
+	private final Tag[][] pages = new Tag[256][];
+	private final Tag unknown;
+
+	/**
+	 * Creates a resolver for all the constants of a Tag enumeration
+	 * with TiffTag.UNKNOWN for tags not in the enumeration.
+	 */
+	public static TagResolver of(Class<? extends Tag> tagClass) {
+		Tag[] tags = tagClass.getEnumConstants();
+		if(tags == null)
+			throw new IllegalArgumentException(tagClass + " is not an enum");
+		return new TagResolver(TiffTag.UNKNOWN, tags);
+	}
+
+	/**
+	 * @param unknown Tag to return for tag values not known to this resolver
+	 * @param tags known tags, a later tag replaces an earlier one with the same value
+	 */
+	public TagResolver(Tag unknown, Collection<? extends Tag> tags) {
+		if(unknown == null) throw new IllegalArgumentException("Unknown tag is null");
+		this.unknown = unknown;
+		for(Tag tag : tags) {
+			int value = tag.getValue()&0xffff;
+			Tag[] page = pages[value >>> 8];
+			if(page == null)
+				page = pages[value >>> 8] = new Tag[256];
+			page[value & 0xff] = tag;
+		}
+	}
+
+	public TagResolver(Tag unknown, Tag... tags) {
+		this(unknown, Arrays.asList(tags));
+	}
+
+	public Tag getUnknownTag() {
+		return unknown;
+	}
+
+	/**
+	 * @param value tag value as read from the IFD
+	 * @return the Tag for the value or the unknown tag if there isn't one
+	 */
+	public Tag resolve(short value) {
+		Tag[] page = pages[(value >>> 8) & 0xff];
+		if(page == null)
+			return unknown;
+		Tag tag = page[value & 0xff];
+
+		return (tag == null)? unknown : tag;
+	}
+}
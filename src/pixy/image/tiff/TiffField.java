@@ -101,5 +101,18 @@ public abstract class TiffField<T> implements Comparable<TiffField<?>>{
 		return writeData(os, toOffset);
 	}
 	
+	/**
+	 * Writes the entry of a field whose value is already in the stream.
+	 * 
+	 * @param valueOffset stream position of the value
+	 */
+	public final void writeEntry(RandomAccessOutputStream os, int valueOffset) throws IOException {
+		os.writeShort(this.tag);
+		os.writeShort(getType().getValue());
+		os.writeInt(getLength());
+		os.writeInt(valueOffset);
+		dataOffset = valueOffset;
+	}
+	
 	protected abstract int writeData(RandomAccessOutputStream os, int toOffset) throws IOException;
 }
\ No newline at end of file
@@ -74,8 +74,8 @@ public class TiffFieldEnum {
 	    	  typeMap.put(photoMetric.getValue(), photoMetric);
 	    } 
 
-		private String description;
-		private int value;
+		private final String description;
+		private final int value;
 	}
 	
 	public enum Compression {
@@ -128,8 +128,8 @@ public class TiffFieldEnum {
 	    	  typeMap.put(compression.getValue(), compression);
 	    } 
 
-		private String description;
-		private int value;
+		private final String description;
+		private final int value;
 	}
 	
 	public enum PlanarConfiguration {
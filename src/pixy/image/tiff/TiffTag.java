@@ -12,8 +12,6 @@ package pixy.image.tiff;
 
 import java.io.UnsupportedEncodingException;
 import java.text.DecimalFormat;
-import java.util.HashMap;
-import java.util.Map;
 
 import pixy.string.StringUtils;
 
@@ -906,21 +904,18 @@ public enum TiffTag implements Tag {
 		}
 	} 
 	
-	private static final Map<Short, TiffTag> tagMap = new HashMap<Short, TiffTag>();
-	
-	static
-    {
-      for(TiffTag tiffTag : values()) {
-           tagMap.put(tiffTag.getValue(), tiffTag);
-      }
-    }	
+	private static final TagResolver tagResolver = new TagResolver(UNKNOWN, values());
 	
 	public static Tag fromShort(short value) {
-       	TiffTag tiffTag = tagMap.get(value);
-    	if (tiffTag == null)
-    	   return UNKNOWN;
-       	return tiffTag;
-    }
+		return tagResolver.resolve(value);
+	}
+	
+	/**
+	 * @return the TagResolver for this tag family
+	 */
+	public static TagResolver getTagResolver() {
+		return tagResolver;
+	}
 	
 	private final String name;
 	
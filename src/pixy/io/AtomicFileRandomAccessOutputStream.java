@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Implements a random access output stream which writes straight into a
+ * temporary file next to the target file and renames it to the target on
+ * {@link #commit()}.
+ * <p>
+ * The output is written to disk once, there is no cache to copy from. The
+ * target is replaced only when commit() succeeds, so it never holds a partial
+ * image. Closing the stream without committing deletes the temporary file and
+ * leaves the target as it was. Call {@link #sync()} before commit() if the new
+ * content has to survive a system crash.
+ */
+public class AtomicFileRandomAccessOutputStream extends RandomAccessFileOutputStream {
+	private final File target;
+	private final File tempFile;
+
+	public AtomicFileRandomAccessOutputStream(File target) throws IOException {
+		this(target, createTempFile(target));
+	}
+
+	private AtomicFileRandomAccessOutputStream(File target, File tempFile) throws IOException {
+		super(tempFile);
+		this.target = target;
+		this.tempFile = tempFile;
+	}
+
+	// In the directory of the target so the rename doesn't move data across file systems
+	private static File createTempFile(File target) throws IOException {
+		if(target == null) throw new IllegalArgumentException("Target file is null");
+		File dir = target.getAbsoluteFile().getParentFile();
+
+		return File.createTempFile("." + target.getName() + "-", ".tmp", dir);
+	}
+
+	/**
+	 * Deletes the temporary file unless the stream has been committed.
+	 */
+	public void close() throws IOException {
+		if(closed) return;
+		try {
+			super.close();
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Closes the stream and replaces the target file with what has been written.
+	 * The rename is atomic where the file system supports it.
+	 *
+	 * @throws IOException if the target can't be replaced, the temporary file is deleted
+	 */
+	public void commit() throws IOException {
+		ensureOpen();
+		super.close();
+		try {
+			try {
+				Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch(IOException e) {
+			tempFile.delete();
+			throw e;
+		}
+	}
+
+	public File getTarget() {
+		return target;
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.io;
+
+/**
+ * Hands out scratch byte arrays to the readers and writers so reading many
+ * images doesn't allocate new buffers for every segment, chunk and copy.
+ * <p>
+ * A buffer from acquire() may be longer than requested, callers only use the
+ * length they asked for. A buffer is released once it is no longer referenced;
+ * buffers whose content ends up in a Metadata object are never taken from a pool.
+ * <p>
+ * The default pool keeps a few buffers per thread. Another pool, a striped or
+ * shared one for instance, can be installed with {@link #setDefault(BufferPool)},
+ * and {@link #NONE} turns pooling off.
+ */
+public abstract class BufferPool {
+	/** Allocates a new buffer on every acquire() and drops released ones */
+	public static final BufferPool NONE = new BufferPool() {
+		public byte[] acquire(int minLength) {
+			return new byte[minLength];
+		}
+
+		public void release(byte[] buffer) {}
+	};
+
+	private static volatile BufferPool defaultPool = threadLocal(1 << 16, 4);
+
+	/**
+	 * @param minLength minimum length of the buffer
+	 * @return a buffer of at least minLength bytes, its content is undefined
+	 */
+	public abstract byte[] acquire(int minLength);
+
+	/**
+	 * Gives a buffer back to the pool. The caller must not use it afterwards.
+	 *
+	 * @param buffer buffer from acquire(), null is ignored
+	 */
+	public abstract void release(byte[] buffer);
+
+	public static BufferPool getDefault() {
+		return defaultPool;
+	}
+
+	public static void setDefault(BufferPool pool) {
+		if(pool == null) throw new IllegalArgumentException("Buffer pool is null");
+		defaultPool = pool;
+	}
+
+	/**
+	 * Creates a pool which keeps released buffers in the thread releasing them.
+	 * There is no locking and a buffer is never shared between threads.
+	 *
+	 * @param maxLength buffers longer than this are allocated but not kept
+	 * @param buffersPerThread number of buffers kept by each thread
+	 */
+	public static BufferPool threadLocal(int maxLength, int buffersPerThread) {
+		return new ThreadLocalBufferPool(maxLength, buffersPerThread);
+	}
+
+	private static final class ThreadLocalBufferPool extends BufferPool {
+		// Smallest buffer handed out, small requests share the same buffers
+		private static final int MIN_LENGTH = 1024;
+
+		private final int maxLength;
+		private final ThreadLocal<byte[][]> buffers;
+
+		ThreadLocalBufferPool(int maxLength, final int buffersPerThread) {
+			if(maxLength <= 0) throw new IllegalArgumentException("Maximum buffer length must be positive: " + maxLength);
+			if(buffersPerThread <= 0) throw new IllegalArgumentException("Buffers per thread must be positive: " + buffersPerThread);
+			this.maxLength = maxLength;
+			this.buffers = new ThreadLocal<byte[][]>() {
+				protected byte[][] initialValue() {
+					return new byte[buffersPerThread][];
+				}
+			};
+		}
+
+		public byte[] acquire(int minLength) {
+			if(minLength < 0) throw new IllegalArgumentException("Negative buffer length: " + minLength);
+			if(minLength > maxLength)
+				return new byte[minLength];
+			byte[][] slots = buffers.get();
+			for(int i = 0; i < slots.length; i++) {
+				byte[] buffer = slots[i];
+				if(buffer != null && buffer.length >= minLength) {
+					slots[i] = null;
+					return buffer;
+				}
+			}
+			// Round up to a power of two so the buffer can serve slightly larger requests later
+			long length = Math.max(MIN_LENGTH, Long.highestOneBit(Math.max(minLength - 1, 1)) << 1);
+
+			return new byte[(int)Math.min(length, maxLength)];
+		}
+
+		public void release(byte[] buffer) {
+			if(buffer == null || buffer.length > maxLength) return;
+			byte[][] slots = buffers.get();
+			// Take an empty slot or replace a smaller buffer
+			int smallest = -1;
+			for(int i = 0; i < slots.length; i++) {
+				if(slots[i] == null) {
+					slots[i] = buffer;
+					return;
+				}
+				if(slots[i].length < buffer.length && (smallest < 0 || slots[i].length < slots[smallest].length))
+					smallest = i;
+			}
+			if(smallest >= 0)
+				slots[smallest] = buffer;
+		}
+	}
+}
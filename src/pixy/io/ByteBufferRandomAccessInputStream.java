@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Implements a random access input stream on top of data which are already
+ * in memory, either as a byte array or as a ByteBuffer.
+ * <p>
+ * The data are not copied: the stream reads from a view of the buffer covering
+ * the bytes between its position and limit at construction time. The position
+ * of the original buffer is never changed.
+ */
+public class ByteBufferRandomAccessInputStream extends RandomAccessInputStream {
+	private ByteBuffer buffer;
+	private long pointer;
+
+	public ByteBufferRandomAccessInputStream(byte[] data) {
+		this(ByteBuffer.wrap(data));
+	}
+
+	public ByteBufferRandomAccessInputStream(byte[] data, int offset, int length) {
+		this(ByteBuffer.wrap(data, offset, length));
+	}
+
+	public ByteBufferRandomAccessInputStream(ByteBuffer buffer) {
+		super(null);
+		if(buffer == null) throw new IllegalArgumentException("Input buffer is null");
+		this.buffer = buffer.slice();
+	}
+
+	public int available() throws IOException {
+		ensureOpen();
+		return (int)Math.max(0L, buffer.limit() - pointer);
+	}
+
+	public void close() throws IOException {
+		if(closed) return;
+		buffer = null;
+		closed = true;
+	}
+
+	/**
+	 * Writes the range straight from the backing array if there is one.
+	 */
+	public void copyTo(RandomAccessOutputStream out, long position, long count) throws IOException {
+		ensureOpen();
+		if (!buffer.hasArray()) {
+			super.copyTo(out, position, count);
+			return;
+		}
+		if (position < 0 || count < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (position + count > buffer.limit()) {
+			throw new EOFException();
+		}
+		out.write(buffer.array(), buffer.arrayOffset() + (int)position, (int)count);
+		pointer = position + count;
+	}
+	
+	public int getLength() {
+		return buffer.limit();
+	}
+
+	public long getStreamPointer() {
+		return pointer;
+	}
+
+	public int read() throws IOException {
+		ensureOpen();
+		if(pointer >= buffer.limit()) return -1;
+		return buffer.get((int)pointer++)&0xff;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if (b == null) {
+			throw new NullPointerException();
+		}
+		if ((off < 0) || (len < 0) || (off + len > b.length)) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (pointer >= buffer.limit()) {
+			return -1;
+		}
+		len = (int)Math.min(len, buffer.limit() - pointer);
+		buffer.position((int)pointer);
+		buffer.get(b, off, len);
+		pointer += len;
+		return len;
+	}
+
+	public void seek(long pos) throws IOException {
+		ensureOpen();
+		if (pos < 0) {
+			throw new IOException("Negtive seek position.");
+		}
+		pointer = pos;
+	}
+
+	public void shallowClose() throws IOException {
+		close();
+	}
+
+	public long skip(long n) throws IOException {
+		ensureOpen();
+		if (n <= 0 || pointer >= buffer.limit()) {
+			return 0;
+		}
+		long skipped = Math.min(n, buffer.limit() - pointer);
+		pointer += skipped;
+		return skipped;
+	}
+}
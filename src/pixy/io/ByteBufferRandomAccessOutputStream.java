@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Implements a random access output stream backed by a single ByteBuffer
+ * which grows as needed.
+ * <p>
+ * If there is no destination stream, the data written stay in the buffer and
+ * can be retrieved with {@link #asByteBuffer()} without any further copy.
+ * Otherwise the data are written to the destination stream on writeToStream()
+ * or close() like the other RandomAccessOutputStream implementations.
+ */
+public class ByteBufferRandomAccessOutputStream extends RandomAccessOutputStream {
+	private static final int DEFAULT_CAPACITY = 4096;
+
+	private ByteBuffer buffer;
+	private long pointer = 0L;
+	// The largest position ever written to the buffer.
+	private long length = 0L;
+	private long flushPos = 0L;
+
+	public ByteBufferRandomAccessOutputStream() {
+		this(null, DEFAULT_CAPACITY);
+	}
+
+	public ByteBufferRandomAccessOutputStream(int initialCapacity) {
+		this(null, initialCapacity);
+	}
+
+	public ByteBufferRandomAccessOutputStream(OutputStream dist) {
+		this(dist, DEFAULT_CAPACITY);
+	}
+
+	public ByteBufferRandomAccessOutputStream(OutputStream dist, int initialCapacity) {
+		this(dist, ByteBuffer.allocate(initialCapacity));
+	}
+
+	/**
+	 * @param dist destination stream or null to keep the data in the buffer
+	 * @param buffer ByteBuffer to write to from its position on. If it runs out of space,
+	 *        a larger buffer of the same kind (heap or direct) replaces it.
+	 */
+	public ByteBufferRandomAccessOutputStream(OutputStream dist, ByteBuffer buffer) {
+		super(dist);
+		if(buffer == null) throw new IllegalArgumentException("Output buffer is null");
+		this.buffer = buffer.slice();
+	}
+
+	/**
+	 * Returns a read-only view of the data written so far. The view
+	 * shares the content of the underlying buffer.
+	 */
+	public ByteBuffer asByteBuffer() {
+		ByteBuffer view = buffer.asReadOnlyBuffer();
+		view.position(0);
+		view.limit((int)length);
+		return view;
+	}
+
+	public void close() throws IOException {
+		if(closed) return;
+		super.close();
+		if(dist != null) {
+			dist.close();
+			dist = null;
+		}
+		closed = true;
+	}
+
+	@Override
+	public void disposeBefore(long pos) {
+		throw new UnsupportedOperationException("This method is not implemented");
+	}
+
+	private void ensureCapacity(long minCapacity) throws IOException {
+		if(minCapacity <= buffer.capacity()) return;
+		if(minCapacity > Integer.MAX_VALUE)
+			throw new IOException("Buffer addressing limit exceeded!");
+		int newCapacity = (int)Math.min(Integer.MAX_VALUE, Math.max(minCapacity, buffer.capacity() * 2L));
+		ByteBuffer newBuffer;
+		try {
+			newBuffer = buffer.isDirect()?ByteBuffer.allocateDirect(newCapacity):ByteBuffer.allocate(newCapacity);
+		} catch (OutOfMemoryError e) {
+			throw new IOException("No memory left for buffer!");
+		}
+		buffer.position(0);
+		buffer.limit((int)length);
+		newBuffer.put(buffer);
+		buffer = newBuffer;
+		buffer.clear();
+	}
+
+	@Override
+	public long getFlushPos() {
+		return flushPos;
+	}
+
+	@Override
+	public long getLength() {
+		return length;
+	}
+
+	@Override
+	public long getStreamPointer() {
+		return pointer;
+	}
+
+	@Override
+	public void reset() {
+		pointer = 0L;
+		length = 0L;
+		flushPos = 0L;
+	}
+
+	@Override
+	public void seek(long pos) throws IOException {
+		ensureOpen();
+		if (pos < 0) {
+			throw new IOException("Negtive seek position.");
+		}
+		pointer = pos;
+	}
+
+	@Override
+	public void shallowClose() throws IOException {
+		if(closed) return;
+		super.close();
+		dist = null;
+		closed = true;
+	}
+
+	/**
+	 * Returns a copy of the data written so far.
+	 */
+	public byte[] toByteArray() {
+		byte[] data = new byte[(int)length];
+		ByteBuffer view = asByteBuffer();
+		view.get(data);
+		return data;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if (b == null) {
+			throw new NullPointerException("b == null!");
+		}
+		if ((off < 0) || (len < 0) || (pointer < 0) ||
+				(off + len > b.length) || (off + len < 0)) {
+			throw new IndexOutOfBoundsException();
+		}
+		long lastPos = pointer + len;
+		ensureCapacity(lastPos);
+		buffer.limit(buffer.capacity());
+		buffer.position((int)pointer);
+		buffer.put(b, off, len);
+		pointer = lastPos;
+		if (lastPos > length) {
+			length = lastPos;
+		}
+	}
+
+	@Override
+	public void write(int value) throws IOException {
+		ensureOpen();
+		if (pointer < 0)
+			throw new ArrayIndexOutOfBoundsException("pointer < 0");
+		ensureCapacity(pointer + 1);
+		buffer.put((int)pointer++, (byte)value);
+		if (pointer > length) {
+			length = pointer;
+		}
+	}
+
+	@Override
+	public void writeToStream(long len) throws IOException {
+		ensureOpen();
+		if (len == 0) {
+			return;
+		}
+		if (pointer + len > length) {
+			throw new IndexOutOfBoundsException("Argument out of cache");
+		}
+		if ((pointer < 0) || (len < 0)) {
+			throw new IndexOutOfBoundsException("Negative pointer or len");
+		}
+		if (dist != null) {
+			if (buffer.hasArray()) {
+				dist.write(buffer.array(), buffer.arrayOffset() + (int)pointer, (int)len);
+			} else {
+				byte[] chunk = new byte[(int)Math.min(len, DEFAULT_CAPACITY)];
+				ByteBuffer view = asByteBuffer();
+				view.position((int)pointer);
+				for(long remaining = len; remaining > 0; ) {
+					int nbytes = (int)Math.min(remaining, chunk.length);
+					view.get(chunk, 0, nbytes);
+					dist.write(chunk, 0, nbytes);
+					remaining -= nbytes;
+				}
+			}
+		}
+		flushPos += len;
+	}
+}
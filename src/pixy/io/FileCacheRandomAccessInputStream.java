@@ -10,6 +10,7 @@
 
 package pixy.io;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -64,8 +65,8 @@ public class FileCacheRandomAccessInputStream extends RandomAccessInputStream {
     	super(src);
         this.bufLen = bufLen;
         buf = new byte[bufLen];
-    	this.cacheFile = File.createTempFile("cafe-FCRAIS-", ".tmp");
-        cacheFile.deleteOnExit();
+    	// Deleted on close, see SpillCache
+    	this.cacheFile = SpillCache.createTempFile("cafe-FCRAIS-");
         this.cache = new RandomAccessFile(cacheFile, "rw");
     }
 
@@ -133,6 +134,22 @@ public class FileCacheRandomAccessInputStream extends RandomAccessInputStream {
         pointer = pos;
     }
 
+    /**
+     * Caches the range first and then hands it over to the output
+     * stream as a file channel.
+     */
+    public void copyTo(RandomAccessOutputStream out, long position, long count) throws IOException {
+    	ensureOpen();
+    	if (position < 0 || count < 0) {
+    		throw new IndexOutOfBoundsException();
+    	}
+    	if (readUntil(position + count) < position + count) {
+    		throw new EOFException();
+    	}
+    	out.transferFrom(cache.getChannel(), position, count);
+    	pointer = position + count;
+    }
+    
     public int read() throws IOException {
     	ensureOpen();
         long next = pointer + 1;
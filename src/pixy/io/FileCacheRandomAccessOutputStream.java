@@ -20,9 +20,11 @@
 package pixy.io;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 
 public class FileCacheRandomAccessOutputStream extends RandomAccessOutputStream {
 
@@ -45,16 +47,14 @@ public class FileCacheRandomAccessOutputStream extends RandomAccessOutputStream
     
     public FileCacheRandomAccessOutputStream(OutputStream dist) throws IOException {
     	super(dist);
-        this.cacheFile = File.createTempFile("cafe-FCRAOS-", ".tmp");
-        cacheFile.deleteOnExit();
+        this.cacheFile = SpillCache.createTempFile("cafe-FCRAOS-");
         this.cache = new RandomAccessFile(cacheFile, "rw");
     }
     
     public FileCacheRandomAccessOutputStream(OutputStream dist, int bufLen) throws IOException {
     	super(dist);
     	this.bufLen = bufLen;
-        this.cacheFile = File.createTempFile("cafe-FCRAOS-", ".tmp");
-        cacheFile.deleteOnExit();
+        this.cacheFile = SpillCache.createTempFile("cafe-FCRAOS-");
         this.cache = new RandomAccessFile(cacheFile, "rw");
     }
     
@@ -106,6 +106,24 @@ public class FileCacheRandomAccessOutputStream extends RandomAccessOutputStream
         pointer = pos;
     }
 
+	/**
+	 * Lets the source channel write straight into the cache file.
+	 */
+	@Override
+	public void transferFrom(FileChannel src, long position, long count) throws IOException {
+		ensureOpen();
+		if ((count < 0) || (pointer < 0)) {
+			throw new IndexOutOfBoundsException();
+		}
+		FileChannel target = cache.getChannel();
+		target.position(pointer);
+		IOUtils.transferFully(src, position, count, target);
+		pointer += count;
+		if (pointer > length) {
+			length = pointer;
+		}
+	}
+	
 	@Override
 	public void write(byte[] b, int off, int len) throws IOException {
 		ensureOpen();
@@ -157,6 +175,14 @@ public class FileCacheRandomAccessOutputStream extends RandomAccessOutputStream
             throw new IndexOutOfBoundsException("Negative pointer or len");
         }
         
+        if (dist instanceof FileOutputStream) {
+        	// Both ends are files, let the channels move the data
+        	FileChannel target = ((FileOutputStream)dist).getChannel();
+        	IOUtils.transferFully(cache.getChannel(), pointer, len, target);
+        	flushPos += len;
+        	return;
+        }
+        
         cache.seek(pointer);
 
         while (len > 0) {
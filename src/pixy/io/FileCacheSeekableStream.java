@@ -62,8 +62,7 @@ public final class FileCacheSeekableStream extends SeekableStream {
     public FileCacheSeekableStream(InputStream stream)
         throws IOException {
         this.stream = stream;
-        this.cacheFile = File.createTempFile("jai-FCSS-", ".tmp");
-        cacheFile.deleteOnExit();
+        this.cacheFile = SpillCache.createTempFile("jai-FCSS-");
         this.cache = new RandomAccessFile(cacheFile, "rw");
     }
 
@@ -76,13 +76,13 @@ public class ForwardSeekableStream extends SeekableStream {
     }
 
     /** Forwards the request to the real <code>InputStream</code>. */
-    public synchronized final void mark(int readLimit) {
+    public final void mark(int readLimit) {
         markPos = pointer;
         src.mark(readLimit);
     }
 
     /** Forwards the request to the real <code>InputStream</code>. */
-    public synchronized final void reset() throws IOException {
+    public final void reset() throws IOException {
         if (markPos != -1) {
             pointer = markPos;
         }
@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Implements a random access input stream which caches the source stream in
+ * memory and only moves the cache to a temporary file once it grows beyond a
+ * threshold, so small images never touch the disk. See {@link SpillCache}.
+ * <p>
+ * The temporary file, if any, is deleted when the stream is closed.
+ */
+public class HybridCacheRandomAccessInputStream extends RandomAccessInputStream {
+	private SpillCache cache;
+	/** Next byte to be read. */
+	private long pointer = 0;
+	/** True if we've encountered the end of the source stream. */
+	private boolean foundEOF = false;
+
+	/**
+	 * Creates a stream keeping up to {@link SpillCache#getDefaultMemoryThreshold()} bytes in memory.
+	 */
+	public HybridCacheRandomAccessInputStream(InputStream src) {
+		this(src, SpillCache.getDefaultMemoryThreshold());
+	}
+
+	/**
+	 * @param src source InputStream
+	 * @param memoryThreshold number of bytes kept in memory before spilling to disk
+	 */
+	public HybridCacheRandomAccessInputStream(InputStream src, long memoryThreshold) {
+		super(src);
+		this.cache = new SpillCache(memoryThreshold, "pixy-HCRAIS-");
+	}
+
+	/**
+	 * Ensures that at least <code>pos</code> bytes are cached,
+	 * or the end of the source is reached. Returns the smaller
+	 * of <code>pos</code> and the length of the source.
+	 */
+	private long readUntil(long pos) throws IOException {
+		long length = cache.length();
+		if (pos <= length || foundEOF) {
+			return Math.min(pos, length);
+		}
+		while (length < pos) {
+			int nbytes = cache.readFrom(src, (int)Math.min(pos - length, Integer.MAX_VALUE));
+			if (nbytes == -1) {
+				foundEOF = true;
+				return length;
+			}
+			length += nbytes;
+		}
+
+		return pos;
+	}
+
+	public long getStreamPointer() {
+		return pointer;
+	}
+
+	public void seek(long pos) throws IOException {
+		ensureOpen();
+		if (pos < 0) {
+			throw new IOException("Negtive seek position.");
+		}
+		pointer = pos;
+	}
+
+	/**
+	 * Caches the range first, then hands it over as a file channel if
+	 * it was spilled to disk or writes it straight from memory otherwise.
+	 */
+	public void copyTo(RandomAccessOutputStream out, long position, long count) throws IOException {
+		ensureOpen();
+		if (position < 0 || count < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (readUntil(position + count) < position + count) {
+			throw new EOFException();
+		}
+		FileChannel channel = cache.getChannel();
+		if (channel != null)
+			out.transferFrom(channel, position, count);
+		else
+			cache.writeTo(position, count, out);
+		pointer = position + count;
+	}
+
+	public int read() throws IOException {
+		ensureOpen();
+		if (readUntil(pointer + 1) <= pointer) {
+			return -1;
+		}
+		return cache.read(pointer++);
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if (b == null) {
+			throw new NullPointerException();
+		}
+		if ((off < 0) || (len < 0) || (off + len > b.length)) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		readUntil(pointer + len);
+		int nbytes = cache.read(pointer, b, off, len);
+		if (nbytes > 0) {
+			pointer += nbytes;
+		}
+		return nbytes;
+	}
+
+	public void close() throws IOException {
+		if(closed) return;
+		try {
+			cache.close();
+		} finally {
+			src.close();
+			src = null;
+			closed = true;
+		}
+	}
+
+	public void shallowClose() throws IOException {
+		if(closed) return;
+		try {
+			cache.close();
+		} finally {
+			src = null;
+			closed = true;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Implements a random access output stream which caches the data in memory
+ * and only moves them to a temporary file once they grow beyond a threshold.
+ * See {@link SpillCache}.
+ * <p>
+ * The data are written to the destination stream on writeToStream() or close()
+ * like the other RandomAccessOutputStream implementations. The temporary file,
+ * if any, is deleted when the stream is closed.
+ */
+public class HybridCacheRandomAccessOutputStream extends RandomAccessOutputStream {
+	private SpillCache cache;
+	private long pointer = 0L;
+	private long flushPos = 0L;
+
+	/**
+	 * Creates a stream keeping up to {@link SpillCache#getDefaultMemoryThreshold()} bytes in memory.
+	 */
+	public HybridCacheRandomAccessOutputStream(OutputStream dist) {
+		this(dist, SpillCache.getDefaultMemoryThreshold());
+	}
+
+	/**
+	 * @param dist destination OutputStream
+	 * @param memoryThreshold number of bytes kept in memory before spilling to disk
+	 */
+	public HybridCacheRandomAccessOutputStream(OutputStream dist, long memoryThreshold) {
+		super(dist);
+		this.cache = new SpillCache(memoryThreshold, "pixy-HCRAOS-");
+	}
+
+	public void close() throws IOException {
+		if(closed) return;
+		try {
+			super.close();
+		} finally {
+			cache.close();
+			dist.close();
+			dist = null;
+			closed = true;
+		}
+	}
+
+	@Override
+	public void disposeBefore(long pos) {
+		throw new UnsupportedOperationException("This method is not implemented");
+	}
+
+	@Override
+	public long getFlushPos() {
+		return flushPos;
+	}
+
+	@Override
+	public long getLength() {
+		return cache.length();
+	}
+
+	@Override
+	public long getStreamPointer() {
+		return pointer;
+	}
+
+	@Override
+	public void reset() { }
+
+	@Override
+	public void seek(long pos) throws IOException {
+		ensureOpen();
+		if (pos < 0) {
+			throw new IOException("Negtive seek position.");
+		}
+		pointer = pos;
+	}
+
+	@Override
+	public void shallowClose() throws IOException {
+		if(closed) return;
+		try {
+			super.close();
+		} finally {
+			cache.close();
+			dist = null;
+			closed = true;
+		}
+	}
+
+	/**
+	 * Reads the range straight into the cache.
+	 */
+	@Override
+	public void transferFrom(FileChannel src, long position, long count) throws IOException {
+		ensureOpen();
+		if ((count < 0) || (pointer < 0)) {
+			throw new IndexOutOfBoundsException();
+		}
+		cache.transferFrom(src, position, count, pointer);
+		pointer += count;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if (b == null) {
+			throw new NullPointerException("b == null!");
+		}
+		if ((off < 0) || (len < 0) || (pointer < 0) ||
+				(off + len > b.length) || (off + len < 0)) {
+			throw new IndexOutOfBoundsException();
+		}
+		cache.write(pointer, b, off, len);
+		pointer += len;
+	}
+
+	@Override
+	public void write(int value) throws IOException {
+		ensureOpen();
+		if (pointer < 0)
+			throw new IndexOutOfBoundsException("pointer < 0");
+		cache.write(pointer, value);
+		pointer++;
+	}
+
+	@Override
+	public void writeToStream(long len) throws IOException {
+		ensureOpen();
+		if (len == 0) {
+			return;
+		}
+		if (pointer + len > cache.length()) {
+			throw new IndexOutOfBoundsException("Argument out of cache");
+		}
+		if ((pointer < 0) || (len < 0)) {
+			throw new IndexOutOfBoundsException("Negative pointer or len");
+		}
+		cache.writeTo(pointer, len, dist);
+		flushPos += len;
+	}
+}
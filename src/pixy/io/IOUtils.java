@@ -15,6 +15,9 @@ import java.io.EOFException;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * General purpose IO helper class
@@ -266,8 +269,48 @@ public class IOUtils {
 	}
 	
 	public static void skipFully(InputStream is, int n) throws IOException {
-		readFully(is, new byte[n]);
-	}	
+		skipFully(is, (long)n);
+	}
+	
+	/**
+	 * Skips exactly n bytes. Falls back to reading through a small
+	 * buffer when the stream skips less than requested.
+	 */
+	public static void skipFully(InputStream is, long n) throws IOException {
+		byte[] buf = null;
+		while(n > 0) {
+			long skipped = is.skip(n);
+			if(skipped <= 0) {
+				if(buf == null) buf = new byte[(int)Math.min(n, 4096)];
+				int nbytes = is.read(buf, 0, (int)Math.min(n, buf.length));
+				if(nbytes < 0) throw new EOFException();
+				skipped = nbytes;
+			}
+			n -= skipped;
+		}
+	}
+	 
+	/**
+	 * Transfers exactly count bytes of the source channel starting at position
+	 * to the target channel. Falls back to copying through a small buffer when
+	 * transferTo makes no progress.
+	 */
+	public static void transferFully(FileChannel src, long position, long count, WritableByteChannel target) throws IOException {
+		byte[] buf = null;
+		while(count > 0) {
+			long nbytes = src.transferTo(position, count, target);
+			if(nbytes <= 0) {
+				if(buf == null) buf = new byte[(int)Math.min(count, 8192)];
+				nbytes = src.read(ByteBuffer.wrap(buf, 0, (int)Math.min(count, buf.length)), position);
+				if(nbytes <= 0) throw new EOFException();
+				ByteBuffer data = ByteBuffer.wrap(buf, 0, (int)nbytes);
+				while(data.hasRemaining())
+					target.write(data);
+			}
+			position += nbytes;
+			count -= nbytes;
+		}
+	}
 	 
 	public static void write(OutputStream os, byte[] bytes) throws IOException {
 		os.write(bytes);
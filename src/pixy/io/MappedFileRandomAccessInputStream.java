@@ -0,0 +1,280 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implements a random access input stream backed by a memory mapped file.
+ * <p>
+ * Unlike FileCacheRandomAccessInputStream, no temporary copy of the data is
+ * made: the file itself is mapped read-only and random access goes straight
+ * to the mapped pages. Files larger than 1 GB are mapped in several regions.
+ * <p>
+ * Multi-byte values are decoded with the ReadStrategy set on this stream.
+ * <p>
+ * Several threads can read the same mapping through streams created with
+ * {@link #duplicate()}, each with its own stream pointer.
+ * <p>
+ * The regions are unmapped and the file is closed once this stream and all
+ * its duplicates are closed, so the file isn't kept locked until the buffers
+ * are garbage collected. Where the JVM doesn't allow unmapping, the regions
+ * are left to the garbage collector as before.
+ */
+public class MappedFileRandomAccessInputStream extends RandomAccessInputStream {
+	// Each mapped region is at most 1 GB
+	private static final int REGION_SHIFT = 30;
+	private static final long REGION_SIZE = 1L << REGION_SHIFT;
+	private static final long REGION_MASK = REGION_SIZE - 1;
+
+	// Obtain a logger instance
+	private static final Logger LOGGER = LoggerFactory.getLogger(MappedFileRandomAccessInputStream.class);
+	private static final Unmapper UNMAPPER = createUnmapper();
+
+	private RandomAccessFile file;
+	private MappedByteBuffer[] regions;
+	private long length;
+	private long pointer;
+	// Number of open streams sharing the mapping, this one and its duplicates
+	private final AtomicInteger users;
+
+	public MappedFileRandomAccessInputStream(File file) throws IOException {
+		super(null);
+		this.file = new RandomAccessFile(file, "r");
+		this.users = new AtomicInteger(1);
+		try {
+			FileChannel channel = this.file.getChannel();
+			length = channel.size();
+			int numOfRegions = (int)((length + REGION_SIZE - 1) >>> REGION_SHIFT);
+			regions = new MappedByteBuffer[numOfRegions];
+			for(int i = 0; i < numOfRegions; i++) {
+				long start = (long)i << REGION_SHIFT;
+				regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, length - start));
+			}
+		} catch(IOException ex) {
+			release(this.file, regions);
+			throw ex;
+		}
+	}
+
+	private MappedFileRandomAccessInputStream(MappedFileRandomAccessInputStream other) {
+		super(null);
+		this.file = other.file;
+		this.regions = other.regions;
+		this.length = other.length;
+		this.users = other.users;
+		setReadStrategy(other.getReadStrategy());
+	}
+
+	public MappedFileRandomAccessInputStream(Path path) throws IOException {
+		this(path.toFile());
+	}
+
+	public MappedFileRandomAccessInputStream(String path) throws IOException {
+		this(new File(path));
+	}
+
+	public int available() throws IOException {
+		ensureOpen();
+		return (int)Math.min(Integer.MAX_VALUE, Math.max(0L, length - pointer));
+	}
+
+	/**
+	 * Closes the stream. The regions are unmapped and the file is closed
+	 * when the last of this stream and its duplicates is closed.
+	 */
+	public void close() throws IOException {
+		if(closed) return;
+		MappedByteBuffer[] regions = this.regions;
+		RandomAccessFile file = this.file;
+		this.regions = null;
+		this.file = null;
+		closed = true;
+		if(users.decrementAndGet() == 0)
+			release(file, regions);
+	}
+
+	/**
+	 * Hands the range over to the output stream as a file channel
+	 * so file backed outputs can transfer it without a heap copy.
+	 */
+	public void copyTo(RandomAccessOutputStream out, long position, long count) throws IOException {
+		ensureOpen();
+		if (position < 0 || count < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (position + count > length) {
+			throw new EOFException();
+		}
+		out.transferFrom(file.getChannel(), position, count);
+		pointer = position + count;
+	}
+	
+	/**
+	 * Creates a stream reading the same mapping from position 0 with the
+	 * read strategy of this stream. No data are copied and the mapped pages
+	 * are shared, so each thread can read the file through its own duplicate.
+	 * <p>
+	 * Closing the duplicate leaves this stream open and the other way round.
+	 * The mapping is shared until all of them are closed.
+	 */
+	public MappedFileRandomAccessInputStream duplicate() throws IOException {
+		ensureOpen();
+		// Only join the mapping while it is still held by somebody
+		for(;;) {
+			int n = users.get();
+			if(n <= 0)
+				throw new IOException("Stream closed");
+			if(users.compareAndSet(n, n + 1))
+				break;
+		}
+		return new MappedFileRandomAccessInputStream(this);
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public long getStreamPointer() {
+		return pointer;
+	}
+
+	public int read() throws IOException {
+		ensureOpen();
+		if(pointer >= length) return -1;
+		int value = regions[(int)(pointer >>> REGION_SHIFT)].get((int)(pointer & REGION_MASK))&0xff;
+		pointer++;
+		return value;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if (b == null) {
+			throw new NullPointerException();
+		}
+		if ((off < 0) || (len < 0) || (off + len > b.length)) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (pointer >= length) {
+			return -1;
+		}
+		len = (int)Math.min(len, length - pointer);
+		int bytesRead = 0;
+		// A read may cross the boundary of two regions
+		while(bytesRead < len) {
+			MappedByteBuffer region = regions[(int)(pointer >>> REGION_SHIFT)];
+			int pos = (int)(pointer & REGION_MASK);
+			int n = Math.min(len - bytesRead, region.capacity() - pos);
+			// Work on a duplicate so the shared region position is never touched
+			ByteBuffer view = region.duplicate();
+			view.position(pos);
+			view.get(b, off + bytesRead, n);
+			bytesRead += n;
+			pointer += n;
+		}
+		return len;
+	}
+
+	// Unmaps the regions before closing the file, nothing may read them afterwards
+	private static void release(RandomAccessFile file, MappedByteBuffer[] regions) throws IOException {
+		if(regions != null && UNMAPPER != null) {
+			for(MappedByteBuffer region : regions) {
+				if(region != null) UNMAPPER.unmap(region);
+			}
+		}
+		file.close();
+	}
+
+	public void seek(long pos) throws IOException {
+		ensureOpen();
+		if (pos < 0) {
+			throw new IOException("Negtive seek position.");
+		}
+		pointer = pos;
+	}
+
+	/**
+	 * Same as close(), the file is opened by this stream.
+	 */
+	public void shallowClose() throws IOException {
+		close();
+	}
+
+	public long skip(long n) throws IOException {
+		ensureOpen();
+		if (n <= 0 || pointer >= length) {
+			return 0;
+		}
+		long skipped = Math.min(n, length - pointer);
+		pointer += skipped;
+		return skipped;
+	}
+
+	/*
+	 * There is no public API to unmap a buffer. Java 9 and later expose
+	 * Unsafe.invokeCleaner(), Java 8 has a cleaner on the direct buffer itself.
+	 */
+	private interface Unmapper {
+		public void unmap(ByteBuffer buffer);
+	}
+
+	private static Unmapper createUnmapper() {
+		try {
+			if(System.getProperty("java.specification.version", "").startsWith("1.")) {
+				final Method cleanerMethod = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+				final Method cleanMethod = Class.forName("sun.misc.Cleaner").getMethod("clean");
+				return new Unmapper() {
+					public void unmap(ByteBuffer buffer) {
+						try {
+							Object cleaner = cleanerMethod.invoke(buffer);
+							if(cleaner != null) cleanMethod.invoke(cleaner);
+						} catch (Exception e) {
+							LOGGER.debug("Unable to unmap buffer", e);
+						}
+					}
+				};
+			}
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			final Object unsafe = field.get(null);
+			final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			return new Unmapper() {
+				public void unmap(ByteBuffer buffer) {
+					try {
+						invokeCleaner.invoke(unsafe, buffer);
+					} catch (Exception e) {
+						LOGGER.debug("Unable to unmap buffer", e);
+					}
+				}
+			};
+		} catch (Exception e) { // Not available, leave the buffers to the garbage collector
+			LOGGER.debug("Mapped buffers can't be unmapped on this JVM", e);
+			return null;
+		}
+	}
+}
@@ -111,4 +111,19 @@ public class PeekHeadInputStream extends InputStream {
 			return len;
 		}
 	}
+
+	/**
+	 * Skips in the source stream once the peeked bytes are consumed, InputStream.skip()
+	 * would allocate a scratch buffer for every call.
+	 */
+	@Override
+	public long skip(long n) throws IOException {
+		ensureOpen();
+		if (n <= 0) return 0;
+		if (position >= buffer.length)
+			return src.skip(n);
+		int skipped = (int)Math.min(n, buffer.length - position);
+		position += skipped;
+		return skipped;
+	}
 }
\ No newline at end of file
@@ -7,14 +7,14 @@ import java.util.ResourceBundle;
 
 public class PropertyUtil
 {
-  private static ResourceBundle b;
+  // Loaded on first use, class initialization makes it visible to all threads
+  private static class BundleHolder {
+	  static final ResourceBundle b = getBundle();
+  }
   
   public static String getString( String key )
   {
-	  if (b == null) {
-		  b = getBundle();
-	  }
-	  return b.getString(key);
+	  return BundleHolder.b.getString(key);
   }
   
   /** Get bundle from .properties files in the current dir. */
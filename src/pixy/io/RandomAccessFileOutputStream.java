@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * Implements a random access output stream which writes straight into a file.
+ * <p>
+ * There is no cache and no destination stream: every write goes to the file
+ * at the current stream pointer and the existing content of the file is kept,
+ * so this stream can be used to patch a file in place. writeToStream() has
+ * nothing left to do.
+ */
+public class RandomAccessFileOutputStream extends RandomAccessOutputStream {
+	private RandomAccessFile file;
+	private long pointer = 0L;
+
+	/**
+	 * Opens the file for writing without truncating it. The file is created
+	 * if it doesn't exist.
+	 */
+	public RandomAccessFileOutputStream(File file) throws IOException {
+		this(new RandomAccessFile(file, "rw"));
+	}
+
+	public RandomAccessFileOutputStream(String path) throws IOException {
+		this(new File(path));
+	}
+
+	/**
+	 * @param file RandomAccessFile opened for writing. It is closed along with this stream.
+	 */
+	public RandomAccessFileOutputStream(RandomAccessFile file) {
+		super(null);
+		if(file == null) throw new IllegalArgumentException("Output file is null");
+		this.file = file;
+	}
+
+	public void close() throws IOException {
+		if(closed) return;
+		super.close();
+		file.close();
+		closed = true;
+	}
+
+	@Override
+	public void disposeBefore(long pos) {
+		throw new UnsupportedOperationException("This method is not implemented");
+	}
+
+	/**
+	 * Forces the content written so far to the storage device.
+	 */
+	public void sync() throws IOException {
+		ensureOpen();
+		file.getChannel().force(false);
+	}
+
+	@Override
+	public long getFlushPos() {
+		return getLength();
+	}
+
+	@Override
+	public long getLength() {
+		try {
+			return file.length();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public long getStreamPointer() {
+		return pointer;
+	}
+
+	@Override
+	public void reset() { }
+
+	@Override
+	public void seek(long pos) throws IOException {
+		ensureOpen();
+		if (pos < 0) {
+			throw new IOException("Negtive seek position.");
+		}
+		pointer = pos;
+	}
+
+	@Override
+	public void shallowClose() throws IOException {
+		close();
+	}
+
+	/**
+	 * Lets the source channel write straight into the file.
+	 */
+	@Override
+	public void transferFrom(FileChannel src, long position, long count) throws IOException {
+		ensureOpen();
+		if ((count < 0) || (pointer < 0)) {
+			throw new IndexOutOfBoundsException();
+		}
+		FileChannel target = file.getChannel();
+		target.position(pointer);
+		IOUtils.transferFully(src, position, count, target);
+		pointer += count;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if (b == null) {
+			throw new NullPointerException("b == null!");
+		}
+		if ((off < 0) || (len < 0) || (pointer < 0) ||
+				(off + len > b.length) || (off + len < 0)) {
+			throw new IndexOutOfBoundsException();
+		}
+		file.seek(pointer);
+		file.write(b, off, len);
+		pointer += len;
+	}
+
+	@Override
+	public void write(int value) throws IOException {
+		ensureOpen();
+		if (pointer < 0)
+			throw new IndexOutOfBoundsException("pointer < 0");
+		file.seek(pointer);
+		file.write(value);
+		pointer++;
+	}
+
+	/**
+	 * The data are already in the file, only checks the arguments.
+	 */
+	@Override
+	public void writeToStream(long len) throws IOException {
+		ensureOpen();
+		if ((pointer < 0) || (len < 0)) {
+			throw new IndexOutOfBoundsException("Negative pointer or len");
+		}
+	}
+}
@@ -29,17 +29,25 @@ import java.io.InputStream;
  * NOTE:  for MemoryCacheRandomAccessInputStream, there is the risk of "over read" in which
  * more bytes are cached in the buffer than actually needed. In this case, the underlying
  * stream might not be usable anymore afterwards. 
+ * <p>
+ * A stream is meant to be used by one thread at a time and mark() and reset()
+ * are not synchronized. Threads reading different images need no locking as
+ * long as each of them has its own stream.
  * 
  * @author Wen Yu, yuwen_66@yahoo.com
  * @version 1.0 01/24/2013 
  */ 
 public abstract class RandomAccessInputStream extends InputStream implements DataInput {	
     
+    private static final int COPY_BUFFER_SIZE = 65536;
+    
     private ReadStrategy strategy = ReadStrategyMM.getInstance();
 
 	 /** The source stream. */
     protected InputStream src;
     protected boolean closed;
+    /** The marked position. */
+    private long markPos = -1L;
     
     protected RandomAccessInputStream(InputStream src) {
     	this.src = src;
@@ -59,6 +67,30 @@ public abstract class RandomAccessInputStream extends InputStream implements Dat
     		throw new IOException("Stream closed");
     }
     
+    /**
+     * Copies a range of this stream to the current position of the output stream.
+     * <p>
+     * The default implementation goes through a fixed size buffer. Streams backed
+     * by a file or by memory override this to avoid the intermediate copy.
+     * The stream pointer is left at the end of the range.
+     * 
+     * @param out RandomAccessOutputStream to copy to
+     * @param position start of the range in this stream
+     * @param count number of bytes to copy
+     * @throws EOFException if the range goes past the end of this stream
+     */
+    public void copyTo(RandomAccessOutputStream out, long position, long count) throws IOException {
+    	seek(position);
+    	byte[] buf = new byte[(int)Math.min(count, COPY_BUFFER_SIZE)];
+    	while(count > 0) {
+    		int nbytes = read(buf, 0, (int)Math.min(count, buf.length));
+    		if(nbytes < 0)
+    			throw new EOFException();
+    		out.write(buf, 0, nbytes);
+    		count -= nbytes;
+    	}
+    }
+    
     protected void finalize() throws Throwable {
 		super.finalize();
 		close();
@@ -68,8 +100,27 @@ public abstract class RandomAccessInputStream extends InputStream implements Dat
     	return strategy instanceof ReadStrategyMM?IOUtils.BIG_ENDIAN:IOUtils.LITTLE_ENDIAN;
     }
 	
+	/**
+	 * @return the ReadStrategy used to decode multi-byte values
+	 */
+	public ReadStrategy getReadStrategy() {
+		return strategy;
+	}
+	
 	public abstract long getStreamPointer();
 	
+	/**
+	 * Marks the current position. Since the stream is seekable,
+	 * the read limit is ignored.
+	 */
+	public void mark(int readLimit) {
+		markPos = getStreamPointer();
+	}
+	
+	public boolean markSupported() {
+		return true;
+	}
+	
 	public abstract int read() throws IOException;
 	
 	public abstract int read(byte[] b, int off, int len) throws IOException;
@@ -186,6 +237,12 @@ public abstract class RandomAccessInputStream extends InputStream implements Dat
 		return new DataInputStream(this).readUTF();	
 	} 
 	
+	public void reset() throws IOException {
+		if (markPos == -1L)
+			throw new IOException("Mark not set");
+		seek(markPos);
+	}
+	
 	public abstract void seek(long loc) throws IOException;
 	
 	public void setReadStrategy(ReadStrategy strategy) {
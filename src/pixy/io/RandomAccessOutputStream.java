@@ -20,8 +20,11 @@ package pixy.io;
 
 import java.io.DataOutput;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Based on javax.imageio.stream.MemoryCache.java.
@@ -107,6 +110,31 @@ public abstract class RandomAccessOutputStream extends OutputStream implements D
 		this.strategy = strategy;
 	}
 	
+	/**
+	 * Writes a range of a file to the current position of this stream.
+	 * <p>
+	 * The default implementation reads the range through a fixed size buffer.
+	 * File backed streams override this to let the channels move the data.
+	 * 
+	 * @param src FileChannel to read from, its position is not changed
+	 * @param position start of the range in the channel
+	 * @param count number of bytes to write
+	 * @throws EOFException if the range goes past the end of the channel
+	 */
+	public void transferFrom(FileChannel src, long position, long count) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate((int)Math.min(count, 65536));
+		while(count > 0) {
+			buf.clear();
+			buf.limit((int)Math.min(count, buf.capacity()));
+			int nbytes = src.read(buf, position);
+			if(nbytes < 0)
+				throw new EOFException();
+			write(buf.array(), 0, nbytes);
+			position += nbytes;
+			count -= nbytes;
+		}
+	}
+	
 	public abstract void write(byte[] b, int off, int len) throws IOException;
 	
 	@Override
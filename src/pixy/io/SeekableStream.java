@@ -183,7 +183,7 @@ public abstract class SeekableStream extends InputStream implements DataInput {
      * Marks the current file position for later return using
      * the <code>reset()</code> method.
      */
-    public synchronized void mark(int readLimit) {
+    public void mark(int readLimit) {
         try {
             markPos = getFilePointer();
         } catch (IOException e) {
@@ -196,7 +196,7 @@ public abstract class SeekableStream extends InputStream implements DataInput {
      * the immediately previous call to the <code>mark()</code>
      * method.
      */
-    public synchronized void reset() throws IOException {
+    public void reset() throws IOException {
         if (markPos != -1) {
             seek(markPos);
         }
@@ -0,0 +1,344 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Random access storage for the hybrid cache streams which keeps its data in
+ * memory blocks taken from the {@link BufferPool} and moves them to a temporary
+ * file once the data grow beyond a threshold.
+ * <p>
+ * Temporary files are created in a single spill directory and deleted when the
+ * cache is closed. No file is registered with File.deleteOnExit(), so a long
+ * running JVM doesn't keep an entry for every stream it ever cached. The default
+ * spill directory is created on first use under java.io.tmpdir and is the only
+ * path registered for deletion on exit.
+ */
+public final class SpillCache {
+	private static final int BLOCK_SHIFT = 13;
+	private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	private static volatile long defaultThreshold = 8L << 20; // 8M
+	private static volatile File directory;
+	// Created on demand when no directory is set, guarded by SpillCache.class
+	private static File defaultDirectory;
+
+	private final long threshold;
+	private final String prefix;
+	private final BufferPool pool;
+	private List<byte[]> blocks = new ArrayList<byte[]>();
+	private long length;
+	// Set once the data are spilled to disk
+	private File cacheFile;
+	private RandomAccessFile cache;
+
+	/**
+	 * @param threshold number of bytes kept in memory before spilling to disk
+	 * @param prefix prefix of the temporary file name
+	 */
+	SpillCache(long threshold, String prefix) {
+		if(threshold < 0) throw new IllegalArgumentException("Negative memory threshold: " + threshold);
+		this.threshold = threshold;
+		this.prefix = prefix;
+		this.pool = BufferPool.getDefault();
+	}
+
+	/**
+	 * @return number of bytes kept in memory by caches created without an explicit threshold
+	 */
+	public static long getDefaultMemoryThreshold() {
+		return defaultThreshold;
+	}
+
+	/**
+	 * Sets the number of bytes a hybrid cache stream keeps in memory before it
+	 * spills to disk. Zero sends all data to disk.
+	 */
+	public static void setDefaultMemoryThreshold(long threshold) {
+		if(threshold < 0) throw new IllegalArgumentException("Negative memory threshold: " + threshold);
+		defaultThreshold = threshold;
+	}
+
+	/**
+	 * @return the directory temporary cache files are created in
+	 * @throws IOException if the default directory can't be created
+	 */
+	public static File getDirectory() throws IOException {
+		File dir = directory;
+		if(dir != null) return dir;
+		synchronized(SpillCache.class) {
+			if(defaultDirectory == null || !defaultDirectory.isDirectory()) {
+				defaultDirectory = Files.createTempDirectory("pixymeta-").toFile();
+				// Removed on exit if nothing is left in it
+				defaultDirectory.deleteOnExit();
+			}
+			return defaultDirectory;
+		}
+	}
+
+	/**
+	 * Sets the directory temporary cache files are created in.
+	 *
+	 * @param dir an existing directory or null to go back to the default one
+	 */
+	public static void setDirectory(File dir) {
+		if(dir != null && !dir.isDirectory()) throw new IllegalArgumentException(dir + " is not a directory");
+		directory = dir;
+	}
+
+	/**
+	 * Creates an empty temporary file in the spill directory. The caller deletes it.
+	 */
+	static File createTempFile(String prefix) throws IOException {
+		return File.createTempFile(prefix, ".tmp", getDirectory());
+	}
+
+	void close() throws IOException {
+		if(cache != null) {
+			try {
+				cache.close();
+			} finally {
+				cacheFile.delete();
+				cache = null;
+				cacheFile = null;
+			}
+		}
+		if(blocks != null) {
+			for(byte[] block : blocks)
+				pool.release(block);
+			blocks = null;
+		}
+	}
+
+	/**
+	 * @return the cache file channel or null if the data are still in memory
+	 */
+	FileChannel getChannel() {
+		return (cache == null)? null : cache.getChannel();
+	}
+
+	long length() {
+		return length;
+	}
+
+	int read(long pos) throws IOException {
+		if(pos >= length) return -1;
+		if(cache != null) {
+			cache.seek(pos);
+			return cache.read();
+		}
+		return blocks.get((int)(pos >> BLOCK_SHIFT))[(int)(pos & BLOCK_MASK)]&0xff;
+	}
+
+	/**
+	 * Reads up to len bytes at pos, returns -1 if pos is at or past the end.
+	 */
+	int read(long pos, byte[] b, int off, int len) throws IOException {
+		if(pos >= length) return -1;
+		len = (int)Math.min(len, length - pos);
+		if(cache != null) {
+			cache.seek(pos);
+			cache.readFully(b, off, len);
+			return len;
+		}
+		for(int remaining = len; remaining > 0; ) {
+			int index = (int)(pos & BLOCK_MASK);
+			int nbytes = Math.min(remaining, BLOCK_SIZE - index);
+			System.arraycopy(blocks.get((int)(pos >> BLOCK_SHIFT)), index, b, off, nbytes);
+			pos += nbytes;
+			off += nbytes;
+			remaining -= nbytes;
+		}
+		return len;
+	}
+
+	/**
+	 * Appends up to len bytes read from the source stream to the end of the cache.
+	 *
+	 * @return number of bytes appended or -1 at the end of the source stream
+	 */
+	int readFrom(InputStream src, int len) throws IOException {
+		// Never more than what is left in the last block
+		int index = (int)(length & BLOCK_MASK);
+		len = Math.min(len, BLOCK_SIZE - index);
+		if(cache == null && length + len > threshold)
+			spill();
+		if(cache != null) {
+			byte[] buf = pool.acquire(len);
+			try {
+				int nbytes = src.read(buf, 0, len);
+				if(nbytes > 0) {
+					cache.seek(length);
+					cache.write(buf, 0, nbytes);
+					length += nbytes;
+				}
+				return nbytes;
+			} finally {
+				pool.release(buf);
+			}
+		}
+		// Read straight into the last block
+		if(index == 0 && (length >> BLOCK_SHIFT) == blocks.size())
+			blocks.add(newBlock());
+		int nbytes = src.read(blocks.get((int)(length >> BLOCK_SHIFT)), index, len);
+		if(nbytes > 0)
+			length += nbytes;
+		return nbytes;
+	}
+
+	void write(long pos, int value) throws IOException {
+		ensureCapacity(pos + 1);
+		if(cache != null) {
+			cache.seek(pos);
+			cache.write(value);
+		} else
+			blocks.get((int)(pos >> BLOCK_SHIFT))[(int)(pos & BLOCK_MASK)] = (byte)value;
+		if(pos >= length)
+			length = pos + 1;
+	}
+
+	void write(long pos, byte[] b, int off, int len) throws IOException {
+		ensureCapacity(pos + len);
+		if(cache != null) {
+			cache.seek(pos);
+			cache.write(b, off, len);
+		} else {
+			for(long p = pos, end = pos + len; p < end; ) {
+				int index = (int)(p & BLOCK_MASK);
+				int nbytes = (int)Math.min(end - p, BLOCK_SIZE - index);
+				System.arraycopy(b, off, blocks.get((int)(p >> BLOCK_SHIFT)), index, nbytes);
+				p += nbytes;
+				off += nbytes;
+			}
+		}
+		if(pos + len > length)
+			length = pos + len;
+	}
+
+	/**
+	 * Writes count bytes of the channel starting at position to the cache at pos.
+	 */
+	void transferFrom(FileChannel src, long position, long count, long pos) throws IOException {
+		ensureCapacity(pos + count);
+		if(cache == null) {
+			for(long p = pos, end = pos + count; p < end; ) {
+				int index = (int)(p & BLOCK_MASK);
+				int nbytes = (int)Math.min(end - p, BLOCK_SIZE - index);
+				readFully(src, position, blocks.get((int)(p >> BLOCK_SHIFT)), index, nbytes);
+				position += nbytes;
+				p += nbytes;
+			}
+		} else {
+			FileChannel target = cache.getChannel();
+			target.position(pos);
+			IOUtils.transferFully(src, position, count, target);
+		}
+		if(pos + count > length)
+			length = pos + count;
+	}
+
+	/**
+	 * Writes count bytes starting at pos to the output stream.
+	 */
+	void writeTo(long pos, long count, OutputStream os) throws IOException {
+		if(pos + count > length) throw new EOFException();
+		if(cache != null) {
+			if(os instanceof FileOutputStream) {
+				// Both ends are files, let the channels move the data
+				IOUtils.transferFully(cache.getChannel(), pos, count, ((FileOutputStream)os).getChannel());
+				return;
+			}
+			byte[] buf = pool.acquire((int)Math.min(count, BLOCK_SIZE));
+			try {
+				cache.seek(pos);
+				while(count > 0) {
+					int nbytes = (int)Math.min(count, buf.length);
+					cache.readFully(buf, 0, nbytes);
+					os.write(buf, 0, nbytes);
+					count -= nbytes;
+				}
+			} finally {
+				pool.release(buf);
+			}
+			return;
+		}
+		while(count > 0) {
+			int index = (int)(pos & BLOCK_MASK);
+			int nbytes = (int)Math.min(count, BLOCK_SIZE - index);
+			os.write(blocks.get((int)(pos >> BLOCK_SHIFT)), index, nbytes);
+			pos += nbytes;
+			count -= nbytes;
+		}
+	}
+
+	// Makes room for the data up to end, spilling to disk past the threshold
+	private void ensureCapacity(long end) throws IOException {
+		if(cache != null) return;
+		if(end > threshold) {
+			spill();
+			return;
+		}
+		while(((long)blocks.size() << BLOCK_SHIFT) < end)
+			blocks.add(newBlock());
+	}
+
+	// Pooled buffers may hold old data, gaps left by seeking past the end read as zeros
+	private byte[] newBlock() {
+		byte[] block = pool.acquire(BLOCK_SIZE);
+		Arrays.fill(block, 0, BLOCK_SIZE, (byte)0);
+		return block;
+	}
+
+	private static void readFully(FileChannel src, long position, byte[] b, int off, int len) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+		while(buf.hasRemaining()) {
+			int nbytes = src.read(buf, position);
+			if(nbytes < 0) throw new EOFException();
+			position += nbytes;
+		}
+	}
+
+	private void spill() throws IOException {
+		File file = createTempFile(prefix);
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			for(int i = 0; i < blocks.size(); i++) {
+				long start = (long)i << BLOCK_SHIFT;
+				if(start >= length) break;
+				raf.write(blocks.get(i), 0, (int)Math.min(BLOCK_SIZE, length - start));
+			}
+		} catch(IOException e) {
+			if(raf != null) raf.close();
+			file.delete();
+			throw e;
+		}
+		cacheFile = file;
+		cache = raf;
+		for(byte[] block : blocks)
+			pool.release(block);
+		blocks.clear();
+	}
+}
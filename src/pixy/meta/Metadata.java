@@ -23,16 +23,22 @@
 package pixy.meta;
 
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,8 +57,12 @@ import pixy.meta.png.PNGMeta;
 import pixy.meta.tiff.TIFFMeta;
 import pixy.meta.xmp.XMP;
 import pixy.image.ImageType;
-import pixy.io.FileCacheRandomAccessInputStream;
-import pixy.io.FileCacheRandomAccessOutputStream;
+import pixy.io.AtomicFileRandomAccessOutputStream;
+import pixy.io.ByteBufferRandomAccessInputStream;
+import pixy.io.ByteBufferRandomAccessOutputStream;
+import pixy.io.HybridCacheRandomAccessInputStream;
+import pixy.io.HybridCacheRandomAccessOutputStream;
+import pixy.io.MappedFileRandomAccessInputStream;
 import pixy.io.PeekHeadInputStream;
 import pixy.io.RandomAccessInputStream;
 import pixy.io.RandomAccessOutputStream;
@@ -89,9 +99,12 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 				JPEGMeta.extractThumbnails(peekHeadInputStream, pathToThumbnail);
 				break;
 			case TIFF:
-				RandomAccessInputStream randIS = new FileCacheRandomAccessInputStream(peekHeadInputStream);
-				TIFFMeta.extractThumbnail(randIS, pathToThumbnail);
-				randIS.shallowClose();
+				RandomAccessInputStream randIS = getRandomAccessInputStream(is, peekHeadInputStream);
+				try {
+					TIFFMeta.extractThumbnail(randIS, pathToThumbnail);
+				} finally {
+					if(randIS != is) randIS.shallowClose();
+				}
 				break;
 			case PNG:
 				LOGGER.info("PNG image format does not contain any thumbnail");
@@ -113,11 +126,147 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 		extractThumbnails(new File(image), pathToThumbnail);
 	}
 	
+	/*
+	 * TIFF needs random access. A RandomAccessInputStream whose magic number has just been
+	 * peeked from its head is used as is, any other stream is cached in memory and only
+	 * spilled into a temporary file if it is large.
+	 */
+	private static RandomAccessInputStream getRandomAccessInputStream(InputStream is, PeekHeadInputStream peekHeadInputStream) throws IOException {
+		if(is instanceof RandomAccessInputStream && ((RandomAccessInputStream)is).getStreamPointer() == IMAGE_MAGIC_NUMBER_LEN)
+			return (RandomAccessInputStream)is;
+		return new HybridCacheRandomAccessInputStream(peekHeadInputStream);
+	}
+	
+	/*
+	 * An empty RandomAccessOutputStream is written to directly. Otherwise in-memory
+	 * input gets an in-memory output cache and anything else a hybrid cache.
+	 */
+	private static RandomAccessOutputStream getRandomAccessOutputStream(OutputStream os, RandomAccessInputStream randIS) throws IOException {
+		if(os instanceof RandomAccessOutputStream && ((RandomAccessOutputStream)os).getLength() == 0)
+			return (RandomAccessOutputStream)os;
+		if(randIS instanceof ByteBufferRandomAccessInputStream)
+			return new ByteBufferRandomAccessOutputStream(os);
+		return new HybridCacheRandomAccessOutputStream(os);
+	}
+	
+	/*
+	 * Runs a TIFF transform on random access views of the streams. Views created
+	 * here may hold a temporary file, so they are closed even if the transform
+	 * fails. Closing them leaves the caller's streams open.
+	 */
+	private static void transformTIFF(InputStream is, PeekHeadInputStream peekHeadInputStream, OutputStream os, TIFFTransform transform) throws IOException {
+		RandomAccessInputStream randIS = getRandomAccessInputStream(is, peekHeadInputStream);
+		try {
+			RandomAccessOutputStream randOS = getRandomAccessOutputStream(os, randIS);
+			try {
+				transform.transform(randIS, randOS);
+			} finally {
+				if(randOS != os) randOS.shallowClose();
+			}
+		} finally {
+			if(randIS != is) randIS.shallowClose();
+		}
+	}
+	
+	/*
+	 * Writes a changed copy of the input image to the output file. The output is
+	 * written to a temporary file next to it, which replaces the output only once
+	 * the image is complete. TIFF writers get the file itself as RandomAccessOutputStream
+	 * so nothing is cached, the other formats are written sequentially through a buffer.
+	 */
+	private static void transform(Path input, Path output, ImageTransform transform) throws IOException {
+		if(Files.exists(output) && Files.isSameFile(input, output))
+			throw new IllegalArgumentException("Output would overwrite the input image " + input);
+		MappedFileRandomAccessInputStream rin = new MappedFileRandomAccessInputStream(input.toFile());
+		try {
+			byte[] magicNumber = new byte[IMAGE_MAGIC_NUMBER_LEN];
+			rin.readFully(magicNumber);
+			rin.seek(0);
+			AtomicFileRandomAccessOutputStream rout = new AtomicFileRandomAccessOutputStream(output.toFile());
+			try {
+				if(MetadataUtils.guessImageType(magicNumber) == ImageType.TIFF) {
+					transform.transform(rin, rout);
+				} else {
+					OutputStream os = new BufferedOutputStream(rout, 65536);
+					transform.transform(rin, os);
+					os.flush();
+				}
+				rout.commit();
+			} finally {
+				rout.close();
+			}
+		} finally {
+			rin.close();
+		}
+	}
+	
+	/*
+	 * Writes a changed copy of the in-memory image into a growing buffer. The
+	 * image is read in place and TIFF writers get the buffer as RandomAccessOutputStream,
+	 * so neither side is cached. The buffer position of the image is left untouched.
+	 */
+	private static ByteBuffer transform(ByteBuffer image, ImageTransform transform) throws IOException {
+		RandomAccessInputStream rin = new ByteBufferRandomAccessInputStream(image);
+		ByteBufferRandomAccessOutputStream rout = new ByteBufferRandomAccessOutputStream(image.remaining() + 4096);
+		try {
+			transform.transform(rin, rout);
+		} finally {
+			rin.close();
+			rout.shallowClose();
+		}
+		
+		return rout.asByteBuffer();
+	}
+	
+	private static byte[] toByteArray(ByteBuffer buffer) {
+		byte[] data = new byte[buffer.remaining()];
+		buffer.get(data);
+		
+		return data;
+	}
+	
+	private interface ImageTransform {
+		public void transform(InputStream is, OutputStream os) throws IOException;
+	}
+	
+	private interface TIFFTransform {
+		public void transform(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException;
+	}
+	
+	/**
+	 * Writes the image with the comments inserted to the output file. The output file
+	 * is replaced only once the new image is complete.
+	 */
+	public static void insertComments(Path input, Path output, final List<String> comments) throws IOException {
+		transform(input, output, new ImageTransform() {
+			public void transform(InputStream is, OutputStream os) throws IOException {
+				insertComments(is, os, comments);
+			}
+		});
+	}
+	
+	/**
+	 * Inserts the comments into the image held in memory.
+	 *
+	 * @return the new image, a read-only buffer
+	 */
+	public static ByteBuffer insertComments(ByteBuffer image, final List<String> comments) throws IOException {
+		return transform(image, new ImageTransform() {
+			public void transform(InputStream is, OutputStream os) throws IOException {
+				insertComments(is, os, comments);
+			}
+		});
+	}
+	
+	public static byte[] insertComments(byte[] image, List<String> comments) throws IOException {
+		return toByteArray(insertComments(ByteBuffer.wrap(image), comments));
+	}
+	
 	public static void insertComment(InputStream is, OutputStream os, String comment) throws IOException {
 		insertComments(is, os, Arrays.asList(comment));
 	}
 	
-	public static void insertComments(InputStream is, OutputStream os, List<String> comments) throws IOException {
+	public static void insertComments(InputStream is, OutputStream os, final List<String> comments) throws IOException {
 		// ImageIO.IMAGE_MAGIC_NUMBER_LEN bytes as image magic number
 		PeekHeadInputStream peekHeadInputStream = new PeekHeadInputStream(is, IMAGE_MAGIC_NUMBER_LEN);
 		ImageType imageType = MetadataUtils.guessImageType(peekHeadInputStream);		
@@ -127,11 +276,11 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 				JPEGMeta.insertComments(peekHeadInputStream, os, comments);
 				break;
 			case TIFF:
-				RandomAccessInputStream randIS = new FileCacheRandomAccessInputStream(peekHeadInputStream);
-				RandomAccessOutputStream randOS = new FileCacheRandomAccessOutputStream(os);
-				TIFFMeta.insertComments(comments, randIS, randOS);
-				randIS.shallowClose();
-				randOS.shallowClose();
+				transformTIFF(is, peekHeadInputStream, os, new TIFFTransform() {
+					public void transform(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
+						TIFFMeta.insertComments(comments, rin, rout);
+					}
+				});
 				break;
 			case PNG:
 				PNGMeta.insertComments(peekHeadInputStream, os, comments);
@@ -151,6 +300,35 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 		peekHeadInputStream.shallowClose();
 	}
 	
+	/**
+	 * Writes the image with the EXIF inserted to the output file. The output file
+	 * is replaced only once the new image is complete.
+	 */
+	public static void insertExif(Path input, Path output, final Exif exif, final boolean update) throws IOException {
+		transform(input, output, new ImageTransform() {
+			public void transform(InputStream is, OutputStream os) throws IOException {
+				insertExif(is, os, exif, update);
+			}
+		});
+	}
+	
+	/**
+	 * Inserts the EXIF into the image held in memory.
+	 *
+	 * @return the new image, a read-only buffer
+	 */
+	public static ByteBuffer insertExif(ByteBuffer image, final Exif exif, final boolean update) throws IOException {
+		return transform(image, new ImageTransform() {
+			public void transform(InputStream is, OutputStream os) throws IOException {
+				insertExif(is, os, exif, update);
+			}
+		});
+	}
+	
+	public static byte[] insertExif(byte[] image, Exif exif, boolean update) throws IOException {
+		return toByteArray(insertExif(ByteBuffer.wrap(image), exif, update));
+	}
+	
 	/**
 	 * @param is input image stream 
 	 * @param os output image stream
@@ -168,7 +346,7 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 	 * @param update true to keep the original data, otherwise false
 	 * @throws IOException 
 	 */
-	public static void insertExif(InputStream is, OutputStream os, Exif exif, boolean update) throws IOException {
+	public static void insertExif(InputStream is, OutputStream os, final Exif exif, final boolean update) throws IOException {
 		// ImageIO.IMAGE_MAGIC_NUMBER_LEN bytes as image magic number
 		PeekHeadInputStream peekHeadInputStream = new PeekHeadInputStream(is, IMAGE_MAGIC_NUMBER_LEN);
 		ImageType imageType = MetadataUtils.guessImageType(peekHeadInputStream);		
@@ -178,11 +356,11 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 				JPEGMeta.insertExif(peekHeadInputStream, os, exif, update);
 				break;
 			case TIFF:
-				RandomAccessInputStream randIS = new FileCacheRandomAccessInputStream(peekHeadInputStream);
-				RandomAccessOutputStream randOS = new FileCacheRandomAccessOutputStream(os);
-				TIFFMeta.insertExif(randIS, randOS, exif, update);
-				randIS.shallowClose();
-				randOS.shallowClose();
+				transformTIFF(is, peekHeadInputStream, os, new TIFFTransform() {
+					public void transform(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
+						TIFFMeta.insertExif(rin, rout, exif, update);
+					}
+				});
 				break;
 			case GIF:
 			case PCX:
@@ -198,7 +376,36 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 		peekHeadInputStream.shallowClose();
 	}
 	
-	public static void insertICCProfile(InputStream is, OutputStream out, byte[] icc_profile) throws IOException {
+	/**
+	 * Writes the image with the ICC profile inserted to the output file. The output file
+	 * is replaced only once the new image is complete.
+	 */
+	public static void insertICCProfile(Path input, Path output, final byte[] icc_profile) throws IOException {
+		transform(input, output, new ImageTransform() {
+			public void transform(InputStream is, OutputStream os) throws IOException {
+				insertICCProfile(is, os, icc_profile);
+			}
+		});
+	}
+	
+	/**
+	 * Inserts the ICC profile into the image held in memory.
+	 *
+	 * @return the new image, a read-only buffer
+	 */
+	public static ByteBuffer insertICCProfile(ByteBuffer image, final byte[] icc_profile) throws IOException {
+		return transform(image, new ImageTransform() {
+			public void transform(InputStream is, OutputStream os) throws IOException {
+				insertICCProfile(is, os, icc_profile);
+			}
+		});
+	}
+	
+	public static byte[] insertICCProfile(byte[] image, byte[] icc_profile) throws IOException {
+		return toByteArray(insertICCProfile(ByteBuffer.wrap(image), icc_profile));
+	}
+	
+	public static void insertICCProfile(InputStream is, OutputStream out, final byte[] icc_profile) throws IOException {
 		// ImageIO.IMAGE_MAGIC_NUMBER_LEN bytes as image magic number
 		PeekHeadInputStream peekHeadInputStream = new PeekHeadInputStream(is, IMAGE_MAGIC_NUMBER_LEN);
 		ImageType imageType = MetadataUtils.guessImageType(peekHeadInputStream);		
@@ -208,11 +415,14 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 				JPEGMeta.insertICCProfile(peekHeadInputStream, out, icc_profile);
 				break;
 			case TIFF:
-				RandomAccessInputStream randIS = new FileCacheRandomAccessInputStream(peekHeadInputStream);
-				RandomAccessOutputStream randOS = new FileCacheRandomAccessOutputStream(out);
-				TIFFMeta.insertICCProfile(icc_profile, 0, randIS, randOS);
-				randIS.shallowClose();
-				randOS.shallowClose();
+				transformTIFF(is, peekHeadInputStream, out, new TIFFTransform() {
+					public void transform(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
+						TIFFMeta.insertICCProfile(icc_profile, 0, rin, rout);
+					}
+				});
+				break;
+			case PNG:
+				PNGMeta.insertICCProfile("ICC Profile", icc_profile, peekHeadInputStream, out);
 				break;
 			case GIF:
 			case PCX:
@@ -227,11 +437,40 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 		peekHeadInputStream.shallowClose();
 	}
 
+	/**
+	 * Writes the image with the IPTC data inserted to the output file. The output file
+	 * is replaced only once the new image is complete.
+	 */
+	public static void insertIPTC(Path input, Path output, final Collection<IPTCDataSet> iptcs, final boolean update) throws IOException {
+		transform(input, output, new ImageTransform() {
+			public void transform(InputStream is, OutputStream os) throws IOException {
+				insertIPTC(is, os, iptcs, update);
+			}
+		});
+	}
+	
+	/**
+	 * Inserts the IPTC data sets into the image held in memory.
+	 *
+	 * @return the new image, a read-only buffer
+	 */
+	public static ByteBuffer insertIPTC(ByteBuffer image, final Collection<IPTCDataSet> iptcs, final boolean update) throws IOException {
+		return transform(image, new ImageTransform() {
+			public void transform(InputStream is, OutputStream os) throws IOException {
+				insertIPTC(is, os, iptcs, update);
+			}
+		});
+	}
+	
+	public static byte[] insertIPTC(byte[] image, Collection<IPTCDataSet> iptcs, boolean update) throws IOException {
+		return toByteArray(insertIPTC(ByteBuffer.wrap(image), iptcs, update));
+	}
+	
 	public static void insertIPTC(InputStream is, OutputStream out, Collection<IPTCDataSet> iptcs) throws IOException {
 		insertIPTC(is, out, iptcs, false);
 	}
 	
-	public static void insertIPTC(InputStream is, OutputStream out, Collection<IPTCDataSet> iptcs, boolean update) throws IOException {
+	public static void insertIPTC(InputStream is, OutputStream out, final Collection<IPTCDataSet> iptcs, final boolean update) throws IOException {
 		// ImageIO.IMAGE_MAGIC_NUMBER_LEN bytes as image magic number
 		PeekHeadInputStream peekHeadInputStream = new PeekHeadInputStream(is, IMAGE_MAGIC_NUMBER_LEN);
 		ImageType imageType = MetadataUtils.guessImageType(peekHeadInputStream);		
@@ -241,11 +480,11 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 				JPEGMeta.insertIPTC(peekHeadInputStream, out, iptcs, update);
 				break;
 			case TIFF:
-				RandomAccessInputStream randIS = new FileCacheRandomAccessInputStream(peekHeadInputStream);
-				RandomAccessOutputStream randOS = new FileCacheRandomAccessOutputStream(out);
-				TIFFMeta.insertIPTC(randIS, randOS, iptcs, update);
-				randIS.shallowClose();
-				randOS.shallowClose();
+				transformTIFF(is, peekHeadInputStream, out, new TIFFTransform() {
+					public void transform(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
+						TIFFMeta.insertIPTC(rin, rout, iptcs, update);
+					}
+				});
 				break;
 			case PNG:
 			case GIF:
@@ -261,11 +500,40 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 		peekHeadInputStream.shallowClose();
 	}
 	
+	/**
+	 * Writes the image with the Photoshop IRB inserted to the output file. The output file
+	 * is replaced only once the new image is complete.
+	 */
+	public static void insertIRB(Path input, Path output, final Collection<_8BIM> bims, final boolean update) throws IOException {
+		transform(input, output, new ImageTransform() {
+			public void transform(InputStream is, OutputStream os) throws IOException {
+				insertIRB(is, os, bims, update);
+			}
+		});
+	}
+	
+	/**
+	 * Inserts the 8BIMs into the image held in memory.
+	 *
+	 * @return the new image, a read-only buffer
+	 */
+	public static ByteBuffer insertIRB(ByteBuffer image, final Collection<_8BIM> bims, final boolean update) throws IOException {
+		return transform(image, new ImageTransform() {
+			public void transform(InputStream is, OutputStream os) throws IOException {
+				insertIRB(is, os, bims, update);
+			}
+		});
+	}
+	
+	public static byte[] insertIRB(byte[] image, Collection<_8BIM> bims, boolean update) throws IOException {
+		return toByteArray(insertIRB(ByteBuffer.wrap(image), bims, update));
+	}
+	
 	public static void insertIRB(InputStream is, OutputStream out, Collection<_8BIM> bims) throws IOException {
 		insertIRB(is, out, bims, false);
 	}
 	
-	public static void insertIRB(InputStream is, OutputStream out, Collection<_8BIM> bims, boolean update) throws IOException {
+	public static void insertIRB(InputStream is, OutputStream out, final Collection<_8BIM> bims, final boolean update) throws IOException {
 		// ImageIO.IMAGE_MAGIC_NUMBER_LEN bytes as image magic number
 		PeekHeadInputStream peekHeadInputStream = new PeekHeadInputStream(is, IMAGE_MAGIC_NUMBER_LEN);
 		ImageType imageType = MetadataUtils.guessImageType(peekHeadInputStream);		
@@ -275,11 +543,11 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 				JPEGMeta.insertIRB(peekHeadInputStream, out, bims, update);
 				break;
 			case TIFF:
-				RandomAccessInputStream randIS = new FileCacheRandomAccessInputStream(peekHeadInputStream);
-				RandomAccessOutputStream randOS = new FileCacheRandomAccessOutputStream(out);
-				TIFFMeta.insertIRB(randIS, randOS, bims, update);
-				randIS.shallowClose();
-				randOS.shallowClose();
+				transformTIFF(is, peekHeadInputStream, out, new TIFFTransform() {
+					public void transform(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
+						TIFFMeta.insertIRB(rin, rout, bims, update);
+					}
+				});
 				break;
 			case PNG:
 			case GIF:
@@ -295,7 +563,7 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 		peekHeadInputStream.shallowClose();
 	}
 	
-	public static void insertIRBThumbnail(InputStream is, OutputStream out, BufferedImage thumbnail) throws IOException {
+	public static void insertIRBThumbnail(InputStream is, OutputStream out, final BufferedImage thumbnail) throws IOException {
 		// ImageIO.IMAGE_MAGIC_NUMBER_LEN bytes as image magic number
 		PeekHeadInputStream peekHeadInputStream = new PeekHeadInputStream(is, IMAGE_MAGIC_NUMBER_LEN);
 		ImageType imageType = MetadataUtils.guessImageType(peekHeadInputStream);		
@@ -305,11 +573,11 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 				JPEGMeta.insertIRBThumbnail(peekHeadInputStream, out, thumbnail);
 				break;
 			case TIFF:
-				RandomAccessInputStream randIS = new FileCacheRandomAccessInputStream(peekHeadInputStream);
-				RandomAccessOutputStream randOS = new FileCacheRandomAccessOutputStream(out);
-				TIFFMeta.insertThumbnail(randIS, randOS, thumbnail);
-				randIS.shallowClose();
-				randOS.shallowClose();
+				transformTIFF(is, peekHeadInputStream, out, new TIFFTransform() {
+					public void transform(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
+						TIFFMeta.insertThumbnail(rin, rout, thumbnail);
+					}
+				});
 				break;
 			case PNG:
 			case GIF:
@@ -325,7 +593,36 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 		peekHeadInputStream.shallowClose();
 	}
 	
-	public static void insertXMP(InputStream is, OutputStream out, XMP xmp) throws IOException {
+	/**
+	 * Writes the image with the XMP inserted to the output file. The output file
+	 * is replaced only once the new image is complete.
+	 */
+	public static void insertXMP(Path input, Path output, final XMP xmp) throws IOException {
+		transform(input, output, new ImageTransform() {
+			public void transform(InputStream is, OutputStream os) throws IOException {
+				insertXMP(is, os, xmp);
+			}
+		});
+	}
+	
+	/**
+	 * Inserts the XMP into the image held in memory.
+	 *
+	 * @return the new image, a read-only buffer
+	 */
+	public static ByteBuffer insertXMP(ByteBuffer image, final XMP xmp) throws IOException {
+		return transform(image, new ImageTransform() {
+			public void transform(InputStream is, OutputStream os) throws IOException {
+				insertXMP(is, os, xmp);
+			}
+		});
+	}
+	
+	public static byte[] insertXMP(byte[] image, XMP xmp) throws IOException {
+		return toByteArray(insertXMP(ByteBuffer.wrap(image), xmp));
+	}
+	
+	public static void insertXMP(InputStream is, OutputStream out, final XMP xmp) throws IOException {
 		// ImageIO.IMAGE_MAGIC_NUMBER_LEN bytes as image magic number
 		PeekHeadInputStream peekHeadInputStream = new PeekHeadInputStream(is, IMAGE_MAGIC_NUMBER_LEN);
 		ImageType imageType = MetadataUtils.guessImageType(peekHeadInputStream);		
@@ -335,11 +632,11 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 				JPEGMeta.insertXMP(peekHeadInputStream, out, xmp); // No ExtendedXMP
 				break;
 			case TIFF:
-				RandomAccessInputStream randIS = new FileCacheRandomAccessInputStream(peekHeadInputStream);
-				RandomAccessOutputStream randOS = new FileCacheRandomAccessOutputStream(out);
-				TIFFMeta.insertXMP(xmp, randIS, randOS);
-				randIS.shallowClose();
-				randOS.shallowClose();
+				transformTIFF(is, peekHeadInputStream, out, new TIFFTransform() {
+					public void transform(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
+						TIFFMeta.insertXMP(xmp, rin, rout);
+					}
+				});
 				break;
 			case PNG:
 				PNGMeta.insertXMP(peekHeadInputStream, out, xmp);
@@ -359,7 +656,7 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 		peekHeadInputStream.shallowClose();
 	}
 	
-	public static void insertXMP(InputStream is, OutputStream out, String xmp) throws IOException {
+	public static void insertXMP(InputStream is, OutputStream out, final String xmp) throws IOException {
 		// ImageIO.IMAGE_MAGIC_NUMBER_LEN bytes as image magic number
 		PeekHeadInputStream peekHeadInputStream = new PeekHeadInputStream(is, IMAGE_MAGIC_NUMBER_LEN);
 		ImageType imageType = MetadataUtils.guessImageType(peekHeadInputStream);		
@@ -369,11 +666,11 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 				JPEGMeta.insertXMP(peekHeadInputStream, out, xmp, null); // No ExtendedXMP
 				break;
 			case TIFF:
-				RandomAccessInputStream randIS = new FileCacheRandomAccessInputStream(peekHeadInputStream);
-				RandomAccessOutputStream randOS = new FileCacheRandomAccessOutputStream(out);
-				TIFFMeta.insertXMP(xmp, randIS, randOS);
-				randIS.shallowClose();
-				randOS.shallowClose();
+				transformTIFF(is, peekHeadInputStream, out, new TIFFTransform() {
+					public void transform(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
+						TIFFMeta.insertXMP(xmp, rin, rout);
+					}
+				});
 				break;
 			case PNG:
 				PNGMeta.insertXMP(peekHeadInputStream, out, xmp);
@@ -393,9 +690,58 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 		peekHeadInputStream.shallowClose();
 	}
 	
+	/**
+	 * Reads all metadata associated with the image held in memory.
+	 * The data are read in place without being copied.
+	 *
+	 * @param image byte array for the image
+	 * @return a list of Metadata for the input image
+	 * @throws IOException
+	 */
+	public static Map<MetadataType, Metadata> readMetadata(byte[] image) throws IOException {
+		return readMetadata(ByteBuffer.wrap(image), false);
+	}
+	
+	public static Map<MetadataType, Metadata> readMetadata(byte[] image, boolean headersOnly) throws IOException {
+		return readMetadata(ByteBuffer.wrap(image), headersOnly);
+	}
+	
+	/**
+	 * Reads all metadata associated with the image held in the remaining
+	 * bytes of the buffer. The buffer position is left untouched.
+	 *
+	 * @param image ByteBuffer for the image
+	 * @return a list of Metadata for the input image
+	 * @throws IOException
+	 */
+	public static Map<MetadataType, Metadata> readMetadata(ByteBuffer image) throws IOException {
+		return readMetadata(image, false);
+	}
+	
+	public static Map<MetadataType, Metadata> readMetadata(ByteBuffer image, boolean headersOnly) throws IOException {
+		RandomAccessInputStream bin = new ByteBufferRandomAccessInputStream(image);
+		Map<MetadataType, Metadata> metadataMap = readMetadata(bin, headersOnly);
+		bin.close();
+		
+		return metadataMap;
+	}
+	
 	public static Map<MetadataType, Metadata> readMetadata(File image) throws IOException {
-		FileInputStream fin = new FileInputStream(image);
-		Map<MetadataType, Metadata> metadataMap = readMetadata(fin);
+		return readMetadata(image, false);
+	}
+	
+	public static Map<MetadataType, Metadata> readMetadata(File image, boolean headersOnly) throws IOException {
+		return readMetadata(image, headersOnly, EnumSet.allOf(MetadataType.class));
+	}
+	
+	public static Map<MetadataType, Metadata> readMetadata(File image, Set<MetadataType> types) throws IOException {
+		return readMetadata(image, false, types);
+	}
+	
+	public static Map<MetadataType, Metadata> readMetadata(File image, boolean headersOnly, Set<MetadataType> types) throws IOException {
+		// Map the file directly so TIFF doesn't need to be copied to a cache file
+		RandomAccessInputStream fin = new MappedFileRandomAccessInputStream(image);
+		Map<MetadataType, Metadata> metadataMap = readMetadata(fin, headersOnly, types);
 		fin.close();
 		
 		return metadataMap; 
@@ -409,6 +755,42 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 	 * @throws IOException
 	 */
 	public static Map<MetadataType, Metadata> readMetadata(InputStream is) throws IOException {
+		return readMetadata(is, false);
+	}
+	
+	/**
+	 * Reads all metadata associated with the input image
+	 * <p>
+	 * If headersOnly is true, JPEG images are only read up to the first SOS header
+	 * and the entropy-coded image data is never scanned. Metadata segments placed
+	 * after the first scan, which are rare, will be missed in this mode. The flag
+	 * has no effect on other image formats.
+	 *
+	 * @param is InputStream for the image
+	 * @param headersOnly whether or not to stop reading JPEG at the first SOS
+	 * @return a list of Metadata for the input stream
+	 * @throws IOException
+	 */
+	public static Map<MetadataType, Metadata> readMetadata(InputStream is, boolean headersOnly) throws IOException {
+		return readMetadata(is, headersOnly, EnumSet.allOf(MetadataType.class));
+	}
+	
+	public static Map<MetadataType, Metadata> readMetadata(InputStream is, Set<MetadataType> types) throws IOException {
+		return readMetadata(is, false, types);
+	}
+	
+	/**
+	 * Reads the requested types of metadata associated with the input image.
+	 * Segments, chunks and blocks which only carry other types are skipped
+	 * and never decoded.
+	 *
+	 * @param is InputStream for the image
+	 * @param headersOnly whether or not to stop reading JPEG at the first SOS
+	 * @param types MetadataTypes to read, e.g. EnumSet.of(MetadataType.EXIF, MetadataType.ICC_PROFILE)
+	 * @return a list of Metadata for the input stream
+	 * @throws IOException
+	 */
+	public static Map<MetadataType, Metadata> readMetadata(InputStream is, boolean headersOnly, Set<MetadataType> types) throws IOException {
 		// Metadata map for all the Metadata read
 		Map<MetadataType, Metadata> metadataMap = new HashMap<MetadataType, Metadata>();
 		// ImageIO.IMAGE_MAGIC_NUMBER_LEN bytes as image magic number
@@ -417,21 +799,24 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 		// Delegate metadata reading to corresponding image tweakers.
 		switch(imageType) {
 			case JPG:
-				metadataMap = JPEGMeta.readMetadata(peekHeadInputStream);
+				metadataMap = JPEGMeta.readMetadata(peekHeadInputStream, headersOnly, types);
 				break;
 			case TIFF:
-				RandomAccessInputStream randIS = new FileCacheRandomAccessInputStream(peekHeadInputStream);
-				metadataMap = TIFFMeta.readMetadata(randIS);
-				randIS.shallowClose();
+				RandomAccessInputStream randIS = getRandomAccessInputStream(is, peekHeadInputStream);
+				try {
+					metadataMap = TIFFMeta.readMetadata(randIS, types);
+				} finally {
+					if(randIS != is) randIS.shallowClose();
+				}
 				break;
 			case PNG:
-				metadataMap = PNGMeta.readMetadata(peekHeadInputStream);
+				metadataMap = PNGMeta.readMetadata(peekHeadInputStream, types);
 				break;
 			case GIF:
-				metadataMap = GIFMeta.readMetadata(peekHeadInputStream);
+				metadataMap = GIFMeta.readMetadata(peekHeadInputStream, types);
 				break;
 			case BMP:
-				metadataMap = BMPMeta.readMetadata(peekHeadInputStream);
+				metadataMap = BMPMeta.readMetadata(peekHeadInputStream, types);
 				break;
 			default:
 				peekHeadInputStream.close();
@@ -443,10 +828,55 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 		return metadataMap;
 	}
 	
+	public static Map<MetadataType, Metadata> readMetadata(Path image) throws IOException {
+		return readMetadata(image.toFile());
+	}
+	
+	public static Map<MetadataType, Metadata> readMetadata(Path image, boolean headersOnly) throws IOException {
+		return readMetadata(image.toFile(), headersOnly);
+	}
+	
 	public static Map<MetadataType, Metadata> readMetadata(String image) throws IOException {
 		return readMetadata(new File(image));
 	}
 	
+	public static Map<MetadataType, Metadata> readMetadata(String image, boolean headersOnly) throws IOException {
+		return readMetadata(new File(image), headersOnly);
+	}
+	
+	public static Map<MetadataType, Metadata> readMetadata(String image, Set<MetadataType> types) throws IOException {
+		return readMetadata(new File(image), types);
+	}
+	
+	/**
+	 * Writes the image without the given types of metadata to the output file. The output file
+	 * is replaced only once the new image is complete.
+	 */
+	public static void removeMetadata(Path input, Path output, final MetadataType ...metadataTypes) throws IOException {
+		transform(input, output, new ImageTransform() {
+			public void transform(InputStream is, OutputStream os) throws IOException {
+				removeMetadata(is, os, metadataTypes);
+			}
+		});
+	}
+	
+	/**
+	 * Removes the given types of metadata from the image held in memory.
+	 *
+	 * @return the new image, a read-only buffer
+	 */
+	public static ByteBuffer removeMetadata(ByteBuffer image, final MetadataType ...metadataTypes) throws IOException {
+		return transform(image, new ImageTransform() {
+			public void transform(InputStream is, OutputStream os) throws IOException {
+				removeMetadata(is, os, metadataTypes);
+			}
+		});
+	}
+	
+	public static byte[] removeMetadata(byte[] image, MetadataType ...metadataTypes) throws IOException {
+		return toByteArray(removeMetadata(ByteBuffer.wrap(image), metadataTypes));
+	}
+	
 	/**
 	 * Remove meta data from image
 	 * 
@@ -454,7 +884,7 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 	 * @param os OutputStream for the output image
 	 * @throws IOException
 	 */
-	public static void removeMetadata(InputStream is, OutputStream os, MetadataType ...metadataTypes) throws IOException {
+	public static void removeMetadata(InputStream is, OutputStream os, final MetadataType ...metadataTypes) throws IOException {
 		// ImageIO.IMAGE_MAGIC_NUMBER_LEN bytes as image magic number
 		PeekHeadInputStream peakHeadInputStream = new PeekHeadInputStream(is, IMAGE_MAGIC_NUMBER_LEN);
 		ImageType imageType = MetadataUtils.guessImageType(peakHeadInputStream);		
@@ -464,11 +894,14 @@ public abstract class Metadata implements MetadataReader, Iterable<MetadataEntry
 				JPEGMeta.removeMetadata(peakHeadInputStream, os, metadataTypes);
 				break;
 			case TIFF:
-				RandomAccessInputStream randIS = new FileCacheRandomAccessInputStream(peakHeadInputStream);
-				RandomAccessOutputStream randOS = new FileCacheRandomAccessOutputStream(os);
-				TIFFMeta.removeMetadata(randIS, randOS, metadataTypes);
-				randIS.shallowClose();
-				randOS.shallowClose();
+				transformTIFF(is, peakHeadInputStream, os, new TIFFTransform() {
+					public void transform(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
+						TIFFMeta.removeMetadata(rin, rout, metadataTypes);
+					}
+				});
+				break;
+			case PNG:
+				PNGMeta.removeMetadata(peakHeadInputStream, os, metadataTypes);
 				break;
 			case PCX:
 			case TGA:
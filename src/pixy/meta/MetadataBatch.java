@@ -0,0 +1,371 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.meta;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pixy.meta.xmp.XMP;
+
+/**
+ * Runs a metadata operation over many image files in parallel.
+ * <p>
+ * The files are handed to an Executor, by default a fixed pool with one thread
+ * per core. Any Executor can be used instead, a ForkJoinPool or on Java 21 and
+ * later the one from Executors.newVirtualThreadPerTaskExecutor() for instance.
+ * At most maxInFlight files are being processed or waiting for a thread at any
+ * time: the caller blocks before submitting more, so memory use is bounded
+ * however long the list of files is.
+ * <p>
+ * Every file gets a {@link Result} with either the value of the operation or the
+ * exception it threw. One bad file doesn't stop the batch.
+ * <p>
+ * Typical usage:
+ * <pre>
+ * MetadataBatch batch = new MetadataBatch();
+ * try {
+ *     batch.process(Files.walk(dir).filter(Files::isRegularFile),
+ *         MetadataBatch.removeMetadata(outputDir, MetadataType.EXIF, MetadataType.XMP),
+ *         new MetadataBatch.ResultHandler&lt;Path&gt;() {
+ *             public void handle(Result&lt;Path&gt; result) {
+ *                 if(!result.isSuccess()) failures.add(result.getImage());
+ *             }
+ *         });
+ * } finally {
+ *     batch.shutdown();
+ * }
+ * </pre>
+ */
+public class MetadataBatch {
+	// Obtain a logger instance
+	private static final Logger LOGGER = LoggerFactory.getLogger(MetadataBatch.class);
+
+	private final Executor executor;
+	private final int maxInFlight;
+	// Only set if the executor was created here
+	private final ExecutorService ownExecutor;
+
+	/**
+	 * An operation on one image file. Implementations are called from several
+	 * threads at the same time.
+	 */
+	public interface Operation<T> {
+		public T apply(Path image) throws Exception;
+	}
+
+	/**
+	 * Receives the result of each file as soon as it is done. Handlers are called
+	 * from the worker threads and must be thread safe.
+	 */
+	public interface ResultHandler<T> {
+		public void handle(Result<T> result);
+	}
+
+	/**
+	 * The outcome of an operation on one image file
+	 */
+	public static final class Result<T> {
+		private final Path image;
+		private final T value;
+		private final Exception error;
+
+		private Result(Path image, T value, Exception error) {
+			this.image = image;
+			this.value = value;
+			this.error = error;
+		}
+
+		/**
+		 * @return the exception thrown by the operation or null if it succeeded
+		 */
+		public Exception getError() {
+			return error;
+		}
+
+		public Path getImage() {
+			return image;
+		}
+
+		/**
+		 * @return the value returned by the operation or null if it failed
+		 */
+		public T getValue() {
+			return value;
+		}
+
+		public boolean isSuccess() {
+			return error == null;
+		}
+
+		public String toString() {
+			return image + (isSuccess()? ": OK" : ": " + error);
+		}
+	}
+
+	/**
+	 * Counts of files processed by one call to process()
+	 */
+	public static final class Summary {
+		private final int succeeded;
+		private final int failed;
+
+		private Summary(int succeeded, int failed) {
+			this.succeeded = succeeded;
+			this.failed = failed;
+		}
+
+		public int getFailed() {
+			return failed;
+		}
+
+		public int getSucceeded() {
+			return succeeded;
+		}
+
+		public int getTotal() {
+			return succeeded + failed;
+		}
+
+		public String toString() {
+			return "Processed " + getTotal() + " images, " + failed + " failed";
+		}
+	}
+
+	/**
+	 * Creates a batch with one thread per available core and at most twice
+	 * as many files in flight.
+	 */
+	public MetadataBatch() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a batch with its own pool of the given number of threads and
+	 * at most twice as many files in flight.
+	 */
+	public MetadataBatch(int numOfThreads) {
+		if(numOfThreads <= 0) throw new IllegalArgumentException("Number of threads must be positive: " + numOfThreads);
+		this.ownExecutor = Executors.newFixedThreadPool(numOfThreads, new DaemonThreadFactory());
+		this.executor = ownExecutor;
+		this.maxInFlight = 2*numOfThreads;
+	}
+
+	/**
+	 * Creates a batch running on the given executor. The executor is not shut down
+	 * by this batch.
+	 *
+	 * @param executor Executor to run the operations
+	 * @param maxInFlight maximum number of files submitted but not yet done
+	 */
+	public MetadataBatch(Executor executor, int maxInFlight) {
+		if(executor == null) throw new IllegalArgumentException("Executor is null");
+		if(maxInFlight <= 0) throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+		this.ownExecutor = null;
+	}
+
+	/**
+	 * Runs the operation on each image and waits for all of them to finish.
+	 *
+	 * @param images the image files, read lazily as files are submitted
+	 * @param operation Operation to run on each image
+	 * @param handler ResultHandler to receive the result of each image or null
+	 * @return the number of images which succeeded and failed
+	 * @throws InterruptedException if interrupted while waiting, images already
+	 *         submitted are still processed
+	 */
+	public <T> Summary process(Iterator<Path> images, final Operation<T> operation, final ResultHandler<T> handler) throws InterruptedException {
+		final Semaphore inFlight = new Semaphore(maxInFlight);
+		final AtomicInteger succeeded = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+
+		while(images.hasNext()) {
+			final Path image = images.next();
+			inFlight.acquire();
+			Runnable task = new Runnable() {
+				public void run() {
+					try {
+						Result<T> result = apply(image, operation);
+						if(result.isSuccess())
+							succeeded.incrementAndGet();
+						else
+							failed.incrementAndGet();
+						if(handler != null)
+							deliver(handler, result);
+					} finally {
+						inFlight.release();
+					}
+				}
+			};
+			try {
+				executor.execute(task);
+			} catch(RejectedExecutionException e) {
+				inFlight.release();
+				throw e;
+			}
+		}
+		// All permits back means all images are done
+		inFlight.acquire(maxInFlight);
+		inFlight.release(maxInFlight);
+
+		return new Summary(succeeded.get(), failed.get());
+	}
+
+	public <T> Summary process(Iterable<Path> images, Operation<T> operation, ResultHandler<T> handler) throws InterruptedException {
+		return process(images.iterator(), operation, handler);
+	}
+
+	public <T> Summary process(Stream<Path> images, Operation<T> operation, ResultHandler<T> handler) throws InterruptedException {
+		try {
+			return process(images.iterator(), operation, handler);
+		} finally {
+			images.close();
+		}
+	}
+
+	private static <T> void deliver(ResultHandler<T> handler, Result<T> result) {
+		try {
+			handler.handle(result);
+		} catch(RuntimeException e) {
+			LOGGER.error("Result handler failed for " + result.getImage(), e);
+		}
+	}
+
+	private static <T> Result<T> apply(Path image, Operation<T> operation) {
+		try {
+			return new Result<T>(image, operation.apply(image), null);
+		} catch(Exception e) {
+			return new Result<T>(image, null, e);
+		}
+	}
+
+	/**
+	 * Shuts down the thread pool if this batch created it.
+	 */
+	public void shutdown() {
+		if(ownExecutor != null)
+			ownExecutor.shutdown();
+	}
+
+	/**
+	 * Reads all metadata of each image, see {@link Metadata#readMetadata(Path)}.
+	 */
+	public static Operation<Map<MetadataType, Metadata>> readMetadata() {
+		return readMetadata(EnumSet.allOf(MetadataType.class));
+	}
+
+	/**
+	 * Reads the given types of metadata of each image. The data are read in the
+	 * worker thread rather than left to be read lazily.
+	 */
+	public static Operation<Map<MetadataType, Metadata>> readMetadata(final Set<MetadataType> types) {
+		return new Operation<Map<MetadataType, Metadata>>() {
+			public Map<MetadataType, Metadata> apply(Path image) throws IOException {
+				Map<MetadataType, Metadata> metadataMap = Metadata.readMetadata(image.toFile(), false, types);
+				for(Metadata metadata : metadataMap.values())
+					metadata.ensureDataRead();
+				return metadataMap;
+			}
+		};
+	}
+
+	/**
+	 * Writes each image with the comments inserted to a file of the same name in outputDir.
+	 *
+	 * @return an Operation which returns the path of the output image
+	 */
+	public static Operation<Path> insertComments(final Path outputDir, final List<String> comments) {
+		return new Transform(outputDir) {
+			void transform(Path image, Path output) throws IOException {
+				Metadata.insertComments(image, output, comments);
+			}
+		};
+	}
+
+	/**
+	 * Writes each image with the XMP inserted to a file of the same name in outputDir.
+	 *
+	 * @return an Operation which returns the path of the output image
+	 */
+	public static Operation<Path> insertXMP(final Path outputDir, final XMP xmp) {
+		return new Transform(outputDir) {
+			void transform(Path image, Path output) throws IOException {
+				Metadata.insertXMP(image, output, xmp);
+			}
+		};
+	}
+
+	/**
+	 * Writes each image without the given types of metadata to a file of the same
+	 * name in outputDir.
+	 *
+	 * @return an Operation which returns the path of the output image
+	 */
+	public static Operation<Path> removeMetadata(final Path outputDir, final MetadataType... metadataTypes) {
+		final MetadataType[] types = Arrays.copyOf(metadataTypes, metadataTypes.length);
+		return new Transform(outputDir) {
+			void transform(Path image, Path output) throws IOException {
+				Metadata.removeMetadata(image, output, types);
+			}
+		};
+	}
+
+	// Reads an image and writes the changed image to outputDir. The output file
+	// appears only once it is complete, TIFF images are written without a cache.
+	private static abstract class Transform implements Operation<Path> {
+		private final Path outputDir;
+
+		Transform(Path outputDir) {
+			if(outputDir == null) throw new IllegalArgumentException("Output directory is null");
+			this.outputDir = outputDir;
+		}
+
+		public Path apply(Path image) throws IOException {
+			Path output = outputDir.resolve(image.getFileName().toString());
+			if(Files.isSameFile(outputDir, image.toAbsolutePath().getParent()))
+				throw new IOException("Output would overwrite the input image " + image);
+			transform(image, output);
+
+			return output;
+		}
+
+		abstract void transform(Path image, Path output) throws IOException;
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "pixymeta-batch-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -134,9 +134,10 @@ public class IRB extends Metadata {
 		if(!isDataRead) {
 			int i = 0;
 			while((i+4) < data.length) {
-				String _8bim = new String(data, i, 4);
+				// Check the signature in place instead of creating a String for each resource
+				boolean is8BIM = data[i] == '8' && data[i + 1] == 'B' && data[i + 2] == 'I' && data[i + 3] == 'M';
 				i += 4;			
-				if(_8bim.equals("8BIM")) {
+				if(is8BIM) {
 					short id = IOUtils.readShortMM(data, i);
 					i += 2;
 					// Pascal string for name follows
@@ -20,8 +20,10 @@ package pixy.meta.bmp;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import pixy.meta.Metadata;
 import pixy.meta.MetadataEntry;
@@ -59,7 +61,22 @@ public class BMPMeta {
 	}
 	
 	public static Map<MetadataType, Metadata> readMetadata(InputStream is) throws IOException {
+		return readMetadata(is, EnumSet.allOf(MetadataType.class));
+	}
+	
+	/**
+	 * Reads the requested types of metadata. BMP only has IMAGE metadata,
+	 * so nothing is read if it is not requested.
+	 * 
+	 * @param is InputStream for the BMP image
+	 * @param types MetadataTypes to read
+	 * @return a map of Metadata read from the image
+	 * @throws IOException
+	 */
+	public static Map<MetadataType, Metadata> readMetadata(InputStream is, Set<MetadataType> types) throws IOException {
 		Map<MetadataType, Metadata> metadataMap = new HashMap<MetadataType, Metadata>();
+		if(!types.contains(MetadataType.IMAGE))
+			return metadataMap;
 		ImageMetadata imageMeta = new ImageMetadata();
 		// Create a new data transfer object to hold data
 		DataTransferObject DTO = new DataTransferObject();
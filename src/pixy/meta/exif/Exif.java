@@ -26,13 +26,10 @@
 package pixy.meta.exif;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -52,13 +49,13 @@ import pixy.string.StringUtils;
 import pixy.image.tiff.FieldType;
 import pixy.image.tiff.IFD;
 import pixy.image.tiff.Tag;
+import pixy.image.tiff.TagResolver;
 import pixy.image.tiff.TiffField;
 import pixy.image.tiff.TiffTag;
-import pixy.io.FileCacheRandomAccessInputStream;
-import pixy.io.FileCacheRandomAccessOutputStream;
+import pixy.io.ByteBufferRandomAccessInputStream;
+import pixy.io.ByteBufferRandomAccessOutputStream;
 import pixy.io.IOUtils;
 import pixy.io.RandomAccessInputStream;
-import pixy.io.RandomAccessOutputStream;
 
 /**
  * EXIF wrapper
@@ -87,7 +84,6 @@ public abstract class Exif extends Metadata {
 	
 	public Exif(byte[] data) {
 		super(MetadataType.EXIF, data);
-		ensureDataRead();
 	}
 	
 	public Exif(IFD imageIFD) {
@@ -100,6 +96,7 @@ public abstract class Exif extends Metadata {
 	}
 	
 	public void addExifField(ExifTag tag, FieldType type, Object data) {
+		ensureDataRead();
 		if(exifSubIFD == null)
 			exifSubIFD = new IFD();
 		TiffField<?> field = FieldType.createField(tag, type, data);
@@ -110,6 +107,7 @@ public abstract class Exif extends Metadata {
 	}
 	
 	public void addGPSField(GPSTag tag, FieldType type, Object data) {
+		ensureDataRead();
 		if(gpsSubIFD == null)
 			gpsSubIFD = new IFD();
 		TiffField<?> field = FieldType.createField(tag, type, data);
@@ -120,6 +118,7 @@ public abstract class Exif extends Metadata {
 	}
 	
 	public void addImageField(TiffTag tag, FieldType type, Object data) {
+		ensureDataRead();
 		if(imageIFD == null)
 			imageIFD = new IFD();
 		TiffField<?> field = FieldType.createField(tag, type, data);
@@ -130,6 +129,7 @@ public abstract class Exif extends Metadata {
 	}
 	
 	public boolean containsThumbnail() {
+		ensureDataRead();
 		if(containsThumbnail)
 			return true;
 		if(thumbnail != null)
@@ -138,6 +138,7 @@ public abstract class Exif extends Metadata {
 	}
 	
 	public IFD getExifIFD() {
+		ensureDataRead();
 		if(exifSubIFD != null) {
 			return new IFD(exifSubIFD);
 		}
@@ -146,6 +147,7 @@ public abstract class Exif extends Metadata {
 	}
 	
 	public IFD getGPSIFD() {
+		ensureDataRead();
 		if(gpsSubIFD != null) {
 			return new IFD(gpsSubIFD);
 		} 
@@ -154,6 +156,7 @@ public abstract class Exif extends Metadata {
 	}
 	
 	public IFD getImageIFD() {
+		ensureDataRead();
 		if(imageIFD != null) {
 			return new IFD(imageIFD);
 		}
@@ -161,25 +164,15 @@ public abstract class Exif extends Metadata {
 		return null;		
 	}
 	
-	private void getMetadataEntries(IFD currIFD, Class<? extends Tag> tagClass, List<MetadataEntry> items) {
-		// Use reflection to invoke fromShort(short) method
-		Method method = null;
-		try {
-			method = tagClass.getDeclaredMethod("fromShort", short.class);
-		} catch (NoSuchMethodException e) {
-			throw new RuntimeException("Method 'fromShort' is not defined for class " + tagClass);
-		} catch (SecurityException e) {
-			throw new RuntimeException("The operation is not allowed by the current security setup");
-		}
-		
+	private void getMetadataEntries(IFD currIFD, TagResolver tagResolver, List<MetadataEntry> items) {
 		Collection<TiffField<?>> fields = currIFD.getFields();
 		MetadataEntry entry = null;
 		
-		if(tagClass.equals(TiffTag.class)) {
+		if(tagResolver == TiffTag.getTagResolver()) {
 			entry = new MetadataEntry("IFD0", "Image Info", true);
-		} else if(tagClass.equals(ExifTag.class)) {
+		} else if(tagResolver == ExifTag.getTagResolver()) {
 			entry = new MetadataEntry("EXIF SubIFD", "EXIF Info", true);
-		} else if(tagClass.equals(GPSTag.class)) {
+		} else if(tagResolver == GPSTag.getTagResolver()) {
 			entry = new MetadataEntry("GPS SubIFD", "GPS Info", true);
 		} else
 			entry = new MetadataEntry("UNKNOWN", "UNKNOWN SubIFD", true);
@@ -190,15 +183,7 @@ public abstract class Exif extends Metadata {
 			if(tag == ExifTag.PADDING.getValue()) {
 				ftag = ExifTag.PADDING;
 			} else {
-				try {
-					ftag = (Tag)method.invoke(null, tag);
-				} catch (IllegalAccessException e) {
-					throw new RuntimeException("Illegal access for method: " + method);
-				} catch (IllegalArgumentException e) {
-					throw new RuntimeException("Illegal argument for method:  " + method);
-				} catch (InvocationTargetException e) {
-					throw new RuntimeException("Incorrect invocation target");
-				}
+				ftag = tagResolver.resolve(tag);
 			}	
 			if (ftag == TiffTag.UNKNOWN)
 				LOGGER.warn("Tag: {} [Value: 0x{}] (Unknown)", ftag, Integer.toHexString(tag&0xffff));
@@ -221,15 +206,16 @@ public abstract class Exif extends Metadata {
 		Map<Tag, IFD> children = currIFD.getChildren();
 		
 		if(children.get(TiffTag.EXIF_SUB_IFD) != null) {
-			getMetadataEntries(children.get(TiffTag.EXIF_SUB_IFD), ExifTag.class, items);
+			getMetadataEntries(children.get(TiffTag.EXIF_SUB_IFD), ExifTag.getTagResolver(), items);
 		}
 		
 		if(children.get(TiffTag.GPS_SUB_IFD) != null) {
-			getMetadataEntries(children.get(TiffTag.GPS_SUB_IFD), GPSTag.class, items);
+			getMetadataEntries(children.get(TiffTag.GPS_SUB_IFD), GPSTag.getTagResolver(), items);
 		}		
 	}
 
 	public ExifThumbnail getThumbnail() {
+		ensureDataRead();
 		if(thumbnail != null)
 			return new ExifThumbnail(thumbnail);
 	
@@ -244,7 +230,7 @@ public abstract class Exif extends Metadata {
 		ensureDataRead();
 		List<MetadataEntry> items = new ArrayList<MetadataEntry>();
 		if(imageIFD != null)
-			getMetadataEntries(imageIFD, TiffTag.class, items);
+			getMetadataEntries(imageIFD, TiffTag.getTagResolver(), items);
 		if(containsThumbnail) {
 			MetadataEntry thumbnailEntry = new MetadataEntry("IFD1", "Thumbnail Image", true);
 			thumbnailEntry.addEntry(new MetadataEntry("Thumbnail format", (thumbnail.getDataType() == 1? "DATA_TYPE_KJpegRGB":"DATA_TYPE_TIFF")));
@@ -257,7 +243,8 @@ public abstract class Exif extends Metadata {
 	
 	public void read() throws IOException {
 		if(!isDataRead) {
-			RandomAccessInputStream exifIn = new FileCacheRandomAccessInputStream(new ByteArrayInputStream(data));
+			// The EXIF block is already in memory, read it in place
+			RandomAccessInputStream exifIn = new ByteBufferRandomAccessInputStream(data);
 			List<IFD> ifds = new ArrayList<IFD>(3);
 			TIFFMeta.readIFDs(ifds, exifIn);
 			if(ifds.size() > 0) {
@@ -292,11 +279,14 @@ public abstract class Exif extends Metadata {
 		    			field = thumbnailIFD.getField(TiffTag.TILE_OFFSETS);
 		    		if(field != null) {
 		    			 exifIn.seek(0);
-		    			 ByteArrayOutputStream bout = new ByteArrayOutputStream();
-		    			 RandomAccessOutputStream tiffout = new FileCacheRandomAccessOutputStream(bout);
+		    			 // No destination stream, the thumbnail stays in the buffer
+		    			 ByteBufferRandomAccessOutputStream tiffout = new ByteBufferRandomAccessOutputStream();
 		    			 TIFFMeta.retainPages(exifIn, tiffout, 1);
-		    			 tiffout.close(); // Auto flush when closed
-		    			 thumbnail = new ExifThumbnail(width, height, Thumbnail.DATA_TYPE_TIFF, bout.toByteArray(), thumbnailIFD);
+		    			 ByteBuffer tiff = tiffout.asByteBuffer();
+		    			 byte[] thumbnailData = new byte[tiff.remaining()];
+		    			 tiff.get(thumbnailData);
+		    			 tiffout.close();
+		    			 thumbnail = new ExifThumbnail(width, height, Thumbnail.DATA_TYPE_TIFF, thumbnailData, thumbnailIFD);
 		    			 containsThumbnail = true;		    			    
 		    		}
 		    	}
@@ -307,14 +297,17 @@ public abstract class Exif extends Metadata {
 	}
 	
 	public void setExifIFD(IFD exifSubIFD) {
+		ensureDataRead();
 		this.exifSubIFD = exifSubIFD;
 	}
 	
 	public void setGPSIFD(IFD gpsSubIFD) {
+		ensureDataRead();
 		this.gpsSubIFD = gpsSubIFD;
 	}
 	
 	public void setImageIFD(IFD imageIFD) {
+		ensureDataRead();
 		if(imageIFD == null)
 			throw new IllegalArgumentException("Input image IFD is null");
 		this.imageIFD = imageIFD;
@@ -327,10 +320,12 @@ public abstract class Exif extends Metadata {
 	 *        will be generated from the input image.
 	 */	
 	public void setThumbnail(ExifThumbnail thumbnail) {
+		ensureDataRead();
 		this.thumbnail = thumbnail;
 	}
 	
 	public void setThumbnailImage(BufferedImage thumbnail) {
+		ensureDataRead();
 		if(this.thumbnail == null)
 			this.thumbnail = new ExifThumbnail(); 
 		this.thumbnail.setImage(thumbnail);
@@ -11,11 +11,10 @@
 package pixy.meta.exif;
 
 import java.text.DecimalFormat;
-import java.util.HashMap;
-import java.util.Map;
 
 import pixy.image.tiff.FieldType;
 import pixy.image.tiff.Tag;
+import pixy.image.tiff.TagResolver;
 import pixy.image.tiff.TiffTag;
 import pixy.string.StringUtils;
 
@@ -191,20 +190,17 @@ public enum ExifTag implements Tag {
 	}
 	
     public static Tag fromShort(short value) {
-       	ExifTag exifTag = tagMap.get(value);
-    	if (exifTag == null)
-    	   return TiffTag.UNKNOWN;
-   		return exifTag;
-    }
+		return tagResolver.resolve(value);
+	}
+	
+	/**
+	 * @return the TagResolver for this tag family
+	 */
+	public static TagResolver getTagResolver() {
+		return tagResolver;
+	}
     
-    private static final Map<Short, ExifTag> tagMap = new HashMap<Short, ExifTag>();
-       
-    static
-    {
-      for(ExifTag exifTag : values()) {
-           tagMap.put(exifTag.getValue(), exifTag);
-      }
-    } 
+	private static final TagResolver tagResolver = new TagResolver(TiffTag.UNKNOWN, values()); 
 	
 	/**
      * Intended to be overridden by certain tags to provide meaningful string
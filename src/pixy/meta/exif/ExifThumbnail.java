@@ -22,7 +22,6 @@
 package pixy.meta.exif;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
@@ -38,7 +37,7 @@ import pixy.image.tiff.ShortField;
 import pixy.image.tiff.TiffField;
 import pixy.image.tiff.TiffFieldEnum;
 import pixy.image.tiff.TiffTag;
-import pixy.io.FileCacheRandomAccessInputStream;
+import pixy.io.ByteBufferRandomAccessInputStream;
 import pixy.io.MemoryCacheRandomAccessOutputStream;
 import pixy.io.RandomAccessInputStream;
 import pixy.io.RandomAccessOutputStream;
@@ -98,7 +97,7 @@ public class ExifThumbnail extends Thumbnail {
 		} else if(getDataType() == Thumbnail.DATA_TYPE_TIFF) { // Uncompressed TIFF format
 			// Read the IFDs into a list first
 			List<IFD> list = new ArrayList<IFD>();			   
-			RandomAccessInputStream tiffIn = new FileCacheRandomAccessInputStream(new ByteArrayInputStream(getCompressedImage()));
+			RandomAccessInputStream tiffIn = new ByteBufferRandomAccessInputStream(getCompressedImage());
 			TIFFMeta.readIFDs(list, tiffIn);
 			TiffField<?> stripOffset = list.get(0).getField(TiffTag.STRIP_OFFSETS);
     		if(stripOffset == null) 
@@ -112,11 +111,8 @@ public class ExifThumbnail extends Thumbnail {
     			off = stripOffset.getDataAsLong();
     			int[] counts = stripByteCounts.getDataAsLong();
     			for(int i = 0; i < off.length; i++) {
-    				tiffIn.seek(off[i]);
-    				byte[] temp = new byte[counts[i]];
-    				tiffIn.readFully(temp);
     				randOS.seek(offset);
-    				randOS.write(temp);
+    				tiffIn.copyTo(randOS, off[i], counts[i]);
     				off[i] = offset;
     				offset += counts[i];    				
     			}
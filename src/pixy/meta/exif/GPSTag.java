@@ -11,11 +11,10 @@
 package pixy.meta.exif;
 
 import java.text.DecimalFormat;
-import java.util.HashMap;
-import java.util.Map;
 
 import pixy.image.tiff.FieldType;
 import pixy.image.tiff.Tag;
+import pixy.image.tiff.TagResolver;
 import pixy.image.tiff.TiffTag;
 import pixy.string.StringUtils;
 
@@ -171,20 +170,17 @@ public enum GPSTag implements Tag {
 	}
 	
     public static Tag fromShort(short value) {
-       	GPSTag tag = tagMap.get(value);
-    	if (tag == null)
-    	   return TiffTag.UNKNOWN;
-   		return tag;
-    }
+		return tagResolver.resolve(value);
+	}
+	
+	/**
+	 * @return the TagResolver for this tag family
+	 */
+	public static TagResolver getTagResolver() {
+		return tagResolver;
+	}
     
-    private static final Map<Short, GPSTag> tagMap = new HashMap<Short, GPSTag>();
-       
-    static
-    {
-      for(GPSTag tag : values()) {
-           tagMap.put(tag.getValue(), tag);
-      }
-    }
+	private static final TagResolver tagResolver = new TagResolver(TiffTag.UNKNOWN, values());
     
     /**
      * Intended to be overridden by certain tags to provide meaningful string
@@ -10,11 +10,10 @@
 
 package pixy.meta.exif;
 
-import java.util.HashMap;
-import java.util.Map;
 
 import pixy.image.tiff.FieldType;
 import pixy.image.tiff.Tag;
+import pixy.image.tiff.TagResolver;
 import pixy.image.tiff.TiffTag;
 import pixy.string.StringUtils;
 
@@ -77,20 +76,17 @@ public enum InteropTag implements Tag {
 	}
 	
     public static Tag fromShort(short value) {
-       	InteropTag tag = tagMap.get(value);
-    	if (tag == null)
-    	   return TiffTag.UNKNOWN;
-   		return tag;
-    }
+		return tagResolver.resolve(value);
+	}
+	
+	/**
+	 * @return the TagResolver for this tag family
+	 */
+	public static TagResolver getTagResolver() {
+		return tagResolver;
+	}
     
-    private static final Map<Short, InteropTag> tagMap = new HashMap<Short, InteropTag>();
-       
-    static
-    {
-      for(InteropTag tag : values()) {
-           tagMap.put(tag.getValue(), tag);
-      }
-    }
+	private static final TagResolver tagResolver = new TagResolver(TiffTag.UNKNOWN, values());
     
     /**
      * Intended to be overridden by certain tags to provide meaningful string
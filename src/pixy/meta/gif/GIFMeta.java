@@ -27,14 +27,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import pixy.meta.image.Comments;
 import pixy.meta.xmp.XMP;
 import pixy.meta.Metadata;
 import pixy.meta.MetadataType;
+import pixy.io.BufferPool;
 import pixy.io.IOUtils;
 import pixy.util.ArrayUtils;
 
@@ -66,6 +69,7 @@ public class GIFMeta {
 		private byte[] globalPalette;
 		private byte[] imageDescriptor;
 		private Map<MetadataType, Metadata> metadataMap;
+		private Set<MetadataType> types;
 		private Comments comments;
 	}
 	
@@ -106,13 +110,7 @@ public class GIFMeta {
 			os.write(0);			
 		}
 		// Copy the rest of the input stream
- 		byte buf[] = new byte[10240]; // 10K
- 		int bytesRead = is.read(buf);
- 		
- 		while(bytesRead != -1) {
- 			os.write(buf, 0, bytesRead);
- 			bytesRead = is.read(buf);
- 		}
+		copyToEnd(is, os);
 	}
 	
 	public static void insertXMPApplicationBlock(InputStream is, OutputStream os, XMP xmp) throws IOException {
@@ -135,14 +133,8 @@ public class GIFMeta {
 		// Insert XMP
  		xmp.write(os);
  		
- 		// Copy the rest of the input stream
- 		byte[] buf = new byte[10240]; // 10K
- 		int bytesRead = is.read(buf);
- 		
- 		while(bytesRead != -1) {
- 			os.write(buf, 0, bytesRead);
- 			bytesRead = is.read(buf);
- 		}
+		// Copy the rest of the input stream
+		copyToEnd(is, os);
 	}
 	
 	public static void insertXMPApplicationBlock(InputStream is, OutputStream os, byte[] xmp) throws IOException {
@@ -153,6 +145,21 @@ public class GIFMeta {
 		insertXMPApplicationBlock(is, os, new GifXMP(xmp));
 	}
 	
+	private static void copyToEnd(InputStream is, OutputStream os) throws IOException {
+		BufferPool pool = BufferPool.getDefault();
+		byte[] buf = pool.acquire(10240); // 10K
+		try {
+			int bytesRead = is.read(buf);
+			
+			while(bytesRead != -1) {
+				os.write(buf, 0, bytesRead);
+				bytesRead = is.read(buf);
+			}
+		} finally {
+			pool.release(buf);
+		}
+	}
+	
 	private static boolean readFrame(InputStream is, DataTransferObject DTO) throws IOException {
 		// Need to reset some of the fields
 		int disposalMethod = -1;
@@ -207,14 +214,15 @@ public class GIFMeta {
 					byte[] temp = new byte[0x0B];
 					IOUtils.readFully(is, temp);
 					// If we have XMP data
-					if(Arrays.equals(xmp_id, temp)) {
+					if(Arrays.equals(xmp_id, temp) && DTO.types.contains(MetadataType.XMP)) {
 						ByteArrayOutputStream bout = new ByteArrayOutputStream();
 						len = is.read();
-						while(len != 0) {
+						// One buffer for all the sub-blocks, none of them is longer than 255 bytes
+						byte[] subBlock = new byte[0xff];
+						while(len > 0) {
 							bout.write(len);
-							temp = new byte[len];
-							IOUtils.readFully(is, temp);
-							bout.write(temp);
+							IOUtils.readFully(is, subBlock, 0, len);
+							bout.write(subBlock, 0, len);
 							len = is.read();
 						}
 						byte[] xmp = bout.toByteArray();
@@ -225,7 +233,7 @@ public class GIFMeta {
 						len = 0; // We're already at block terminator
 					} else 
 						len = is.read(); // Block terminator					
-				} else if(func == 0xfe) { // Comment block
+				} else if(func == 0xfe && DTO.types.contains(MetadataType.COMMENT)) { // Comment block
 					// Comment block
 					byte[] comment = new byte[len];
 					IOUtils.readFully(is, comment);
@@ -265,8 +273,7 @@ public class GIFMeta {
 		int len = 0;
 		
 		while((len = is.read()) > 0) {
-			byte[] block = new byte[len];
-			is.read(block);
+			IOUtils.skipFully(is, len);
 		}
 		
 		return true;
@@ -293,10 +300,28 @@ public class GIFMeta {
 	}
 	
 	public static Map<MetadataType, Metadata> readMetadata(InputStream is) throws IOException {
+		return readMetadata(is, EnumSet.allOf(MetadataType.class));
+	}
+	
+	/**
+	 * Reads the requested types of metadata. Extension blocks carrying
+	 * other types are skipped without being buffered.
+	 * 
+	 * @param is InputStream for the GIF image
+	 * @param types MetadataTypes to read
+	 * @return a map of Metadata read from the image
+	 * @throws IOException
+	 */
+	public static Map<MetadataType, Metadata> readMetadata(InputStream is, Set<MetadataType> types) throws IOException {
 		// Create a new data transfer object to hold data
 		DataTransferObject DTO = new DataTransferObject();
 		// Created a Map for the Meta data
 		DTO.metadataMap = new HashMap<MetadataType, Metadata>(); 
+		DTO.types = types;
+		
+		// GIF only carries XMP and comments, don't bother walking the frames otherwise
+		if(!types.contains(MetadataType.XMP) && !types.contains(MetadataType.COMMENT))
+			return DTO.metadataMap;
 				
 		readHeader(is, DTO);
 		readLSD(is, DTO);
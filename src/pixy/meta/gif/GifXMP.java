@@ -4,11 +4,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 import pixy.meta.xmp.XMP;
-import pixy.string.XMLUtils;
+import pixy.meta.xmp.XMPWriter;
 import static pixy.meta.gif.GIFMeta.*;
 
-import org.w3c.dom.Document;
-
 public class GifXMP extends XMP {
 	public GifXMP(byte[] data) {
 		super(data);
@@ -50,10 +48,7 @@ public class GifXMP extends XMP {
  		// Write extension introducer and application identifier
  		os.write(buf);
  		// Write the XMP packet
- 		Document doc = getXmpDocument();
-		XMLUtils.insertLeadingPI(doc, "xpacket", "begin='' id='W5M0MpCehiHzreSzNTczkc9d'");
-		XMLUtils.insertTrailingPI(doc, "xpacket", "end='r'");
-		os.write(XMLUtils.serializeToByteArray(doc));
+ 		writeXmp(new XMPWriter().setPacketWrapper("r"), os);
  		// Write the magic trailer
  		os.write(magic_trailer);
  		// End of XMP data 		
@@ -105,7 +105,6 @@ public class ICCProfile extends Metadata {
 	
 	public ICCProfile(byte[] profile) {
 		super(MetadataType.ICC_PROFILE, profile);
-		ensureDataRead();
 	}
 	
 	public ICCProfile(InputStream is) throws IOException {
@@ -113,18 +112,22 @@ public class ICCProfile extends Metadata {
 	}
 	
 	public boolean canBeUsedIndependently() {
+		ensureDataRead();
 		return (((header.profileFlags[0]>>6)&0x01) == 0);
 	}
 	
 	public String getBytesReserved() {
+		ensureDataRead();
 		return StringUtils.byteArrayToHexString(header.bytesReserved);
 	}
 	
 	public String getColorSpace() {
+		ensureDataRead();
 		return new String(header.colorSpace).trim();
 	}
 	
 	public String getDateTimeCreated() {
+		ensureDataRead();
 		int year = IOUtils.readUnsignedShortMM(header.dateTimeCreated, 0);
 		int month = IOUtils.readUnsignedShortMM(header.dateTimeCreated, 2);
 		int day = IOUtils.readUnsignedShortMM(header.dateTimeCreated, 4);
@@ -136,22 +139,27 @@ public class ICCProfile extends Metadata {
 	}
 	
 	public String getDeviceAttributes() {
+		ensureDataRead();
 		return (isReflective()?"reflective":"transparency") + ", " + (isGlossy()?"glossy":"matte") + ", " + (isPositive()?"positive":"negative") + ", " + (isColor()?"color":"black & white");
 	}
 	
 	public String getDeviceManufacturer() {
+		ensureDataRead();
 		return new String(header.deviceManufacturer).trim();
 	}
 	
 	public String getDeviceModel() {
+		ensureDataRead();
 		return new String(header.deviceModel).trim();
 	}
 	
 	public String getPCS() {
+		ensureDataRead();
 		return new String(header.PCS).trim();
 	}
 	
 	public float[] getPCSXYZ() {
+		ensureDataRead();
 		float PCSX = IOUtils.readS15Fixed16MMNumber(header.PCSXYZ, 0);
 		float PCSY = IOUtils.readS15Fixed16MMNumber(header.PCSXYZ, 4);
 		float PCSZ = IOUtils.readS15Fixed16MMNumber(header.PCSXYZ, 8);
@@ -160,14 +168,17 @@ public class ICCProfile extends Metadata {
 	}
 	
 	public String getPreferredCMMType() {
+		ensureDataRead();
 		return new String(header.preferredCMMType).trim();
 	}
 	
 	public String getPrimaryPlatformSignature() {
+		ensureDataRead();
 		return new String(header.primaryPlatformSignature).trim();
 	}
 	
 	public String getProfileClass() {
+		ensureDataRead();
 		switch(header.profileClass) {
 			case 0x73636E72:
 				return "scnr";
@@ -189,6 +200,7 @@ public class ICCProfile extends Metadata {
 	}
 	
 	public String getProfileClassDescription() {
+		ensureDataRead();
 		switch(header.profileClass) {
 			case 0x73636E72:
 				return "'scnr': input devices - scanners and digital cameras";
@@ -210,26 +222,32 @@ public class ICCProfile extends Metadata {
 	}
 	
 	public String getProfileCreator() {
+		ensureDataRead();
 		return new String(header.profileCreator).trim();
 	}
 	
 	public String getProfileFileSignature() {
+		ensureDataRead();
 		return new String(header.profileFileSignature).trim();
 	}
 	
 	public String getProfileFlags() {
+		ensureDataRead();
 		return (isEmbeddedInFile()?"embedded in file":"not embedded") + ", " + (canBeUsedIndependently()?"used independently":"cannot be used independently");
 	}
 	
 	public String getProfileID() {
+		ensureDataRead();
 		return StringUtils.byteArrayToHexString(header.profileID);
 	}
 	
 	public long getProfileSize() {
+		ensureDataRead();
 		return header.profileSize;
 	}
 	
 	public String getProfileVersionNumber() {
+		ensureDataRead();
 		int majorVersion = (header.profileVersionNumber[0]&0xff);
 		int minorRevision = ((header.profileVersionNumber[1]>>4)&0x0f);
 		int bugFix = (header.profileVersionNumber[1]&0x0f);
@@ -238,10 +256,12 @@ public class ICCProfile extends Metadata {
 	}
 	
 	public int getRenderingIntent() {
+		ensureDataRead();
 		return header.renderingIntent&0x0000ffff;
 	}
 	
 	public String getRenderingIntentDescription() {
+		ensureDataRead();
 		switch(header.renderingIntent&0x0000ffff) {
 			case 0:
 				return "perceptual";
@@ -257,26 +277,32 @@ public class ICCProfile extends Metadata {
 	}
 	
 	public ProfileTagTable getTagTable() {
+		ensureDataRead();
 		return tagTable;
 	}
 	
 	public boolean isColor() {
+		ensureDataRead();
 		return (((header.deviceAttributes[0]>>4)&0x01) == 0);
 	}
 	
 	public boolean isEmbeddedInFile() {
+		ensureDataRead();
 		return (((header.profileFlags[0]>>7)&0x01) == 1);
 	}
 	
 	public boolean isGlossy() {
+		ensureDataRead();
 		return (((header.deviceAttributes[0]>>6)&0x01) == 0);
 	}
 	
 	public boolean isPositive() {
+		ensureDataRead();
 		return (((header.deviceAttributes[0]>>5)&0x01) == 0);
 	}
 		
 	public boolean isReflective() {
+		ensureDataRead();
 		return (((header.deviceAttributes[0]>>7)&0x01) == 0);
 	}
 	
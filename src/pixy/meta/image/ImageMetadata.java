@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -29,10 +30,15 @@ import pixy.meta.Metadata;
 import pixy.meta.MetadataEntry;
 import pixy.meta.MetadataType;
 import pixy.meta.Thumbnail;
+import pixy.meta.adobe.IRB;
+import pixy.meta.exif.Exif;
 
 public class ImageMetadata extends Metadata {
 	private Map<String, Thumbnail> thumbnails;
 	private Collection<MetadataEntry> entries = new ArrayList<MetadataEntry>();
+	// Sources to extract thumbnails from on demand
+	private Exif exif;
+	private IRB irb;
 
 	public ImageMetadata() {
 		super(MetadataType.IMAGE);
@@ -43,6 +49,21 @@ public class ImageMetadata extends Metadata {
 		this.thumbnails = thumbnails;
 	}
 	
+	/**
+	 * Thumbnails are extracted from the EXIF and/or Photoshop IRB when
+	 * first accessed, so neither of them is parsed up front.
+	 * 
+	 * @param exif EXIF to extract thumbnail from or null
+	 * @param irb Photoshop IRB to extract thumbnail from or null
+	 */
+	public ImageMetadata(Exif exif, IRB irb) {
+		super(MetadataType.IMAGE);
+		this.exif = exif;
+		this.irb = irb;
+		// Empty rather than null if there turns out to be no thumbnail
+		this.thumbnails = new HashMap<String, Thumbnail>();
+	}
+	
 	public void addMetadataEntry(MetadataEntry entry) {
 		entries.add(entry);
 	}
@@ -52,10 +73,12 @@ public class ImageMetadata extends Metadata {
 	}
 	
 	public boolean containsThumbnail() {
+		ensureDataRead();
 		return thumbnails != null && thumbnails.size() > 0;
 	}
 	
 	public Map<String, Thumbnail> getThumbnails() {
+		ensureDataRead();
 		return thumbnails;
 	}
 	
@@ -79,8 +102,12 @@ public class ImageMetadata extends Metadata {
 	}
 	
 	public void read() throws IOException {
-		if(!isDataRead)
-			// No implementation
+		if(!isDataRead) {
+			if(exif != null && exif.containsThumbnail())
+				thumbnails.put("EXIF", exif.getThumbnail());
+			if(irb != null && irb.containsThumbnail())
+				thumbnails.put("PHOTOSHOP_IRB", irb.getThumbnail());
 			isDataRead = true;
+		}
 	}	
 }
\ No newline at end of file
@@ -86,10 +86,10 @@ public class IPTC extends Metadata {
 	
 	public IPTC(byte[] data) {
 		super(MetadataType.IPTC, data);
-		ensureDataRead();
 	}
 	
 	public void addDataSet(IPTCDataSet dataSet) {
+		ensureDataRead();
 		if(datasetMap != null) {
 			IPTCTag tag = dataSet.getTagEnum();
 			if(datasetMap.get(tag) == null) {
@@ -103,6 +103,7 @@ public class IPTC extends Metadata {
 	}
 	
 	public void addDataSets(Collection<? extends IPTCDataSet> dataSets) {
+		ensureDataRead();
 		if(datasetMap != null) {
 			for(IPTCDataSet dataSet: dataSets) {
 				IPTCTag tag = dataSet.getTagEnum();
@@ -124,6 +125,7 @@ public class IPTC extends Metadata {
 	 * @return a String representation of the IPTCDataSet, separated by ";"
 	 */	
 	public String getAsString(IPTCTag key) {
+		ensureDataRead();
 		// Retrieve the IPTCDataSet list associated with this key
 		// Most of the time the list will only contain one item
 		List<IPTCDataSet> list = getDataSet(key);
@@ -150,6 +152,7 @@ public class IPTC extends Metadata {
 	 * @return a list of IPTCDataSet associated with the key
 	 */
 	public List<IPTCDataSet> getDataSet(IPTCTag key) {
+		ensureDataRead();
 		return getDataSets().get(key);
 	}
 	
@@ -23,7 +23,6 @@ package pixy.meta.iptc;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -107,10 +106,13 @@ public class IPTCDataSet {
 		if (getClass() != obj.getClass())
 			return false;
 		IPTCDataSet other = (IPTCDataSet) obj;
-		byte[] thisData = ArrayUtils.subArray(data, offset, size);
-		byte[] thatData = ArrayUtils.subArray(other.data, other.offset, other.size);
-		if (!Arrays.equals(thisData, thatData))
+		// Compare the data in place rather than copying them out of the IPTC block
+		if (size != other.size)
 			return false;
+		for (int i = 0; i < size; i++) {
+			if (data[offset + i] != other.data[other.offset + i])
+				return false;
+		}
 		if (recordNumber != other.recordNumber)
 			return false;
 		if (tag != other.tag)
@@ -180,7 +182,11 @@ public class IPTCDataSet {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + Arrays.hashCode(ArrayUtils.subArray(data, offset, size));
+		// Same as Arrays.hashCode() of the data without copying them
+		int dataHash = 1;
+		for (int i = offset; i < offset + size; i++)
+			dataHash = prime * dataHash + data[i];
+		result = prime * result + dataHash;
 		result = prime * result + recordNumber;
 		result = prime * result + tag;
 		return result;
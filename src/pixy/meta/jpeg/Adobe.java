@@ -40,7 +40,6 @@ public class Adobe extends Metadata {
 	
 	public Adobe(byte[] data) {
 		super(MetadataType.JPG_ADOBE, data);
-		ensureDataRead();
 	}
 	
 	public Adobe(int dctEncodeVersion, int app14Flags0, int app14Flags1, int colorTransform) {
@@ -53,18 +52,22 @@ public class Adobe extends Metadata {
 	}
 	
 	public int getAPP14Flags0() {
+		ensureDataRead();
 		return m_APP14Flags0;
 	}
 	
 	public int getAPP14Flags1() {
+		ensureDataRead();
 		return m_APP14Flags1;
 	}
 	
 	public int getColorTransform() {
+		ensureDataRead();
 		return m_ColorTransform;
 	}
 	
 	public int getDCTEncodeVersion() {
+		ensureDataRead();
 		return m_DCTEncodeVersion;
 	}
 	
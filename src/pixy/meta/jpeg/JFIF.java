@@ -63,7 +63,6 @@ public class JFIF extends Metadata {
 
 	public JFIF(byte[] data) {
 		super(MetadataType.JPG_JFIF, data);
-		ensureDataRead();
 	}
 	
 	public JFIF(int majorVersion, int minorVersion, int densityUnit, int xDensity, int yDensity) {
@@ -96,38 +95,47 @@ public class JFIF extends Metadata {
 	}
 	
 	public boolean containsThumbnail() {
+		ensureDataRead();
 		return containsThumbnail;
 	}
 	
 	public int getDensityUnit() {
+		ensureDataRead();
 		return densityUnit;
 	}
 	
 	public int getMajorVersion() {
+		ensureDataRead();
 		return majorVersion;
 	}
 	
 	public int getMinorVersion() {
+		ensureDataRead();
 		return minorVersion;
 	}
 	
 	public JFIFThumbnail getThumbnail() {
+		ensureDataRead();
 		return new JFIFThumbnail(thumbnail);
 	}
 	
 	public int getThumbnailHeight() {
+		ensureDataRead();
 		return thumbnailHeight;
 	}
 	
 	public int getThumbnailWidth() {
+		ensureDataRead();
 		return thumbnailWidth;
 	}
 
 	public int getXDensity() {
+		ensureDataRead();
 		return xDensity;
 	}
 	
 	public int getYDensity() {
+		ensureDataRead();
 		return yDensity;
 	}
 	
@@ -46,11 +46,14 @@ import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 
 import pixy.image.tiff.IFD;
 import pixy.image.tiff.TiffTag;
@@ -62,15 +65,16 @@ import pixy.image.jpeg.Marker;
 import pixy.image.jpeg.QTable;
 import pixy.image.jpeg.SOFReader;
 import pixy.image.jpeg.SOSReader;
+import pixy.image.jpeg.SOSScanner;
 import pixy.image.jpeg.Segment;
 import pixy.image.jpeg.COMBuilder;
 import pixy.image.jpeg.UnknownSegment;
-import pixy.io.FileCacheRandomAccessInputStream;
+import pixy.io.BufferPool;
+import pixy.io.HybridCacheRandomAccessInputStream;
 import pixy.io.IOUtils;
 import pixy.io.RandomAccessInputStream;
 import pixy.string.Base64;
 import pixy.string.StringUtils;
-import pixy.string.XMLUtils;
 import pixy.util.ArrayUtils;
 import pixy.util.MetadataUtils;
 
@@ -86,7 +90,6 @@ import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
 
 import pixy.meta.Metadata;
 import pixy.meta.MetadataType;
@@ -105,6 +108,7 @@ import pixy.meta.iptc.IPTC;
 import pixy.meta.iptc.IPTCDataSet;
 import pixy.meta.iptc.IPTCTag;
 import pixy.meta.xmp.XMP;
+import pixy.meta.xmp.XMPReader;
 
 /**
  * JPEG image tweaking tool
@@ -135,13 +139,120 @@ public class JPEGMeta {
 	// Obtain a logger instance
 	private static final Logger LOGGER = LoggerFactory.getLogger(JPEGMeta.class);
 	
+	// Maximum size of a segment including marker and length
+	private static final int MAX_SEGMENT_SIZE = 65537;
+	
+	/**
+	 * Location of a segment before SOS in a JPEG file, used to patch the file in place
+	 */
+	private static final class SegmentPosition {
+		private final Marker marker;
+		private final long offset;
+		// Segment size including marker and length
+		private final int size;
+		private final byte[] data;
+		
+		private SegmentPosition(Marker marker, long offset, int size, byte[] data) {
+			this.marker = marker;
+			this.offset = offset;
+			this.size = size;
+			this.data = data;
+		}
+		
+		/** Filler is an APP15 segment holding nothing but zeros */
+		private boolean isFiller() {
+			if(marker != Marker.APP15) return false;
+			for(byte b : data)
+				if(b != 0) return false;
+			
+			return true;
+		}
+		
+		private boolean startsWith(String id) {
+			return data != null && hasId(data, 0, data.length, id);
+		}
+	}
+	
+	/**
+	 * Collects metadata from APPn segments as they are read. The segment data
+	 * are in a reused buffer, so the payload is copied out exactly once and only
+	 * for segments which hold metadata.
+	 */
+	private static final class APPnReader {
+		private final Map<MetadataType, Metadata> metadataMap;
+		// Used to read multiple segment ICCProfile
+		private ByteArrayOutputStream iccProfileStream;
+		// Used to read multiple segment Adobe APP13
+		private ByteArrayOutputStream eightBIMStream;
+		// ExtendedXMP segments are only matched against the main XMP if there are any
+		private List<byte[]> extendedXMPSegments;
+		
+		private APPnReader(Map<MetadataType, Metadata> metadataMap) {
+			this.metadataMap = metadataMap;
+		}
+		
+		/**
+		 * @param marker APPn marker of the segment
+		 * @param data buffer holding the segment data after the length field
+		 * @param size number of bytes of segment data in the buffer
+		 */
+		private void read(Marker marker, byte[] data, int size) {
+			if(marker == Marker.APP0) {
+				if(hasId(data, 0, size, JFIF_ID)) {
+					metadataMap.put(MetadataType.JPG_JFIF, new JFIF(Arrays.copyOfRange(data, JFIF_ID.length(), size)));
+				}
+			} else if(marker == Marker.APP1) {
+				// Check for EXIF
+				if(hasId(data, 0, size, EXIF_ID)) {
+					// We found EXIF
+					metadataMap.put(MetadataType.EXIF, new JpegExif(Arrays.copyOfRange(data, EXIF_ID.length(), size)));
+				} else if(hasId(data, 0, size, XMP_ID) || hasId(data, 0, size, NON_STANDARD_XMP_ID)) {
+					// We found XMP, add it to metadata list (We may later revise it if we have ExtendedXMP)
+					metadataMap.put(MetadataType.XMP, new JpegXMP(Arrays.copyOfRange(data, XMP_ID.length(), size)));
+				} else if(hasId(data, 0, size, XMP_EXT_ID)) {
+					// We found ExtendedXMP, keep it until we know the GUID
+					if(extendedXMPSegments == null)
+						extendedXMPSegments = new ArrayList<byte[]>();
+					extendedXMPSegments.add(Arrays.copyOf(data, size));
+				}
+			} else if(marker == Marker.APP2) {
+				// We're only interested in ICC_Profile
+				if(hasId(data, 0, size, ICC_PROFILE_ID)) {
+					if(iccProfileStream == null)
+						iccProfileStream = new ByteArrayOutputStream();
+					// Skip the sequence number and the number of chunks
+					iccProfileStream.write(data, ICC_PROFILE_ID.length() + 2, size - ICC_PROFILE_ID.length() - 2);
+				}
+			} else if(marker == Marker.APP12) {
+				if(hasId(data, 0, size, DUCKY_ID)) {
+					metadataMap.put(MetadataType.JPG_DUCKY, new Ducky(Arrays.copyOfRange(data, DUCKY_ID.length(), size)));
+				}
+			} else if(marker == Marker.APP13) {
+				if(hasId(data, 0, size, PHOTOSHOP_IRB_ID)) {
+					if(eightBIMStream == null)
+						eightBIMStream = new ByteArrayOutputStream();
+					eightBIMStream.write(data, PHOTOSHOP_IRB_ID.length(), size - PHOTOSHOP_IRB_ID.length());
+				}
+			} else if(marker == Marker.APP14) {
+				if(hasId(data, 0, size, ADOBE_ID)) {
+					metadataMap.put(MetadataType.JPG_ADOBE, new Adobe(Arrays.copyOfRange(data, ADOBE_ID.length(), size)));
+				}
+			}
+		}
+	}
+	
 	private static short copySegment(short marker, InputStream is, OutputStream os) throws IOException {
 		int length = IOUtils.readUnsignedShortMM(is);
-		byte[] buf = new byte[length - 2];
-		IOUtils.readFully(is, buf);
-		IOUtils.writeShortMM(os, marker);
-		IOUtils.writeShortMM(os, (short) length);
-		IOUtils.write(os, buf);
+		BufferPool pool = BufferPool.getDefault();
+		byte[] buf = pool.acquire(length - 2);
+		try {
+			IOUtils.readFully(is, buf, 0, length - 2);
+			IOUtils.writeShortMM(os, marker);
+			IOUtils.writeShortMM(os, (short) length);
+			os.write(buf, 0, length - 2);
+		} finally {
+			pool.release(buf);
+		}
 		
 		return(IOUtils.readShortMM(is));
 	}
@@ -150,56 +261,61 @@ public class JPEGMeta {
 	@SuppressWarnings("unused")
 	private static short copySOS(InputStream is, OutputStream os) throws IOException {
 		// Need special treatment.
-		int nextByte = 0;
-		short marker = 0;	
-		
-		while((nextByte = IOUtils.read(is)) != -1) {
-			if(nextByte == 0xff) {
-				nextByte = IOUtils.read(is);
-				
-				if (nextByte == -1) {
-					throw new IOException("Premature end of SOS segment!");					
-				}								
-				
-				if (nextByte != 0x00) { // This is a marker
-					marker = (short)((0xff<<8)|nextByte);
-					
-					switch (Marker.fromShort(marker)) {										
-						case RST0:  
-						case RST1:
-						case RST2:
-						case RST3:
-						case RST4:
-						case RST5:
-						case RST6:
-						case RST7:
-							IOUtils.writeShortMM(os, marker);
-							continue;
-						default:											
-					}
-					break;
-				}
-				IOUtils.write(os, 0xff);
-				IOUtils.write(os, nextByte);
-			} else {
-				IOUtils.write(os,  nextByte);				
-			}			
-		}
-		
-		if (nextByte == -1) {
-			throw new IOException("Premature end of SOS segment!");
-		}
-
-		return marker;
+		return new SOSScanner().copy(is, os);
 	}
 	
 	protected static void copyToEnd(InputStream is, OutputStream os) throws IOException {
-		byte[] buffer = new byte[10240]; // 10k buffer
+		BufferPool pool = BufferPool.getDefault();
+		byte[] buffer = pool.acquire(10240); // 10k buffer
 		int bytesRead = -1;
 		
-		while((bytesRead = is.read(buffer)) != -1) {
-			os.write(buffer, 0, bytesRead);
+		try {
+			while((bytesRead = is.read(buffer)) != -1) {
+				os.write(buffer, 0, bytesRead);
+			}
+		} finally {
+			pool.release(buffer);
+		}
+	}
+	
+	/**
+	 * Creates the 8BIMs of the APP13 for the IPTC data. The other 8BIMs of the
+	 * original IRB, if any, are kept.
+	 * 
+	 * @param irbData the original IRB data or null
+	 * @param iptcs a collection of IPTCDataSet to be inserted
+	 * @param update boolean if true, keep the original IPTC data; otherwise, replace it completely with the new IPTC data 
+	 */
+	private static Collection<_8BIM> createIPTCBIMs(byte[] irbData, Collection<IPTCDataSet> iptcs, boolean update) throws IOException {
+		Map<Short, _8BIM> bimMap = null;
+		if(irbData != null) {
+			IRB irb = new IRB(irbData);
+			// Shallow copy the map.
+			bimMap = new HashMap<Short, _8BIM>(irb.get8BIM());
+			_8BIM iptcBIM = bimMap.remove(ImageResourceID.IPTC_NAA.getValue());
+			if(iptcBIM != null && update) { // Keep the original values
+				IPTC iptc = new IPTC(iptcBIM.getData());
+				// Shallow copy the map
+				Map<IPTCTag, List<IPTCDataSet>> dataSetMap = new HashMap<IPTCTag, List<IPTCDataSet>>(iptc.getDataSets());
+				for(IPTCDataSet set : iptcs)
+					if(!set.allowMultiple())
+						dataSetMap.remove(set.getName());
+				for(List<IPTCDataSet> iptcList : dataSetMap.values())
+					iptcs.addAll(iptcList);
+			}
+		}
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		// Insert IPTC data as one of IRB 8BIM block
+		for(IPTCDataSet iptc : iptcs)
+			iptc.write(bout);
+		// Create 8BIM for IPTC
+		_8BIM newBIM = new _8BIM(ImageResourceID.IPTC_NAA.getValue(), "iptc", bout.toByteArray());
+		if(bimMap != null) {
+			bimMap.put(newBIM.getID(), newBIM); // Add the IPTC_NAA 8BIM to the map
+			return bimMap.values(); // Write the whole thing as one APP13
 		}
+		
+		return Arrays.asList(newBIM); // Write the one and only one 8BIM as one APP13
 	}
 	
 	public static byte[] extractICCProfile(InputStream is) throws IOException {
@@ -274,16 +390,15 @@ public class JPEGMeta {
 		Map<MetadataType, Metadata> meta = readMetadata(is);
 		XMP xmp = (XMP)meta.get(MetadataType.XMP);
 		if(xmp != null && xmp.hasExtendedXmp()) {
-			Document xmpDocument = xmp.getMergedDocument();
-			String depthMapMime = XMLUtils.getAttribute(xmpDocument, "rdf:Description", "GDepth:Mime");
+			String depthMapMime = xmp.getPropertyValue("GDepth:Mime");
 			String depthData = "GDepth:Data";
-			String audioMime = XMLUtils.getAttribute(xmpDocument, "rdf:Description", "GAudio:Mime");
+			String audioMime = xmp.getPropertyValue("GAudio:Mime");
 			if(StringUtils.isNullOrEmpty(depthMapMime)) {
-				depthMapMime = XMLUtils.getAttribute(xmpDocument, "rdf:Description", "GImage:Mime");
+				depthMapMime = xmp.getPropertyValue("GImage:Mime");
 				depthData = "GImage:Data";
 			}					
 			if(!StringUtils.isNullOrEmpty(depthMapMime)) {
-				String data = XMLUtils.getAttribute(xmpDocument, "rdf:Description", depthData);
+				String data = xmp.getPropertyValue(depthData);
 				if(!StringUtils.isNullOrEmpty(data)) {
 					String outpath = "";
 					if(pathToDepthMap.endsWith("\\") || pathToDepthMap.endsWith("/"))
@@ -306,7 +421,7 @@ public class JPEGMeta {
 				}		
 			}
 			if(!StringUtils.isNullOrEmpty(audioMime)) { // Cardboard Camera Audio
-				String data = XMLUtils.getAttribute(xmpDocument, "rdf:Description", "GAudio:Data");
+				String data = xmp.getPropertyValue("GAudio:Data");
 				if(!StringUtils.isNullOrEmpty(data)) {
 					String outpath = "";
 					if(pathToDepthMap.endsWith("\\") || pathToDepthMap.endsWith("/"))
@@ -531,6 +646,75 @@ public class JPEGMeta {
 	    }
 	}
 	
+	/**
+	 * Merges the new EXIF with the original one if any and leaves the result in the new EXIF.
+	 * 
+	 * @param exif the EXIF to insert
+	 * @param oldExif the EXIF found in the image or null
+	 * @param update True to keep the original data, otherwise false
+	 */
+	private static void mergeExif(Exif exif, Exif oldExif, boolean update) {
+		IFD newExifSubIFD = exif.getExifIFD();
+		IFD newGpsSubIFD = exif.getGPSIFD();
+		IFD newImageIFD = exif.getImageIFD();
+		ExifThumbnail newThumbnail = exif.getThumbnail();
+		// Define new IFDs
+		IFD exifSubIFD = null;
+		IFD gpsSubIFD = null;
+		IFD imageIFD = null;
+		// Got to do something to keep the old data
+		if(update && oldExif != null) {
+			IFD oldImageIFD = oldExif.getImageIFD();
+			IFD oldExifSubIFD = oldExif.getExifIFD();
+			IFD oldGpsSubIFD = oldExif.getGPSIFD();
+			ExifThumbnail thumbnail = oldExif.getThumbnail();
+			
+			if(oldImageIFD != null) {
+				imageIFD = new IFD();
+				imageIFD.addFields(oldImageIFD.getFields());
+			}
+			if(thumbnail != null) {
+				if(newThumbnail == null)
+					newThumbnail = thumbnail;
+			}
+			if(oldExifSubIFD != null) {
+				exifSubIFD = new IFD();
+				exifSubIFD.addFields(oldExifSubIFD.getFields());
+			}
+			if(oldGpsSubIFD != null) {
+				gpsSubIFD = new IFD();
+				gpsSubIFD.addFields(oldGpsSubIFD.getFields());
+			}
+		}
+		if(newImageIFD != null) {
+			if(imageIFD == null)
+				imageIFD = new IFD();
+			imageIFD.addFields(newImageIFD.getFields());
+		}
+		if(exifSubIFD != null) {
+			if(newExifSubIFD != null)
+				exifSubIFD.addFields(newExifSubIFD.getFields());
+		} else
+			exifSubIFD = newExifSubIFD;
+		if(gpsSubIFD != null) {
+			if(newGpsSubIFD != null)
+				gpsSubIFD.addFields(newGpsSubIFD.getFields());
+		} else
+			gpsSubIFD = newGpsSubIFD;
+		// If we have ImageIFD, set Image IFD attached with EXIF and GPS
+		if(imageIFD != null) {
+			if(exifSubIFD != null)
+				imageIFD.addChild(TiffTag.EXIF_SUB_IFD, exifSubIFD);
+			if(gpsSubIFD != null)
+				imageIFD.addChild(TiffTag.GPS_SUB_IFD, gpsSubIFD);
+			exif.setImageIFD(imageIFD);
+		} else { // Otherwise, set EXIF and GPS IFD separately
+			exif.setExifIFD(exifSubIFD);
+			exif.setGPSIFD(gpsSubIFD);
+		}
+		exif.setThumbnail(newThumbnail);
+	}
+	
 	/**
 	 * @param is input image stream 
 	 * @param os output image stream
@@ -541,7 +725,7 @@ public class JPEGMeta {
 	public static void insertExif(InputStream is, OutputStream os, Exif exif, boolean update) throws IOException {
 		// We need thumbnail image but don't have one, create one from the current image input stream
 		if(exif.isThumbnailRequired() && !exif.containsThumbnail()) {
-			is = new FileCacheRandomAccessInputStream(is);
+			is = new HybridCacheRandomAccessInputStream(is);
 			// Insert thumbnail into EXIF wrapper
 			exif.setThumbnailImage(MetadataUtils.createThumbnail(is));
 		}
@@ -572,65 +756,7 @@ public class JPEGMeta {
 					segments.get(i).write(os);
 				}
 				// Now we insert the EXIF data
-		    	IFD newExifSubIFD = exif.getExifIFD();
-		    	IFD newGpsSubIFD = exif.getGPSIFD();
-		    	IFD newImageIFD = exif.getImageIFD();
-		    	ExifThumbnail newThumbnail = exif.getThumbnail();	    
-		    	// Define new IFDs
-		    	IFD exifSubIFD = null;
-		    	IFD gpsSubIFD = null;
-		    	IFD imageIFD = null;
-		    	// Got to do something to keep the old data
-		    	if(update && oldExif != null) {
-		    		IFD oldImageIFD = oldExif.getImageIFD();
-			    	IFD oldExifSubIFD = oldExif.getExifIFD();
-			    	IFD oldGpsSubIFD = oldExif.getGPSIFD();
-			    	ExifThumbnail thumbnail = oldExif.getThumbnail();
-			    	
-			    	if(oldImageIFD != null) {
-			    		imageIFD = new IFD();
-			    		imageIFD.addFields(oldImageIFD.getFields());
-			    	}
-			    	if(thumbnail != null) {
-			    		if(newThumbnail == null)
-			    			newThumbnail = thumbnail;
-					}
-			    	if(oldExifSubIFD != null) {
-			    		exifSubIFD = new IFD();
-			    		exifSubIFD.addFields(oldExifSubIFD.getFields());
-			    	}
-			    	if(oldGpsSubIFD != null) {
-			    		gpsSubIFD = new IFD();
-			    		gpsSubIFD.addFields(oldGpsSubIFD.getFields());
-					}
-		    	}
-		    	if(newImageIFD != null) {
-		    		if(imageIFD == null)
-		    			imageIFD = new IFD();
-		    		imageIFD.addFields(newImageIFD.getFields());
-		    	}
-		    	if(exifSubIFD != null) {
-		    		if(newExifSubIFD != null)
-		    			exifSubIFD.addFields(newExifSubIFD.getFields());
-		    	} else
-		    		exifSubIFD = newExifSubIFD;
-		    	if(gpsSubIFD != null) {
-		    		if(newGpsSubIFD != null)
-		    			gpsSubIFD.addFields(newGpsSubIFD.getFields());
-		    	} else
-		    		gpsSubIFD = newGpsSubIFD;
-		    	// If we have ImageIFD, set Image IFD attached with EXIF and GPS
-		     	if(imageIFD != null) {
-		    		if(exifSubIFD != null)
-			    		imageIFD.addChild(TiffTag.EXIF_SUB_IFD, exifSubIFD);
-		    		if(gpsSubIFD != null)
-			    		imageIFD.addChild(TiffTag.GPS_SUB_IFD, gpsSubIFD);
-		    		exif.setImageIFD(imageIFD);
-		    	} else { // Otherwise, set EXIF and GPS IFD separately
-		    		exif.setExifIFD(exifSubIFD);
-		    		exif.setGPSIFD(gpsSubIFD);
-		    	}
-		   		exif.setThumbnail(newThumbnail);
+				mergeExif(exif, oldExif, update);
 		   		// Now insert the new EXIF to the JPEG
 		   		exif.write(os);		     	
 		     	// Copy the remaining segments
@@ -683,7 +809,54 @@ public class JPEGMeta {
 	    }
 		// Close the input stream in case it's an instance of RandomAccessInputStream
 		if(is instanceof RandomAccessInputStream)
-			((FileCacheRandomAccessInputStream)is).shallowClose();
+			((RandomAccessInputStream)is).shallowClose();
+	}
+	
+	/**
+	 * Replaces the EXIF of a JPEG file in place when the new EXIF fits into the space of
+	 * the old one plus any adjacent filler. Space left over is kept as filler for later
+	 * updates. Nothing but the EXIF segment is written, the compressed image data are not
+	 * copied.
+	 * 
+	 * @param jpeg the JPEG file to update
+	 * @param exif Exif instance
+	 * @param update True to keep the original data, otherwise false
+	 * @return true if the EXIF was replaced, false if the file has no EXIF to replace
+	 *         or the new EXIF doesn't fit in which case the file is left unchanged
+	 * @throws IOException
+	 */
+	public static boolean insertExif(File jpeg, Exif exif, boolean update) throws IOException {
+		// We need thumbnail image but don't have one, create one from the image
+		if(exif.isThumbnailRequired() && !exif.containsThumbnail()) {
+			InputStream is = new FileInputStream(jpeg);
+			try {
+				exif.setThumbnailImage(MetadataUtils.createThumbnail(is));
+			} finally {
+				is.close();
+			}
+		}
+		RandomAccessFile file = new RandomAccessFile(jpeg, "rw");
+		try {
+			List<SegmentPosition> segments = readSegmentPositions(file);
+			List<SegmentPosition> targets = new ArrayList<SegmentPosition>();
+			Exif oldExif = null;
+			for(SegmentPosition segment : segments) {
+				if(segment.marker == Marker.APP1 && segment.startsWith(EXIF_ID)) {
+					if(oldExif == null)
+						oldExif = new JpegExif(ArrayUtils.subArray(segment.data, EXIF_ID.length(), segment.data.length - EXIF_ID.length()));
+					targets.add(segment);
+				}
+			}
+			if(targets.isEmpty()) return false;
+			mergeExif(exif, oldExif, update);
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			exif.write(bout);
+			byte[] replacement = bout.toByteArray();
+			// Zeros after the TIFF structure are ignored by EXIF readers
+			return replaceSegments(file, segments, targets, replacement, replacement.length, (byte)0);
+		} finally {
+			file.close();
+		}
 	}
 	
 	/**
@@ -809,7 +982,6 @@ public class JPEGMeta {
 		int app0Index = -1;
 		int app1Index = -1;		
 		
-		Map<Short, _8BIM> bimMap = null;
 		// Used to read multiple segment Adobe APP13
 		ByteArrayOutputStream eightBIMStream = null;
 				
@@ -829,38 +1001,12 @@ public class JPEGMeta {
 		
 		while (!finished) {	        
 			if (Marker.fromShort(marker) == Marker.SOS) {
-				if(eightBIMStream != null) {
-					IRB irb = new IRB(eightBIMStream.toByteArray());
-		    		// Shallow copy the map.
-		    		bimMap = new HashMap<Short, _8BIM>(irb.get8BIM());
-					_8BIM iptcBIM = bimMap.remove(ImageResourceID.IPTC_NAA.getValue());
-					if(iptcBIM != null && update) { // Keep the original values
-						IPTC iptc = new IPTC(iptcBIM.getData());
-						// Shallow copy the map
-						Map<IPTCTag, List<IPTCDataSet>> dataSetMap = new HashMap<IPTCTag, List<IPTCDataSet>>(iptc.getDataSets());
-						for(IPTCDataSet set : iptcs)
-							if(!set.allowMultiple())
-								dataSetMap.remove(set.getName());
-						for(List<IPTCDataSet> iptcList : dataSetMap.values())
-							iptcs.addAll(iptcList);
-					}
-			  	}				
 				int index = Math.max(app0Index, app1Index);
 				// Write the items in segments list excluding the APP13
 				for(int i = 0; i <= index; i++)
 					segments.get(i).write(os);	
-				ByteArrayOutputStream bout = new ByteArrayOutputStream();
-				// Insert IPTC data as one of IRB 8BIM block
-				for(IPTCDataSet iptc : iptcs)
-					iptc.write(bout);
-				// Create 8BIM for IPTC
-				_8BIM newBIM = new _8BIM(ImageResourceID.IPTC_NAA.getValue(), "iptc", bout.toByteArray());
-				if(bimMap != null) {
-					bimMap.put(newBIM.getID(), newBIM); // Add the IPTC_NAA 8BIM to the map
-					writeIRB(os, bimMap.values()); // Write the whole thing as one APP13
-				} else {
-					writeIRB(os, newBIM); // Write the one and only one 8BIM as one APP13
-				}						
+				// Write the IRB with the IPTC data as one APP13
+				writeIRB(os, createIPTCBIMs((eightBIMStream == null)? null : eightBIMStream.toByteArray(), iptcs, update));
 				// Copy the remaining segments
 				for(int i = (index < 0 ? 0 : index + 1); i < segments.size(); i++) {
 					segments.get(i).write(os);
@@ -905,6 +1051,41 @@ public class JPEGMeta {
 	    }
 	}
 	
+	/**
+	 * Replaces the Photoshop APP13 segments of a JPEG file with one holding the new IPTC
+	 * data in place when it fits into the space of the old segments plus any adjacent
+	 * filler. Other 8BIMs of the original IRB are kept. The compressed image data are
+	 * not copied.
+	 * 
+	 * @param jpeg the JPEG file to update
+	 * @param iptcs a collection of IPTCDataSet to be inserted
+	 * @param update boolean if true, keep the original IPTC data; otherwise, replace it completely with the new IPTC data 
+	 * @return true if the IPTC was replaced, false if the file has no Photoshop APP13 to
+	 *         replace or the new one doesn't fit in which case the file is left unchanged
+	 * @throws IOException
+	 */
+	public static boolean insertIPTC(File jpeg, Collection<IPTCDataSet> iptcs, boolean update) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(jpeg, "rw");
+		try {
+			List<SegmentPosition> segments = readSegmentPositions(file);
+			List<SegmentPosition> targets = new ArrayList<SegmentPosition>();
+			ByteArrayOutputStream eightBIMStream = new ByteArrayOutputStream();
+			for(SegmentPosition segment : segments) {
+				if(segment.marker == Marker.APP13 && segment.startsWith(PHOTOSHOP_IRB_ID)) {
+					eightBIMStream.write(segment.data, PHOTOSHOP_IRB_ID.length(), segment.data.length - PHOTOSHOP_IRB_ID.length());
+					targets.add(segment);
+				}
+			}
+			if(targets.isEmpty()) return false;
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			writeIRB(bout, createIPTCBIMs(eightBIMStream.toByteArray(), iptcs, update));
+			// 8BIMs can't be padded, left over space goes to filler
+			return replaceSegments(file, segments, targets, bout.toByteArray(), -1, (byte)0);
+		} finally {
+			file.close();
+		}
+	}
+	
 	/**
 	 * Inserts a collection of _8BIM into a JPEG APP13 Photoshop IRB segment
 	 * 
@@ -1105,6 +1286,41 @@ public class JPEGMeta {
 	    }
 	}
 	
+	/**
+	 * Replaces the XMP and ExtendedXMP of a JPEG file in place when the new XMP fits into
+	 * the space of the old segments plus any adjacent filler. Space left over becomes
+	 * whitespace padding in the XMP packet as far as the segment size allows, the rest
+	 * filler. The compressed image data are not copied.
+	 * 
+	 * @param jpeg the JPEG file to update
+	 * @param xmp XMP instance
+	 * @return true if the XMP was replaced, false if the file has no XMP to replace
+	 *         or the new XMP doesn't fit in which case the file is left unchanged
+	 * @throws IOException
+	 */
+	public static boolean insertXMP(File jpeg, XMP xmp) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(jpeg, "rw");
+		try {
+			List<SegmentPosition> segments = readSegmentPositions(file);
+			List<SegmentPosition> targets = new ArrayList<SegmentPosition>();
+			for(SegmentPosition segment : segments) {
+				if(segment.marker == Marker.APP1 && (segment.startsWith(XMP_ID) || segment.startsWith(XMP_EXT_ID)))
+					targets.add(segment);
+			}
+			if(targets.isEmpty()) return false;
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			xmp.write(bout);
+			byte[] replacement = bout.toByteArray();
+			// Padding goes in front of the packet trailer of the standard XMP segment
+			int segmentSize = IOUtils.readUnsignedShortMM(replacement, 2) + 2;
+			int padPos = new String(replacement, 0, segmentSize, "ISO-8859-1").lastIndexOf("<?xpacket end");
+			if(padPos < 0) padPos = segmentSize;
+			return replaceSegments(file, segments, targets, replacement, padPos, (byte)' ');
+		} finally {
+			file.close();
+		}
+	}
+	
 	/**
 	 * Insert XMP into single APP1 or multiple segments. Support ExtendedXMP.
 	 * The standard part of the XMP must be a valid XMP with packet wrapper and,
@@ -1286,10 +1502,42 @@ public class JPEGMeta {
 	}
 	
 	public static Map<MetadataType, Metadata> readMetadata(InputStream is) throws IOException {
+		return readMetadata(is, false);
+	}
+	
+	/**
+	 * Reads metadata from JPEG input stream
+	 * 
+	 * @param is InputStream for the JPEG image
+	 * @param headersOnly if true, stop reading as soon as the first SOS header is parsed
+	 *        instead of scanning the image data for trailing APPn and COM segments 
+	 * @return a map of Metadata read from the image
+	 * @throws IOException
+	 */
+	public static Map<MetadataType, Metadata> readMetadata(InputStream is, boolean headersOnly) throws IOException {
+		return readMetadata(is, headersOnly, EnumSet.allOf(MetadataType.class));
+	}
+	
+	public static Map<MetadataType, Metadata> readMetadata(InputStream is, Set<MetadataType> types) throws IOException {
+		return readMetadata(is, false, types);
+	}
+	
+	/**
+	 * Reads the requested types of metadata from JPEG input stream. APPn and COM
+	 * segments which don't contribute to any of the requested types are skipped
+	 * without being buffered.
+	 * 
+	 * @param is InputStream for the JPEG image
+	 * @param headersOnly if true, stop reading as soon as the first SOS header is parsed
+	 *        instead of scanning the image data for trailing APPn and COM segments 
+	 * @param types MetadataTypes to read
+	 * @return a map of Metadata read from the image
+	 * @throws IOException
+	 */
+	public static Map<MetadataType, Metadata> readMetadata(InputStream is, boolean headersOnly, Set<MetadataType> types) throws IOException {
 		Map<MetadataType, Metadata> metadataMap = new HashMap<MetadataType, Metadata>();
-		Map<String, Thumbnail> thumbnails = new HashMap<String, Thumbnail>();
 		// Need to wrap the input stream with a BufferedInputStream to
-		// speed up reading SOS
+		// speed up reading SOS (the scanner relies on mark/reset)
 		is = new BufferedInputStream(is);
 		// Definitions
 		List<QTable> m_qTables = new ArrayList<QTable>(4);
@@ -1299,16 +1547,17 @@ public class JPEGMeta {
 		// Usually there is only one SOF segment, but for hierarchical
 		// JPEG, there could be more than one SOF
 		List<SOFReader> readers = new ArrayList<SOFReader>();
-		// Used to read multiple segment ICCProfile
-		ByteArrayOutputStream iccProfileStream = null;
-		// Used to read multiple segment Adobe APP13
-		ByteArrayOutputStream eightBIMStream = null;
 		// Used to read multiple segment XMP
 		byte[] extendedXMP = null;
-		String xmpGUID = ""; // 32 byte ASCII hex string
 		Comments comments = null;
 		
-		List<Segment> appnSegments = new ArrayList<Segment>();
+		APPnReader appnReader = new APPnReader(metadataMap);
+		// Segments are read into and the scan data skipped with pooled buffers
+		BufferPool pool = BufferPool.getDefault();
+		byte[] segmentBuf = null;
+		// Used to skip the scan data, shared by multiple SOSs
+		byte[] scanBuf = null;
+		SOSScanner scanner = null;
 	
 		boolean finished = false;
 		int length = 0;
@@ -1344,13 +1593,24 @@ public class JPEGMeta {
 					case APP13:
 					case APP14:
 					case APP15:
-						byte[] appBytes = readSegmentData(is);
-						appnSegments.add(new Segment(emarker, appBytes.length + 2, appBytes));
+						if(isSegmentRequired(emarker, types)) {
+							int size = IOUtils.readUnsignedShortMM(is) - 2;
+							if(segmentBuf == null || segmentBuf.length < size) {
+								pool.release(segmentBuf);
+								segmentBuf = pool.acquire(size);
+							}
+							IOUtils.readFully(is, segmentBuf, 0, size);
+							appnReader.read(emarker, segmentBuf, size);
+						} else
+							skipSegmentData(is);
 						marker = IOUtils.readShortMM(is);
 						break;
 					case COM:
-						if(comments == null) comments = new Comments();
-						comments.addComment(readSegmentData(is));
+						if(types.contains(MetadataType.COMMENT)) {
+							if(comments == null) comments = new Comments();
+							comments.addComment(readSegmentData(is));
+						} else
+							skipSegmentData(is);
 						marker = IOUtils.readShortMM(is);
 				    	break;				   				
 					case DHT:
@@ -1379,8 +1639,19 @@ public class JPEGMeta {
 						break;
 					case SOS:	
 						SOFReader reader = readers.get(readers.size() - 1);
-						marker = readSOS(is, reader);
-						LOGGER.debug("\n{}", sofToString(reader));
+						if(headersOnly) {
+							// All the metadata we are after normally come before the first SOS
+							readSOSHeader(is, reader);
+							finished = true;
+						} else {
+							if(scanner == null) {
+								scanBuf = pool.acquire(SOSScanner.DEFAULT_BUFFER_SIZE);
+								scanner = new SOSScanner(scanBuf);
+							}
+							marker = readSOS(is, reader, scanner);
+						}
+						if(LOGGER.isDebugEnabled())
+							LOGGER.debug("\n{}", sofToString(reader));
 						break;		
 					case JPG: // JPG and JPGn shouldn't appear in the image.
 					case JPG0:
@@ -1402,74 +1673,20 @@ public class JPEGMeta {
 	    }
 		
 		is.close();
-		
-		// Debugging
-		LOGGER.debug("\n{}", qTablesToString(m_qTables));
-		LOGGER.debug("\n{}", hTablesToString(m_acTables));	
-		LOGGER.debug("\n{}", hTablesToString(m_dcTables));
-		
-		for(Segment segment : appnSegments) {
-			byte[] data = segment.getData();
-			length = segment.getLength();
-			if(segment.getMarker() == Marker.APP0) {
-				if (new String(data, 0, JFIF_ID.length()).equals(JFIF_ID)) {
-					metadataMap.put(MetadataType.JPG_JFIF, new JFIF(ArrayUtils.subArray(data, JFIF_ID.length(), length - JFIF_ID.length() - 2)));
-				}
-			} else if(segment.getMarker() == Marker.APP1) {
-				// Check for EXIF
-				if(new String(data, 0, EXIF_ID.length()).equals(EXIF_ID)) {
-					// We found EXIF
-					JpegExif exif = new JpegExif(ArrayUtils.subArray(data, EXIF_ID.length(), length - EXIF_ID.length() - 2));
-					metadataMap.put(MetadataType.EXIF, exif);
-				} else if(new String(data, 0, XMP_ID.length()).equals(XMP_ID) ||
-						new String(data, 0, NON_STANDARD_XMP_ID.length()).equals(NON_STANDARD_XMP_ID)) {
-					// We found XMP, add it to metadata list (We may later revise it if we have ExtendedXMP)
-					XMP xmp = new JpegXMP(ArrayUtils.subArray(data, XMP_ID.length(), length - XMP_ID.length() - 2));
-					metadataMap.put(MetadataType.XMP, xmp);
-					// Retrieve and remove XMP GUID if available
-					xmpGUID = XMLUtils.getAttribute(xmp.getXmpDocument(), "rdf:Description", "xmpNote:HasExtendedXMP");
-				} else if(new String(data, 0, XMP_EXT_ID.length()).equals(XMP_EXT_ID)) {
-					// We found ExtendedXMP, add the data to ExtendedXMP memory buffer				
-					int i = XMP_EXT_ID.length();
-					// 128-bit MD5 digest of the full ExtendedXMP serialization
-					byte[] guid = ArrayUtils.subArray(data, i, 32);
-					if(Arrays.equals(guid, xmpGUID.getBytes())) { // We have matched the GUID, copy it
-						i += 32;
-						long extendedXMPLength = IOUtils.readUnsignedIntMM(data, i);
-						i += 4;
-						if(extendedXMP == null)
-							extendedXMP = new byte[(int)extendedXMPLength];
-						// Offset for the current segment
-						long offset = IOUtils.readUnsignedIntMM(data, i);
-						i += 4;
-						byte[] xmpBytes = ArrayUtils.subArray(data, i, length - XMP_EXT_ID.length() - 42);
-						System.arraycopy(xmpBytes, 0, extendedXMP, (int)offset, xmpBytes.length);
-					}
-				}
-			} else if(segment.getMarker() == Marker.APP2) {
-				// We're only interested in ICC_Profile
-				if (new String(data, 0, ICC_PROFILE_ID.length()).equals(ICC_PROFILE_ID)) {
-					if(iccProfileStream == null)
-						iccProfileStream = new ByteArrayOutputStream();
-					iccProfileStream.write(ArrayUtils.subArray(data, ICC_PROFILE_ID.length() + 2, length - ICC_PROFILE_ID.length() - 4));
-				}
-			} else if(segment.getMarker() == Marker.APP12) {
-				if (new String(data, 0, DUCKY_ID.length()).equals(DUCKY_ID)) {
-					metadataMap.put(MetadataType.JPG_DUCKY, new Ducky(ArrayUtils.subArray(data, DUCKY_ID.length(), length - DUCKY_ID.length() - 2)));
-				}
-			} else if(segment.getMarker() == Marker.APP13) {
-				if (new String(data, 0, PHOTOSHOP_IRB_ID.length()).equals(PHOTOSHOP_IRB_ID)) {
-					if(eightBIMStream == null)
-						eightBIMStream = new ByteArrayOutputStream();
-					eightBIMStream.write(ArrayUtils.subArray(data, PHOTOSHOP_IRB_ID.length(), length - PHOTOSHOP_IRB_ID.length() - 2));
-				}
-			} else if(segment.getMarker() == Marker.APP14) {
-				if (new String(data, 0, ADOBE_ID.length()).equals(ADOBE_ID)) {
-					metadataMap.put(MetadataType.JPG_ADOBE, new Adobe(ArrayUtils.subArray(data, ADOBE_ID.length(), length - ADOBE_ID.length() - 2)));
-				}
-			}
+		pool.release(segmentBuf);
+		pool.release(scanBuf);
+		
+		// Debugging, the tables are only formatted if they are going to be logged
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER.debug("\n{}", qTablesToString(m_qTables));
+			LOGGER.debug("\n{}", hTablesToString(m_acTables));	
+			LOGGER.debug("\n{}", hTablesToString(m_dcTables));
 		}
 		
+		ByteArrayOutputStream iccProfileStream = appnReader.iccProfileStream;
+		ByteArrayOutputStream eightBIMStream = appnReader.eightBIMStream;
+		List<byte[]> extendedXMPSegments = appnReader.extendedXMPSegments;
+		
 		// Now it's time to join multiple segments ICC_PROFILE and/or XMP		
 		if(iccProfileStream != null) { // We have ICCProfile data
 			ICCProfile icc_profile = new ICCProfile(iccProfileStream.toByteArray());
@@ -1479,46 +1696,82 @@ public class JPEGMeta {
 		if(eightBIMStream != null) {
 			IRB irb = new IRB(eightBIMStream.toByteArray());	
 			metadataMap.put(MetadataType.PHOTOSHOP_IRB, irb);
-			_8BIM iptc = irb.get8BIM(ImageResourceID.IPTC_NAA.getValue());
-			// Extract IPTC as stand-alone meta
-			if(iptc != null) {
-				metadataMap.put(MetadataType.IPTC, new IPTC(iptc.getData()));
+			if(types.contains(MetadataType.IPTC)) {
+				_8BIM iptc = irb.get8BIM(ImageResourceID.IPTC_NAA.getValue());
+				// Extract IPTC as stand-alone meta
+				if(iptc != null) {
+					metadataMap.put(MetadataType.IPTC, new IPTC(iptc.getData()));
+				}
 			}
 		}
 		
-		if(extendedXMP != null) {
-			XMP xmp = ((XMP)metadataMap.get(MetadataType.XMP));
-			if(xmp != null)
-				xmp.setExtendedXMPData(extendedXMP);
+		XMP xmp = ((XMP)metadataMap.get(MetadataType.XMP));
+		
+		if(xmp != null && extendedXMPSegments != null) {
+			// Only parse XMP to retrieve the GUID if we do have ExtendedXMP 
+			String xmpGUID = XMPReader.getPropertyValue(xmp.getData(), "xmpNote:HasExtendedXMP"); // 32 byte ASCII hex string
+			for(byte[] data : extendedXMPSegments) {
+				int i = XMP_EXT_ID.length();
+				// 128-bit MD5 digest of the full ExtendedXMP serialization
+				if(xmpGUID != null && xmpGUID.length() == 32 && hasId(data, i, data.length, xmpGUID)) { // We have matched the GUID, copy it
+					i += 32;
+					long extendedXMPLength = IOUtils.readUnsignedIntMM(data, i);
+					i += 4;
+					if(extendedXMP == null)
+						extendedXMP = new byte[(int)extendedXMPLength];
+					// Offset for the current segment
+					long offset = IOUtils.readUnsignedIntMM(data, i);
+					i += 4;
+					System.arraycopy(data, i, extendedXMP, (int)offset, data.length - XMP_EXT_ID.length() - 40);
+				}
+			}
 		}
 		
+		if(extendedXMP != null)
+			xmp.setExtendedXMPData(extendedXMP);
+		
 		if(comments != null)
 			metadataMap.put(MetadataType.COMMENT, comments);
 			
-		// Extract thumbnails to ImageMetadata
-		Metadata meta = metadataMap.get(MetadataType.EXIF);
-		if(meta != null) {
-			Exif exif = (Exif)meta;
-			if(!exif.isDataRead())
-				exif.read();
-			if(exif.containsThumbnail()) {
-				thumbnails.put("EXIF", exif.getThumbnail());
-			}
-		}
+		// Thumbnails are extracted to ImageMetadata on demand
+		if(types.contains(MetadataType.IMAGE))
+			metadataMap.put(MetadataType.IMAGE, new ImageMetadata((Exif)metadataMap.get(MetadataType.EXIF), (IRB)metadataMap.get(MetadataType.PHOTOSHOP_IRB)));
+		// Drop what was only read to serve other types
+		metadataMap.keySet().retainAll(types);
 		
-		meta = metadataMap.get(MetadataType.PHOTOSHOP_IRB);
-		if(meta != null) {
-			IRB irb = (IRB)meta;
-			if(!irb.isDataRead())
-				irb.read();
-			if(irb.containsThumbnail()) {
-				thumbnails.put("PHOTOSHOP_IRB", irb.getThumbnail());
-			}
+		return metadataMap;
+	}
+	
+	// Compares the ASCII id with the bytes at offset without decoding them to a String
+	private static boolean hasId(byte[] data, int offset, int length, String id) {
+		if(length - offset < id.length())
+			return false;
+		for(int i = 0; i < id.length(); i++) {
+			if(data[offset + i] != (byte)id.charAt(i))
+				return false;
 		}
 		
-		metadataMap.put(MetadataType.IMAGE, new ImageMetadata(thumbnails));
-		
-		return metadataMap;
+		return true;
+	}
+	
+	// Check whether or not an APPn segment may contain any of the required metadata types
+	private static boolean isSegmentRequired(Marker marker, Set<MetadataType> types) {
+		switch(marker) {
+			case APP0:
+				return types.contains(MetadataType.JPG_JFIF);
+			case APP1: // EXIF and XMP, EXIF also provides thumbnail for IMAGE
+				return types.contains(MetadataType.EXIF) || types.contains(MetadataType.XMP) || types.contains(MetadataType.IMAGE);
+			case APP2:
+				return types.contains(MetadataType.ICC_PROFILE);
+			case APP12:
+				return types.contains(MetadataType.JPG_DUCKY);
+			case APP13: // IRB may contain IPTC and thumbnail
+				return types.contains(MetadataType.PHOTOSHOP_IRB) || types.contains(MetadataType.IPTC) || types.contains(MetadataType.IMAGE);
+			case APP14:
+				return types.contains(MetadataType.JPG_ADOBE);
+			default:
+				return false;
+		}
 	}
 	
 	private static byte[] readSegmentData(InputStream is) throws IOException {
@@ -1529,6 +1782,11 @@ public class JPEGMeta {
 		return data;
 	}
 	
+	private static void skipSegmentData(InputStream is) throws IOException {
+		int length = IOUtils.readUnsignedShortMM(is);
+		IOUtils.skipFully(is, length - 2);
+	}
+	
 	private static SOFReader readSOF(InputStream is, Marker marker) throws IOException {		
 		int len = IOUtils.readUnsignedShortMM(is);
 		byte buf[] = new byte[len - 2];
@@ -1540,53 +1798,60 @@ public class JPEGMeta {
 		return reader;
 	}	
 	
-	// This method is very slow if not wrapped in some kind of cache stream but it works for multiple
+	// This method needs a stream supporting mark/reset to scan in blocks, but it works for multiple
 	// SOSs in case of progressive JPEG
-	private static short readSOS(InputStream is, SOFReader sofReader) throws IOException {
+	private static short readSOS(InputStream is, SOFReader sofReader, SOSScanner scanner) throws IOException {
+		readSOSHeader(is, sofReader);
+		// Actual image data follow.
+		return skipSOS(is, scanner);
+	}
+	
+	private static void readSOSHeader(InputStream is, SOFReader sofReader) throws IOException {
 		int len = IOUtils.readUnsignedShortMM(is);
 		byte buf[] = new byte[len - 2];
 		IOUtils.readFully(is, buf);
 		
 		Segment segment = new Segment(Marker.SOS, len, buf);
 		new SOSReader(segment, sofReader);
-		
-		// Actual image data follow.
-		int nextByte = 0;
-		short marker = 0;	
-		
-		while((nextByte = IOUtils.read(is)) != -1) {
-			if(nextByte == 0xff) {
-				nextByte = IOUtils.read(is);
-				
-				if (nextByte == -1) {
-					throw new IOException("Premature end of SOS segment!");					
-				}								
-				
-				if (nextByte != 0x00) {
-					marker = (short)((0xff<<8)|nextByte);
-					
-					switch (Marker.fromShort(marker)) {										
-						case RST0:  
-						case RST1:
-						case RST2:
-						case RST3:
-						case RST4:
-						case RST5:
-						case RST6:
-						case RST7:
-							continue;
-						default:											
-					}
+	}
+	
+	// Reads the position of the segments up to SOS, the first segment follows SOI
+	private static List<SegmentPosition> readSegmentPositions(RandomAccessFile file) throws IOException {
+		file.seek(0);
+		if(Marker.fromShort(file.readShort()) != Marker.SOI)
+			throw new IOException("Invalid JPEG image, expected SOI marker not found!");
+		List<SegmentPosition> segments = new ArrayList<SegmentPosition>();
+		for(;;) {
+			long offset = file.getFilePointer();
+			short marker = file.readShort();
+			if(marker == Marker.PADDING.getValue()) {
+				// Skip the fill bytes, the marker starts at the last 0xff
+				int nextByte = 0;
+				while((nextByte = file.read()) == 0xff) {;}
+				if(nextByte < 0) throw new EOFException();
+				offset = file.getFilePointer() - 2;
+				marker = (short)((0xff<<8)|nextByte);
+			}
+			Marker emarker = Marker.fromShort(marker);
+			switch (emarker) {
+				case SOS:
+				case EOI:
+					return segments;
+				case JPG: // JPG and JPGn shouldn't appear in the image.
+				case JPG0:
+				case JPG13:
+				case TEM: // The only stand alone marker besides SOI, EOI, and RSTn.
+					segments.add(new SegmentPosition(emarker, offset, 2, null));
 					break;
-				}
+				default:
+					int length = file.readUnsignedShort();
+					if(length < 2)
+						throw new IOException("Invalid JPEG segment length: " + length);
+					byte[] data = new byte[length - 2];
+					file.readFully(data);
+					segments.add(new SegmentPosition(emarker, offset, length + 2, data));
 			}
 		}
-		
-		if (nextByte == -1) {
-			throw new IOException("Premature end of SOS segment!");
-		}
-
-		return marker;
 	}
 	
 	// Remove APPn segment
@@ -1874,50 +2139,92 @@ public class JPEGMeta {
 		}
 	}
 	
-	@SuppressWarnings("unused")
-	private static short skipSOS(InputStream is) throws IOException {
-		int nextByte = 0;
-		short marker = 0;	
-		
-		while((nextByte = IOUtils.read(is)) != -1) {
-			if(nextByte == 0xff) {
-				nextByte = IOUtils.read(is);
-						
-				if (nextByte == -1) {
-					throw new IOException("Premature end of SOS segment!");					
-				}								
-				
-				if (nextByte != 0x00) { // This is a marker
-					marker = (short)((0xff<<8)|nextByte);
-					
-					switch (Marker.fromShort(marker)) {										
-						case RST0:  
-						case RST1:
-						case RST2:
-						case RST3:
-						case RST4:
-						case RST5:
-						case RST6:
-						case RST7:
-							continue;
-						default:											
-					}
-					break;
-				}
-			}
+	/**
+	 * Overwrites the target segments with the replacement if it fits into their space.
+	 * <p>
+	 * The space is that of the target segments plus any filler segments between or next
+	 * to them. Targets separated by other segments can't be replaced in place. Space
+	 * left over is first padded into the first replacement segment at padPos, if allowed,
+	 * and then written as filler segments which later replacements can use again.
+	 * 
+	 * @param file the JPEG file
+	 * @param segments all the segments before SOS
+	 * @param targets the segments to replace in the order they appear in the file
+	 * @param replacement the new segments with markers and lengths
+	 * @param padPos position inside the first replacement segment where to insert padding
+	 *        or -1 if it can't be padded
+	 * @param fill padding byte
+	 * @return true if the targets were replaced, false if the file was left unchanged
+	 */
+	private static boolean replaceSegments(RandomAccessFile file, List<SegmentPosition> segments, List<SegmentPosition> targets, byte[] replacement, int padPos, byte fill) throws IOException {
+		int first = segments.indexOf(targets.get(0));
+		int last = segments.indexOf(targets.get(targets.size() - 1));
+		for(int i = first; i <= last; i++) {
+			SegmentPosition segment = segments.get(i);
+			if(!targets.contains(segment) && !segment.isFiller()) return false;
 		}
-		
-		if (nextByte == -1) {
-			throw new IOException("Premature end of SOS segment!");
+		// Adjacent filler is free space too
+		while(first > 0 && segments.get(first - 1).isFiller()) first--;
+		while(last < segments.size() - 1 && segments.get(last + 1).isFiller()) last++;
+		long offset = segments.get(first).offset;
+		long space = segments.get(last).offset + segments.get(last).size - offset;
+		long gap = space - replacement.length;
+		if(gap < 0) return false;
+		// Pad the first segment as far as its length allows
+		int padding = 0;
+		if(padPos >= 0) {
+			padding = (int)Math.min(gap, MAX_SEGMENT_SIZE - IOUtils.readUnsignedShortMM(replacement, 2) - 2);
+			// A filler segment takes at least 4 bytes
+			if(gap - padding > 0 && gap - padding < 4)
+				padding = (int)gap - 4;
+			if(padding < 0) padding = 0;
 		}
-
-		return marker;
+		gap -= padding;
+		if(gap > 0 && gap < 4) return false;
+		
+		ByteArrayOutputStream bout = new ByteArrayOutputStream((int)space);
+		if(padding > 0) {
+			IOUtils.writeShortMM(bout, IOUtils.readShortMM(replacement, 0));
+			IOUtils.writeShortMM(bout, IOUtils.readUnsignedShortMM(replacement, 2) + padding);
+			bout.write(replacement, 4, padPos - 4);
+			byte[] pad = new byte[padding];
+			Arrays.fill(pad, fill);
+			bout.write(pad);
+			bout.write(replacement, padPos, replacement.length - padPos);
+		} else
+			bout.write(replacement);
+		writeFiller(bout, gap);
+		
+		file.seek(offset);
+		file.write(bout.toByteArray());
+		// There is no original copy to fall back to, make sure the change is on disk
+		file.getChannel().force(false);
+		
+		return true;
+	}
+	
+	private static short skipSOS(InputStream is, SOSScanner scanner) throws IOException {
+		return scanner.skip(is);
 	}
 	
 	private static void writeComment(String comment, OutputStream os) throws IOException	{
 		new COMBuilder().comment(comment).build().write(os);
 	}
 	
+	// Writes APP15 filler segments of the given total size, which is either 0 or at least 4
+	private static void writeFiller(OutputStream os, long size) throws IOException {
+		while(size > 0) {
+			int segmentSize = (int)Math.min(size, MAX_SEGMENT_SIZE);
+			// Leave enough for another filler segment
+			if(size - segmentSize > 0 && size - segmentSize < 4)
+				segmentSize -= 4;
+			IOUtils.writeShortMM(os, Marker.APP15.getValue());
+			IOUtils.writeShortMM(os, segmentSize - 2);
+			os.write(new byte[segmentSize - 4]);
+			size -= segmentSize;
+		}
+	}
+	
 	/**
 	 * Write ICC_Profile as one or more APP2 segments
 	 * <p>
@@ -1,17 +1,14 @@
 package pixy.meta.jpeg;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
 import pixy.image.jpeg.Marker;
 import pixy.io.IOUtils;
 import pixy.meta.xmp.XMP;
+import pixy.meta.xmp.XMPWriter;
 import pixy.string.StringUtils;
-import pixy.string.XMLUtils;
 import pixy.util.ArrayUtils;
 import static pixy.meta.jpeg.JPEGMeta.*;
 
@@ -42,23 +39,17 @@ public class JpegXMP extends XMP {
 	public void write(OutputStream os) throws IOException {
 		// Add packet wrapper to the XMP document
 		// Add PI at the beginning and end of the document, we will support only UTF-8, no BOM
-		Document xmpDoc = getXmpDocument();
-		XMLUtils.insertLeadingPI(xmpDoc, "xpacket", "begin='' id='W5M0MpCehiHzreSzNTczkc9d'");
-		XMLUtils.insertTrailingPI(xmpDoc, "xpacket", "end='r'");
+		XMPWriter writer = new XMPWriter().setPacketWrapper("r");
 		byte[] extendedXmp = getExtendedXmpData();
 		String guid = null;
 		if(extendedXmp != null) { // We have ExtendedXMP
 			guid = StringUtils.generateMD5(extendedXmp);
-			NodeList descriptions = xmpDoc.getElementsByTagName("rdf:Description");
-			int length = descriptions.getLength();
-			if(length > 0) {
-				Element node = (Element)descriptions.item(length - 1);
-				node.setAttribute("xmlns:xmpNote", "http://ns.adobe.com/xmp/extension/");
-				node.setAttribute("xmpNote:HasExtendedXMP", guid);
-			}
+			writer.setProperty(XMP_NOTE_NS, "xmpNote:HasExtendedXMP", guid);
 		}
 		// Serialize XMP to byte array
-		byte[] xmp = XMLUtils.serializeToByteArray(xmpDoc);
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		writeXmp(writer, bout);
+		byte[] xmp = bout.toByteArray();
 		if(xmp.length > MAX_XMP_CHUNK_SIZE)
 			throw new RuntimeException("XMP data size exceededs JPEG segment size");
 		// Write XMP segment
@@ -27,33 +27,34 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.zip.InflaterInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
 
 import pixy.meta.png.TIMEChunk;
 import pixy.meta.xmp.XMP;
+import pixy.meta.xmp.XMPWriter;
 import pixy.image.png.TextBuilder;
 import pixy.meta.Metadata;
 import pixy.meta.MetadataType;
 import pixy.meta.icc.ICCProfile;
 import pixy.image.png.Chunk;
+import pixy.image.png.ChunkStream;
 import pixy.image.png.ChunkType;
 import pixy.image.png.ICCPBuilder;
 import pixy.image.png.TextReader;
-import pixy.image.png.UnknownChunk;
 import pixy.io.IOUtils;
-import pixy.string.XMLUtils;
 /**
  * PNG image tweaking tool
  *
@@ -73,21 +74,11 @@ public class PNGMeta {
   	}
   	
   	public static void insertChunks(InputStream is, OutputStream os, Chunk... chunks) throws IOException	{
-  		List<Chunk> list = readChunks(is);  		
-        Collections.addAll(list, chunks);
-    	
-  		IOUtils.writeLongMM(os, SIGNATURE);
-	
-        serializeChunks(list, os);
+  		rewriteChunks(is, os, Arrays.asList(chunks), EnumSet.noneOf(ChunkType.class), false);
   	}
   	
   	public static void insertChunks(List<Chunk> chunks, InputStream is, OutputStream os) throws IOException	{
-  		List<Chunk> list = readChunks(is);  		
-        list.addAll(chunks);
-    	
-  		IOUtils.writeLongMM(os, SIGNATURE);
-	
-        serializeChunks(list, os);
+  		rewriteChunks(is, os, chunks, EnumSet.noneOf(ChunkType.class), false);
   	}
   	
   	public static void insertComments(InputStream is, OutputStream os, List<String> comments) throws IOException {
@@ -105,7 +96,8 @@ public class PNGMeta {
   		ICCPBuilder builder = new ICCPBuilder();
   		builder.name(profile_name);
   		builder.data(icc_profile);
-  		insertChunk(builder.build(), is, os);
+  		// Only one iCCP chunk is allowed, replace the old one if any
+  		rewriteChunks(is, os, Collections.singletonList(builder.build()), EnumSet.of(ChunkType.ICCP), false);
   	}
   	
   	public static void insertICCProfile(String profile_name, ICC_Profile icc_profile, InputStream is, OutputStream os) throws IOException {
@@ -125,86 +117,58 @@ public class PNGMeta {
   	}
   	
   	public static void insertXMP(InputStream is, OutputStream os, XMP xmp) throws IOException {
-  		insert(is, os, XMLUtils.serializeToString(xmp.getMergedDocument()));
+  		if(xmp == null) throw new IllegalArgumentException("Input XMP is null");
+  		byte[] data = xmp.getData();
+  		if(data == null) throw new IOException("Unable to serialize XMP");
+  		insert(is, os, new String(new XMPWriter().write(data), "UTF-8"));
   	}
   	
   	// Add leading and trailing PI
   	public static void insertXMP(InputStream is, OutputStream os, String xmp) throws IOException {
-  		Document doc = XMLUtils.createXML(xmp);
-		XMLUtils.insertLeadingPI(doc, "xpacket", "begin='' id='W5M0MpCehiHzreSzNTczkc9d'");
-		XMLUtils.insertTrailingPI(doc, "xpacket", "end='r'");
-		String newXmp = XMLUtils.serializeToString(doc); // DONOT use XMLUtils.serializeToStringLS()
-  		insert(is, os, newXmp);
+  		byte[] newXmp = new XMPWriter().setPacketWrapper("r").write(xmp);
+  		insert(is, os, new String(newXmp, "UTF-8"));
     }
   	
   	private static void insert(InputStream is, OutputStream os, String xmp) throws IOException {
-  		// Read all the chunks first
-  		List<Chunk> chunks = readChunks(is);
-	    ListIterator<Chunk> itr = chunks.listIterator();
-	    
-	    // Remove old XMP chunk
-	    while(itr.hasNext()) {
-	    	Chunk chunk = itr.next();
-	    	if(chunk.getChunkType() == ChunkType.ITXT) {
-	    		TextReader reader = new TextReader(chunk);
-				if(reader.getKeyword().equals("XML:com.adobe.xmp")); // We found XMP data
-					itr.remove();
-	    	}
-	    }
-	    
 	    // Create XMP textual chunk
 		Chunk xmpChunk = new TextBuilder(ChunkType.ITXT).keyword("XML:com.adobe.xmp").text(xmp).build();
-		// Insert XMP textual chunk into image
-	    chunks.add(xmpChunk);
-	    
-	    IOUtils.writeLongMM(os, SIGNATURE);
-	    
-        serializeChunks(chunks, os);
+		// Insert XMP textual chunk into image, removing the old one on the way
+		rewriteChunks(is, os, Collections.singletonList(xmpChunk), EnumSet.noneOf(ChunkType.class), true);
     }
   	
-   	public static List<Chunk> readChunks(InputStream is) throws IOException {  		
+  	private static boolean isXMP(Chunk chunk) {
+  		return chunk.getChunkType() == ChunkType.ITXT && new TextReader(chunk).getKeyword().equals("XML:com.adobe.xmp");
+  	}
+  	
+   	public static List<Chunk> readChunks(InputStream is) throws IOException {
+   		return readChunks(is, EnumSet.allOf(ChunkType.class));
+   	}
+   	
+   	/**
+   	 * Reads the chunks of the given types. All the other chunks, including
+   	 * IHDR and IEND, are skipped without being buffered.
+   	 * 
+   	 * @param is InputStream for the PNG image
+   	 * @param chunkTypes ChunkTypes to keep
+   	 * @return a list of chunks of the given types in file order
+   	 * @throws IOException
+   	 */
+   	public static List<Chunk> readChunks(InputStream is, Set<ChunkType> chunkTypes) throws IOException {  		
   		List<Chunk> list = new ArrayList<Chunk>();
- 		 //Local variables for reading chunks
-        int data_len = 0;
-        int chunk_type = 0;
-        byte[] buf = null;
-     
-        long signature = IOUtils.readLongMM(is);
-
-        if (signature != SIGNATURE) {
-       	 	throw new RuntimeException("Invalid PNG signature");
-        }   
-
-        /** Read header */
-        /** We are expecting IHDR */
-        if ((IOUtils.readIntMM(is) != 13)||(IOUtils.readIntMM(is) != ChunkType.IHDR.getValue())) {
-            throw new RuntimeException("Invalid PNG header");
-        }     
-        
-        buf = new byte[13];
-        IOUtils.readFully(is, buf, 0, 13);
-  
-        list.add(new Chunk(ChunkType.IHDR, 13, buf, IOUtils.readUnsignedIntMM(is)));         
-      
-        while (true) {
-        	data_len = IOUtils.readIntMM(is);
-	       	chunk_type = IOUtils.readIntMM(is);
-	   
-	       	if (chunk_type == ChunkType.IEND.getValue()) {
-	        	 list.add(new Chunk(ChunkType.IEND, data_len, new byte[0], IOUtils.readUnsignedIntMM(is)));
-	       		 break;
-	       	} 
-       		ChunkType chunkType = ChunkType.fromInt(chunk_type);
-       		buf = new byte[data_len];
-       		IOUtils.readFully(is, buf, 0, data_len);
-              
-       		if (chunkType == ChunkType.UNKNOWN)
-       			list.add(new UnknownChunk(data_len, chunk_type, buf, IOUtils.readUnsignedIntMM(is)));
-       		else
-       			list.add(new Chunk(chunkType, data_len, buf, IOUtils.readUnsignedIntMM(is)));
-        }
+  		ChunkStream chunks = new ChunkStream(is);
+  		
+  		/** We are expecting IHDR */
+  		if(!chunks.nextChunk() || chunks.getChunkType() != ChunkType.IHDR || chunks.getLength() != 13) {
+  			throw new RuntimeException("Invalid PNG header");
+  		}
+  		
+  		do {
+  			if(chunkTypes.contains(chunks.getChunkType()))
+  				list.add(chunks.readChunk());
+  			// Otherwise the data and the CRC are skipped by nextChunk()
+  		} while(chunks.nextChunk());
         
-        return list;
+  		return list;
   	}
    	
    	private static byte[] readICCProfile(byte[] buf) throws IOException {
@@ -222,12 +186,34 @@ public class PNGMeta {
  	}
   	
    	public static Map<MetadataType, Metadata> readMetadata(InputStream is) throws IOException {
+   		return readMetadata(is, EnumSet.allOf(MetadataType.class));
+   	}
+   	
+   	/**
+   	 * Reads the requested types of metadata. Only the chunks which may carry
+   	 * them are buffered, IDAT and the other chunks are skipped.
+   	 * 
+   	 * @param is InputStream for the PNG image
+   	 * @param types MetadataTypes to read
+   	 * @return a map of Metadata read from the image
+   	 * @throws IOException
+   	 */
+   	public static Map<MetadataType, Metadata> readMetadata(InputStream is, Set<MetadataType> types) throws IOException {
 		Map<MetadataType, Metadata> metadataMap = new HashMap<MetadataType, Metadata>();
-		List<Chunk> chunks = readChunks(is);
-		Iterator<Chunk> iter = chunks.iterator();
+		Set<ChunkType> chunkTypes = EnumSet.noneOf(ChunkType.class);
+		if(types.contains(MetadataType.ICC_PROFILE))
+			chunkTypes.add(ChunkType.ICCP);
+		if(types.contains(MetadataType.PNG_TEXTUAL) || types.contains(MetadataType.XMP)) // XMP lives in iTXt
+			Collections.addAll(chunkTypes, ChunkType.TEXT, ChunkType.ITXT, ChunkType.ZTXT);
+		if(types.contains(MetadataType.PNG_TIME))
+			chunkTypes.add(ChunkType.TIME);
+		// Chunks are read one at a time, IDAT and other unwanted chunks are skipped
+		ChunkStream chunks = new ChunkStream(is);
 		TextualChunks textualChunk = null;
-		while (iter.hasNext()) {
-			Chunk chunk = iter.next();
+		while (chunks.nextChunk()) {
+			if(!chunkTypes.contains(chunks.getChunkType()))
+				continue;
+			Chunk chunk = chunks.readChunk();
 			ChunkType type = chunk.getChunkType();
 			long length = chunk.getLength();
 			if(type == ChunkType.ICCP)
@@ -244,14 +230,17 @@ public class PNGMeta {
 		}
 		
 		if(textualChunk != null) {
-			metadataMap.put(MetadataType.PNG_TEXTUAL, textualChunk);
-			
-			// We may find XMP data inside iTXT
-			Map<String, String> keyValMap = textualChunk.getKeyValMap();
+			if(types.contains(MetadataType.PNG_TEXTUAL))
+				metadataMap.put(MetadataType.PNG_TEXTUAL, textualChunk);
 			
-			for (Map.Entry<String, String> entry : keyValMap.entrySet()) {
-				if(entry.getKey().equals("XML:com.adobe.xmp"))
-					metadataMap.put(MetadataType.XMP, new PngXMP(entry.getValue()));
+			if(types.contains(MetadataType.XMP)) {
+				// We may find XMP data inside iTXT
+				Map<String, String> keyValMap = textualChunk.getKeyValMap();
+				
+				for (Map.Entry<String, String> entry : keyValMap.entrySet()) {
+					if(entry.getKey().equals("XML:com.adobe.xmp"))
+						metadataMap.put(MetadataType.XMP, new PngXMP(entry.getValue()));
+				}
 			}
 		}
 			
@@ -300,6 +289,72 @@ public class PNGMeta {
    		return chunks;  		
   	}
   	
+   	public static void removeMetadata(InputStream is, OutputStream os, MetadataType ... metadataTypes) throws IOException {
+   		removeMetadata(new HashSet<MetadataType>(Arrays.asList(metadataTypes)), is, os);
+   	}
+   	
+   	/**
+   	 * Removes the chunks carrying the given types of metadata. The image is
+   	 * copied chunk by chunk, so memory use does not depend on the image size.
+   	 */
+   	public static void removeMetadata(Set<MetadataType> metadataTypes, InputStream is, OutputStream os) throws IOException {
+   		Set<ChunkType> chunkTypes = EnumSet.noneOf(ChunkType.class);
+   		if(metadataTypes.contains(MetadataType.ICC_PROFILE))
+   			chunkTypes.add(ChunkType.ICCP);
+   		if(metadataTypes.contains(MetadataType.PNG_TEXTUAL))
+   			Collections.addAll(chunkTypes, ChunkType.TEXT, ChunkType.ITXT, ChunkType.ZTXT);
+   		if(metadataTypes.contains(MetadataType.PNG_TIME))
+   			chunkTypes.add(ChunkType.TIME);
+   		rewriteChunks(is, os, Collections.<Chunk>emptyList(), chunkTypes, metadataTypes.contains(MetadataType.XMP));
+   	}
+   	
+   	/**
+   	 * Copies the image chunk by chunk from the input to the output, dropping and
+   	 * inserting chunks on the way. Only chunks which need to be looked into are
+   	 * read into memory, the others, IDAT included, go through a fixed size buffer.
+   	 * <p>
+   	 * The order of the original chunks is kept. A new chunk is written right before
+   	 * the first original chunk ranking after it, which puts iCCP before PLTE and IDAT
+   	 * and textual chunks right after the header chunks. Chunks ranking after all the
+   	 * original chunks are written right before IEND.
+   	 * 
+   	 * @param is InputStream for the original image
+   	 * @param os OutputStream for the new image
+   	 * @param newChunks chunks to insert
+   	 * @param removeTypes types of the original chunks to drop
+   	 * @param removeXMP whether or not to drop the original XMP iTXt chunk
+   	 * @throws IOException
+   	 */
+   	private static void rewriteChunks(InputStream is, OutputStream os, List<Chunk> newChunks, Set<ChunkType> removeTypes, boolean removeXMP) throws IOException {
+   		ChunkStream chunks = new ChunkStream(is);
+   		List<Chunk> pending = new ArrayList<Chunk>(newChunks);
+   		Collections.sort(pending);
+   		int next = 0;
+   		
+   		IOUtils.writeLongMM(os, SIGNATURE);
+   		
+   		while(chunks.nextChunk()) {
+   			ChunkType type = chunks.getChunkType();
+   			// Whatever is left goes before IEND, whatever its rank
+   			boolean end = (type == ChunkType.IEND);
+   			while(next < pending.size() && (end || pending.get(next).getChunkType().getRanking() < type.getRanking()))
+   				pending.get(next++).write(os);
+   			if(removeTypes.contains(type))
+   				continue; // Skipped by nextChunk()
+   			if(removeXMP && type == ChunkType.ITXT) {
+   				Chunk chunk = chunks.readChunk();
+   				if(!isXMP(chunk))
+   					chunk.write(os);
+   			} else
+   				chunks.copyChunk(os);
+   		}
+   		if(next < pending.size()) { // Truncated image, keep the new chunks anyway
+   			LOGGER.warn("PNG image has no IEND chunk, appending {} new chunk(s) at the end", pending.size() - next);
+   			while(next < pending.size())
+   				pending.get(next++).write(os);
+   		}
+   	}
+   	
    	public static void serializeChunks(List<Chunk> chunks, OutputStream os) throws IOException {
   		
   		Collections.sort(chunks);
@@ -26,22 +26,30 @@ package pixy.meta.tiff;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
 
 import pixy.meta.Metadata;
 import pixy.meta.MetadataType;
@@ -61,7 +69,9 @@ import pixy.meta.iptc.IPTC;
 import pixy.meta.iptc.IPTCDataSet;
 import pixy.meta.iptc.IPTCTag;
 import pixy.meta.xmp.XMP;
+import pixy.meta.xmp.XMPWriter;
 import pixy.image.jpeg.Marker;
+import pixy.image.jpeg.SOSScanner;
 import pixy.image.tiff.ASCIIField;
 import pixy.image.tiff.ByteField;
 import pixy.image.tiff.DoubleField;
@@ -74,12 +84,17 @@ import pixy.image.tiff.RationalField;
 import pixy.image.tiff.SRationalField;
 import pixy.image.tiff.ShortField;
 import pixy.image.tiff.Tag;
+import pixy.image.tiff.TagResolver;
 import pixy.image.tiff.TiffField;
 import pixy.image.tiff.TiffFieldEnum;
 import pixy.image.tiff.TiffTag;
 import pixy.image.tiff.UndefinedField;
 import pixy.image.tiff.TIFFImage;
+import pixy.io.AtomicFileRandomAccessOutputStream;
+import pixy.io.BufferPool;
 import pixy.io.IOUtils;
+import pixy.io.MappedFileRandomAccessInputStream;
+import pixy.io.RandomAccessFileOutputStream;
 import pixy.io.RandomAccessInputStream;
 import pixy.io.RandomAccessOutputStream;
 import pixy.io.ReadStrategy;
@@ -88,7 +103,6 @@ import pixy.io.ReadStrategyMM;
 import pixy.io.WriteStrategyII;
 import pixy.io.WriteStrategyMM;
 import pixy.string.StringUtils;
-import pixy.string.XMLUtils;
 import pixy.util.ArrayUtils;
 import pixy.util.MetadataUtils;
 
@@ -101,6 +115,23 @@ public class TIFFMeta {
 	// Obtain a logger instance
 	private static final Logger LOGGER = LoggerFactory.getLogger(TIFFMeta.class);
 	
+	// Runs the page tasks one after the other on the calling thread
+	private static final Executor CALLING_THREAD = new Executor() {
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+	
+	// Changes the IFD of the page to be updated in place
+	private interface PageEditor {
+		public void edit(IFD page, RandomAccessInputStream rin) throws IOException;
+	}
+	
+	// Writes a new TIFF from the input stream
+	private interface TIFFWriter {
+		public void write(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException;
+	}
+	
 	private static int copyHeader(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {		
 		rin.seek(STREAM_HEAD);
 		// First 2 bytes determine the byte order of the file, "MM" or "II"
@@ -252,52 +283,20 @@ public class TIFFMeta {
 	
 	private static short copyJPEGSOS(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException	{
 		int len = IOUtils.readUnsignedShortMM(rin);
-		byte buf[] = new byte[len - 2];
-		IOUtils.readFully(rin, buf);
-		IOUtils.writeShortMM(rout, Marker.SOS.getValue());
-		IOUtils.writeShortMM(rout, len);
-		rout.write(buf);		
-		// Actual image data follow.
-		int nextByte = 0;
-		short marker = 0;	
-		
-		while((nextByte = IOUtils.read(rin)) != -1)	{
-			rout.write(nextByte);
-			
-			if(nextByte == 0xff)
-			{
-				nextByte = IOUtils.read(rin);
-			    rout.write(nextByte);
-			    
-				if (nextByte == -1) {
-					throw new IOException("Premature end of SOS segment!");					
-				}								
-				
-				if (nextByte != 0x00) {
-					marker = (short)((0xff<<8)|nextByte);
-					
-					switch (Marker.fromShort(marker)) {										
-						case RST0:  
-						case RST1:
-						case RST2:
-						case RST3:
-						case RST4:
-						case RST5:
-						case RST6:
-						case RST7:
-							continue;
-						default:
-					}
-					break;
-				}
-			}
-		}
-		
-		if (nextByte == -1) {
-			throw new IOException("Premature end of SOS segment!");
+		BufferPool pool = BufferPool.getDefault();
+		// The header fits in the buffer used for the scan data
+		byte buf[] = pool.acquire(Math.max(len - 2, SOSScanner.DEFAULT_BUFFER_SIZE));
+		try {
+			IOUtils.readFully(rin, buf, 0, len - 2);
+			IOUtils.writeShortMM(rout, Marker.SOS.getValue());
+			IOUtils.writeShortMM(rout, len);
+			rout.write(buf, 0, len - 2);		
+			// Actual image data follow. The marker terminating the scan data
+			// is written by the caller.
+			return new SOSScanner(buf).copy(rin, rout);
+		} finally {
+			pool.release(buf);
 		}
-
-		return marker;
 	}
 	
 	/**
@@ -356,15 +355,21 @@ public class TIFFMeta {
 			// We are going to write the image data first
 			rout.seek(offset);
 		
-			// Copy image data from offset
-			for(int i = 0; i < off.length; i++) {
-				rin.seek(off[i]);
-				byte[] buf = new byte[counts[i]];
-				rin.readFully(buf);
-				rout.write(buf);
-				temp[i] = offset;
-				offset += buf.length;
+			// Copy image data from offset, strips or tiles which follow each other
+			// in the input are copied with a single transfer
+			long pos = offset;
+			for(int i = 0; i < off.length; ) {
+				long start = off[i]&0xffffffffL;
+				long len = 0;
+				do {
+					temp[i] = checkOffset(pos + len);
+					len += counts[i]&0xffffffffL;
+					i++;
+				} while(i < off.length && (off[i]&0xffffffffL) == start + len);
+				rin.copyTo(rout, start, len);
+				pos += len;
 			}
+			offset = checkOffset(pos);
 						
 			if(ifd.getField(TiffTag.STRIP_BYTE_COUNTS) != null)
 				stripOffSets = new LongField(TiffTag.STRIP_OFFSETS.getValue(), temp);
@@ -384,11 +389,8 @@ public class TIFFMeta {
 			TiffField<?> jpegIFByteCount = ifd.removeField(TiffTag.JPEG_INTERCHANGE_FORMAT_LENGTH);			
 			try {
 				if(jpegIFByteCount != null) {
-					rin.seek(jpegIFOffset.getDataAsLong()[0]);
-					byte[] bytes2Read = new byte[jpegIFByteCount.getDataAsLong()[0]];
-					rin.readFully(bytes2Read);
 					rout.seek(offset);
-					rout.write(bytes2Read);
+					rin.copyTo(rout, jpegIFOffset.getDataAsLong()[0], jpegIFByteCount.getDataAsLong()[0]);
 					ifd.addField(jpegIFByteCount);
 				} else {
 					long startOffset = rout.getStreamPointer();
@@ -427,6 +429,13 @@ public class TIFFMeta {
 		return (int)rout.getStreamPointer();	
 	}
 	
+	// Offsets are written as signed ints, larger images would wrap around
+	private static int checkOffset(long offset) throws IOException {
+		if(offset > Integer.MAX_VALUE)
+			throw new IOException("Image data beyond 2 GB are not supported: offset " + offset);
+		return (int)offset;
+	}
+	
 	// Copy a list of IFD and associated image data if any
 	private static int copyPages(List<IFD> list, int writeOffset, RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
 		// Write the first page data
@@ -457,7 +466,7 @@ public class TIFFMeta {
 		int offset = readHeader(rin);
 		// Read the IFDs into a list first
 		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
+		readIFDs(null, null, TiffTag.getTagResolver(), ifds, offset, rin);
 		
 		if(pageNumber < 0 || pageNumber >= ifds.size())
 			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
@@ -480,7 +489,7 @@ public class TIFFMeta {
 		int offset = readHeader(rin);
 		// Read the IFDs into a list first
 		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
+		readIFDs(null, null, TiffTag.getTagResolver(), ifds, offset, rin);
 		
 		if(pageNumber < 0 || pageNumber >= ifds.size())
 			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
@@ -624,6 +633,18 @@ public class TIFFMeta {
 		return totalBytes2Read;
 	}
 	
+	private static void addComments(IFD workingPage, List<String> comments) {
+		StringBuilder commentsBuilder = new StringBuilder();
+		
+		// ASCII field allows for multiple strings
+		for(String comment : comments) {
+			commentsBuilder.append(comment);
+			commentsBuilder.append('\0');
+		}
+		
+		workingPage.addField(new ASCIIField(TiffTag.IMAGE_DESCRIPTION.getValue(), commentsBuilder.toString()));
+	}
+	
 	public static void insertComments(List<String> comments, RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
 		insertComments(comments, 0, rin, rout);
 	}
@@ -632,22 +653,12 @@ public class TIFFMeta {
 		int offset = copyHeader(rin, rout);
 		// Read the IFDs into a list first
 		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
+		readIFDs(null, null, TiffTag.getTagResolver(), ifds, offset, rin);
 		
 		if(pageNumber < 0 || pageNumber >= ifds.size())
 			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
 		
-		IFD workingPage = ifds.get(pageNumber);
-
-		StringBuilder commentsBuilder = new StringBuilder();
-		
-		// ASCII field allows for multiple strings
-		for(String comment : comments) {
-			commentsBuilder.append(comment);
-			commentsBuilder.append('\0');
-		}
-		
-		workingPage.addField(new ASCIIField(TiffTag.IMAGE_DESCRIPTION.getValue(), commentsBuilder.toString()));
+		addComments(ifds.get(pageNumber), comments);
 		
 		offset = copyPages(ifds, offset, rin, rout);
 		int firstIFDOffset = ifds.get(0).getStartOffset();	
@@ -655,30 +666,19 @@ public class TIFFMeta {
 		writeToStream(rout, firstIFDOffset);	
 	}
 	
-	public static void insertExif(RandomAccessInputStream rin, RandomAccessOutputStream rout, Exif exif, boolean update) throws IOException {
-		insertExif(rin, rout, exif, 0, update);
-	}
-	
 	/**
-	 * Insert EXIF data with optional thumbnail IFD
-	 * 
-	 * @param rin input image stream
-	 * @param rout output image stream
-	 * @param exif EXIF wrapper instance
-	 * @param pageNumber page offset where to insert EXIF (zero based)
-	 * @param update True to keep the original data, otherwise false
-	 * @throws Exception
+	 * Inserts comments into a page of the TIFF file in place. Only the IFD of the page
+	 * is written again, at the end of the file, the image data are not copied.
 	 */
-	public static void insertExif(RandomAccessInputStream rin, RandomAccessOutputStream rout, Exif exif, int pageNumber, boolean update) throws IOException {
-		int offset = copyHeader(rin, rout);
-		// Read the IFDs into a list first
-		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
-		
-		if(pageNumber < 0 || pageNumber >= ifds.size())
-			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
-		
-		IFD imageIFD = ifds.get(pageNumber);
+	public static void insertComments(final List<String> comments, int pageNumber, File tiff) throws IOException {
+		updateInPlace(tiff, pageNumber, new PageEditor() {
+			public void edit(IFD page, RandomAccessInputStream rin) {
+				addComments(page, comments);
+			}
+		});
+	}
+	
+	private static void addExif(IFD imageIFD, Exif exif, boolean update) {
 		IFD exifSubIFD = imageIFD.getChild(TiffTag.EXIF_SUB_IFD);
 		IFD gpsSubIFD = imageIFD.getChild(TiffTag.GPS_SUB_IFD);
 		IFD newImageIFD = exif.getImageIFD();
@@ -714,6 +714,32 @@ public class TIFFMeta {
 			imageIFD.addField(new LongField(TiffTag.GPS_SUB_IFD.getValue(), new int[]{0})); // Place holder
 			imageIFD.addChild(TiffTag.GPS_SUB_IFD, newGpsSubIFD);		
 		}
+	}
+	
+	public static void insertExif(RandomAccessInputStream rin, RandomAccessOutputStream rout, Exif exif, boolean update) throws IOException {
+		insertExif(rin, rout, exif, 0, update);
+	}
+	
+	/**
+	 * Insert EXIF data with optional thumbnail IFD
+	 * 
+	 * @param rin input image stream
+	 * @param rout output image stream
+	 * @param exif EXIF wrapper instance
+	 * @param pageNumber page offset where to insert EXIF (zero based)
+	 * @param update True to keep the original data, otherwise false
+	 * @throws Exception
+	 */
+	public static void insertExif(RandomAccessInputStream rin, RandomAccessOutputStream rout, Exif exif, int pageNumber, boolean update) throws IOException {
+		int offset = copyHeader(rin, rout);
+		// Read the IFDs into a list first
+		List<IFD> ifds = new ArrayList<IFD>();
+		readIFDs(null, null, TiffTag.getTagResolver(), ifds, offset, rin);
+		
+		if(pageNumber < 0 || pageNumber >= ifds.size())
+			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
+		
+		addExif(ifds.get(pageNumber), exif, update);
 		
 		int writeOffset = FIRST_WRITE_OFFSET;
 		// Copy pages
@@ -723,6 +749,24 @@ public class TIFFMeta {
 		writeToStream(rout, firstIFDOffset);
 	}
 	
+	/**
+	 * Inserts EXIF data into a page of the TIFF file in place. Only the IFD of the page
+	 * and its sub IFDs are written again, at the end of the file, the image data are not copied.
+	 * 
+	 * @param tiff the TIFF file to update
+	 * @param exif EXIF wrapper instance
+	 * @param pageNumber page offset where to insert EXIF (zero based)
+	 * @param update True to keep the original data, otherwise false
+	 * @throws IOException
+	 */
+	public static void insertExif(File tiff, final Exif exif, int pageNumber, final boolean update) throws IOException {
+		updateInPlace(tiff, pageNumber, new PageEditor() {
+			public void edit(IFD page, RandomAccessInputStream rin) {
+				addExif(page, exif, update);
+			}
+		});
+	}
+	
 	public static void insertICCProfile(byte[] icc_profile, RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
 		insertICCProfile(icc_profile, 0, rin, rout);
 	}
@@ -740,7 +784,7 @@ public class TIFFMeta {
 		int offset = copyHeader(rin, rout);
 		// Read the IFDs into a list first
 		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
+		readIFDs(null, null, TiffTag.getTagResolver(), ifds, offset, rin);
 		
 		if(pageNumber < 0 || pageNumber >= ifds.size())
 			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
@@ -754,43 +798,7 @@ public class TIFFMeta {
 		writeToStream(rout, firstIFDOffset);	
 	}
 	
-	public static void insertIPTC(RandomAccessInputStream rin, RandomAccessOutputStream rout, Collection<IPTCDataSet> iptcs, boolean update) throws IOException {
-		insertIPTC(rin, rout, 0, iptcs, update);
-	}
-	
-	/**
-	 * Insert IPTC data into TIFF image. If the original TIFF image contains IPTC data, we either keep
-	 * or override them depending on the input parameter "update."
-	 * <p>
-	 * There is a possibility that IPTC data presents in more than one places such as a normal TIFF
-	 * tag, or buried inside a Photoshop IPTC-NAA Image Resource Block (IRB), or even in a XMP block.
-	 * Currently this method does the following thing: if no IPTC data was found from both Photoshop or 
-	 * normal IPTC tag, we insert the IPTC data with a normal IPTC tag. If IPTC data is found both as
-	 * a Photoshop tag and a normal IPTC tag, depending on the "update" parameter, we will either delete
-	 * the IPTC data from both places and insert the new IPTC data into the Photoshop tag or we will
-	 * synchronize the two sets of IPTC data, delete the original IPTC from both places and insert the
-	 * synchronized IPTC data along with the new IPTC data into the Photoshop tag. In both cases, we
-	 * will keep the other IRBs from the original Photoshop tag unchanged. 
-	 * 
-	 * @param rin RandomAccessInputStream for the original TIFF
-	 * @param rout RandomAccessOutputStream for the output TIFF with IPTC inserted
-	 * @param pageNumber page offset where to insert IPTC
-	 * @param iptcs A list of IPTCDataSet to insert into the TIFF image
-	 * @param update whether we want to keep the original IPTC data or override it
-	 *        completely new IPTC data set
-	 * @throws IOException
-	 */
-	public static void insertIPTC(RandomAccessInputStream rin, RandomAccessOutputStream rout, int pageNumber, Collection<IPTCDataSet> iptcs, boolean update) throws IOException {
-		int offset = copyHeader(rin, rout);
-		// Read the IFDs into a list first
-		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
-		
-		if(pageNumber < 0 || pageNumber >= ifds.size())
-			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
-		
-		IFD workingPage = ifds.get(pageNumber);
-	
+	private static void addIPTC(IFD workingPage, Collection<IPTCDataSet> iptcs, boolean update, boolean bigEndian) throws IOException {
 		ByteArrayOutputStream bout = new ByteArrayOutputStream();
 		
 		// See if we also have regular IPTC tag field
@@ -806,7 +814,7 @@ public class TIFFMeta {
 					if(f_iptc != null) {// We are going to synchronize the two IPTC data
 						byte[] data = null;
 						if(f_iptc.getType() == FieldType.LONG)
-							data = ArrayUtils.toByteArray(f_iptc.getDataAsLong(), rin.getEndian() == IOUtils.BIG_ENDIAN);
+							data = ArrayUtils.toByteArray(f_iptc.getDataAsLong(), bigEndian);
 						else
 							data = (byte[])f_iptc.getData();
 						copyIPTCDataSet(iptcs, data);
@@ -832,7 +840,7 @@ public class TIFFMeta {
 			if(f_iptc != null && update) {
 				byte[] data = null;
 				if(f_iptc.getType() == FieldType.LONG)
-					data = ArrayUtils.toByteArray(f_iptc.getDataAsLong(), rin.getEndian() == IOUtils.BIG_ENDIAN);
+					data = ArrayUtils.toByteArray(f_iptc.getDataAsLong(), bigEndian);
 				else
 					data = (byte[])f_iptc.getData();
 				copyIPTCDataSet(iptcs, data);
@@ -841,7 +849,45 @@ public class TIFFMeta {
 				dataset.write(bout);
 			}		
 			workingPage.addField(new UndefinedField(TiffTag.IPTC.getValue(), bout.toByteArray()));
-		}	
+		}
+	}
+	
+	public static void insertIPTC(RandomAccessInputStream rin, RandomAccessOutputStream rout, Collection<IPTCDataSet> iptcs, boolean update) throws IOException {
+		insertIPTC(rin, rout, 0, iptcs, update);
+	}
+	
+	/**
+	 * Insert IPTC data into TIFF image. If the original TIFF image contains IPTC data, we either keep
+	 * or override them depending on the input parameter "update."
+	 * <p>
+	 * There is a possibility that IPTC data presents in more than one places such as a normal TIFF
+	 * tag, or buried inside a Photoshop IPTC-NAA Image Resource Block (IRB), or even in a XMP block.
+	 * Currently this method does the following thing: if no IPTC data was found from both Photoshop or 
+	 * normal IPTC tag, we insert the IPTC data with a normal IPTC tag. If IPTC data is found both as
+	 * a Photoshop tag and a normal IPTC tag, depending on the "update" parameter, we will either delete
+	 * the IPTC data from both places and insert the new IPTC data into the Photoshop tag or we will
+	 * synchronize the two sets of IPTC data, delete the original IPTC from both places and insert the
+	 * synchronized IPTC data along with the new IPTC data into the Photoshop tag. In both cases, we
+	 * will keep the other IRBs from the original Photoshop tag unchanged. 
+	 * 
+	 * @param rin RandomAccessInputStream for the original TIFF
+	 * @param rout RandomAccessOutputStream for the output TIFF with IPTC inserted
+	 * @param pageNumber page offset where to insert IPTC
+	 * @param iptcs A list of IPTCDataSet to insert into the TIFF image
+	 * @param update whether we want to keep the original IPTC data or override it
+	 *        completely new IPTC data set
+	 * @throws IOException
+	 */
+	public static void insertIPTC(RandomAccessInputStream rin, RandomAccessOutputStream rout, int pageNumber, Collection<IPTCDataSet> iptcs, boolean update) throws IOException {
+		int offset = copyHeader(rin, rout);
+		// Read the IFDs into a list first
+		List<IFD> ifds = new ArrayList<IFD>();
+		readIFDs(null, null, TiffTag.getTagResolver(), ifds, offset, rin);
+		
+		if(pageNumber < 0 || pageNumber >= ifds.size())
+			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
+		
+		addIPTC(ifds.get(pageNumber), iptcs, update, rin.getEndian() == IOUtils.BIG_ENDIAN);
 		
 		offset = copyPages(ifds, offset, rin, rout);
 		int firstIFDOffset = ifds.get(0).getStartOffset();	
@@ -849,6 +895,19 @@ public class TIFFMeta {
 		writeToStream(rout, firstIFDOffset);	
 	}
 	
+	/**
+	 * Inserts IPTC data into a page of the TIFF file in place. Only the IFD of the page
+	 * is written again, at the end of the file, the image data are not copied. See {@link #insertIPTC(RandomAccessInputStream, RandomAccessOutputStream, int, Collection, boolean)}
+	 * for how the existing IPTC data are handled.
+	 */
+	public static void insertIPTC(File tiff, int pageNumber, final Collection<IPTCDataSet> iptcs, final boolean update) throws IOException {
+		updateInPlace(tiff, pageNumber, new PageEditor() {
+			public void edit(IFD page, RandomAccessInputStream rin) throws IOException {
+				addIPTC(page, iptcs, update, rin.getEndian() == IOUtils.BIG_ENDIAN);
+			}
+		});
+	}
+	
 	public static void insertIRB(RandomAccessInputStream rin, RandomAccessOutputStream rout, Collection<_8BIM> bims, boolean update) throws IOException {
 		insertIRB(rin, rout, 0, bims, update);
 	}
@@ -857,7 +916,7 @@ public class TIFFMeta {
 		int offset = copyHeader(rin, rout);
 		// Read the IFDs into a list first
 		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
+		readIFDs(null, null, TiffTag.getTagResolver(), ifds, offset, rin);
 	
 		if(pageNumber < 0 || pageNumber >= ifds.size())
 			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
@@ -932,7 +991,7 @@ public class TIFFMeta {
 		int offset = copyHeader(rin, rout);
 		// Read the IFDs into a list first
 		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
+		readIFDs(null, null, TiffTag.getTagResolver(), ifds, offset, rin);
 		
 		if(pageNumber < 0 || pageNumber >= ifds.size())
 			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
@@ -946,11 +1005,20 @@ public class TIFFMeta {
 		writeToStream(rout, firstIFDOffset);	
 	}
 	
+	/**
+	 * Inserts XMP data into a page of the TIFF file in place. Only the IFD of the page
+	 * is written again, at the end of the file, the image data are not copied.
+	 */
+	public static void insertXMP(final byte[] xmp, int pageNumber, File tiff) throws IOException {
+		updateInPlace(tiff, pageNumber, new PageEditor() {
+			public void edit(IFD page, RandomAccessInputStream rin) {
+				page.addField(new UndefinedField(TiffTag.XMP.getValue(), xmp));
+			}
+		});
+	}
+	
 	public static void insertXMP(String xmp, RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
-		Document doc = XMLUtils.createXML(xmp);
-		XMLUtils.insertLeadingPI(doc, "xpacket", "begin='' id='W5M0MpCehiHzreSzNTczkc9d'");
-		XMLUtils.insertTrailingPI(doc, "xpacket", "end='w'");
-		byte[] xmpBytes = XMLUtils.serializeToByteArray(doc);
+		byte[] xmpBytes = new XMPWriter().setPacketWrapper("w").write(xmp);
 		insertXMP(xmpBytes, rin, rout);
 	}
 	
@@ -960,27 +1028,22 @@ public class TIFFMeta {
 		
 		for(IFD currIFD : list) {
 			LOGGER.info("IFD #{}", id);
-			printIFD(currIFD, TiffTag.class, indent);
+			printIFD(currIFD, TiffTag.getTagResolver(), indent);
 			id++;
 		}
 	}
 	
 	public static void printIFD(IFD currIFD, Class<? extends Tag> tagClass, String indent) {
+		printIFD(currIFD, TagResolver.of(tagClass), indent);
+	}
+	
+	public static void printIFD(IFD currIFD, TagResolver tagResolver, String indent) {
 		StringBuilder ifd = new StringBuilder();
-		print(currIFD, tagClass, indent, ifd);
+		print(currIFD, tagResolver, indent, ifd);
 		LOGGER.info("\n{}", ifd);
 	}
 	
-	private static void print(IFD currIFD, Class<? extends Tag> tagClass, String indent, StringBuilder ifds) {
-		// Use reflection to invoke fromShort(short) method
-		Method method = null;
-		try {
-			method = tagClass.getDeclaredMethod("fromShort", short.class);
-		} catch (NoSuchMethodException e) {
-			e.printStackTrace();
-		} catch (SecurityException e) {
-			e.printStackTrace();
-		}
+	private static void print(IFD currIFD, TagResolver tagResolver, String indent, StringBuilder ifds) {
 		Collection<TiffField<?>> fields = currIFD.getFields();
 		int i = 0;
 		
@@ -993,15 +1056,7 @@ public class TIFFMeta {
 			if(tag == ExifTag.PADDING.getValue()) {
 				ftag = ExifTag.PADDING;
 			} else {
-				try {
-					ftag = (Tag)method.invoke(null, tag);
-				} catch (IllegalAccessException e) {
-					LOGGER.error("IllegalAcessException", e);
-				} catch (IllegalArgumentException e) {
-					LOGGER.error("IllegalArgumentException", e);
-				} catch (InvocationTargetException e) {
-					LOGGER.error("InvocationTargetException", e);
-				}
+				ftag = tagResolver.resolve(tag);
 			}
 			if (ftag == TiffTag.UNKNOWN) {
 				LOGGER.warn("Tag: {} {}{}{} {}", ftag, "[Value: 0x", Integer.toHexString(tag&0xffff), "]", "(Unknown)");
@@ -1032,7 +1087,7 @@ public class TIFFMeta {
 		if(children.get(TiffTag.EXIF_SUB_IFD) != null) {
 			ifds.append(indent + "--------- ");
 			ifds.append("<<Exif SubIFD starts>>\n");
-			print(children.get(TiffTag.EXIF_SUB_IFD), ExifTag.class, indent + "--------- ", ifds);
+			print(children.get(TiffTag.EXIF_SUB_IFD), ExifTag.getTagResolver(), indent + "--------- ", ifds);
 			ifds.append(indent + "--------- ");
 			ifds.append("<<Exif SubIFD ends>>\n");
 		}
@@ -1040,7 +1095,7 @@ public class TIFFMeta {
 		if(children.get(TiffTag.GPS_SUB_IFD) != null) {
 			ifds.append(indent + "--------- ");
 			ifds.append("<<GPS SubIFD starts>>\n");
-			print(children.get(TiffTag.GPS_SUB_IFD), GPSTag.class, indent + "--------- ", ifds);
+			print(children.get(TiffTag.GPS_SUB_IFD), GPSTag.getTagResolver(), indent + "--------- ", ifds);
 			ifds.append(indent + "--------- ");
 			ifds.append("<<GPS SubIFD ends>>\n");
 		}		
@@ -1078,140 +1133,71 @@ public class TIFFMeta {
 		return offset;
 	}
 	
-	private static int readIFD(IFD parent, Tag parentTag, Class<? extends Tag> tagClass, RandomAccessInputStream rin, List<IFD> list, int offset) throws IOException {	
-		// Use reflection to invoke fromShort(short) method
-		Method method = null;
-		try {
-			method = tagClass.getDeclaredMethod("fromShort", short.class);
-		} catch (NoSuchMethodException e) {
-			e.printStackTrace();
-		} catch (SecurityException e) {
-			e.printStackTrace();
-		}
+	private static int readIFD(IFD parent, Tag parentTag, TagResolver tagResolver, RandomAccessInputStream rin, List<IFD> list, int offset) throws IOException {	
 		IFD tiffIFD = new IFD();
+		ReadStrategy strategy = rin.getReadStrategy();
 		rin.seek(offset);
-		int no_of_fields = rin.readShort();
-		offset += 2;
-		
-		for (int i = 0; i < no_of_fields; i++) {
-			rin.seek(offset);
-			short tag = rin.readShort();
-			Tag ftag = TiffTag.UNKNOWN;
-			try {
-				ftag = (Tag)method.invoke(null, tag);
-			} catch (IllegalAccessException e) {
-				e.printStackTrace();
-			} catch (IllegalArgumentException e) {
-				e.printStackTrace();
-			} catch (InvocationTargetException e) {
-				e.printStackTrace();
-			}
-			offset += 2;
-			rin.seek(offset);
-			short type = rin.readShort();
-			FieldType ftype = FieldType.fromShort(type);
-			offset += 2;
-			rin.seek(offset);
-			int field_length = rin.readInt();
-			offset += 4;
+		int no_of_fields = rin.readUnsignedShort();
+		// Read all the 12 byte entries and the next IFD offset in one go
+		byte[] entries = new byte[no_of_fields*12 + 4];
+		rin.readFully(entries);
+		
+		for (int i = 0, pos = 0; i < no_of_fields; i++, pos += 12) {
+			short tag = strategy.readShort(entries, pos);
+			Tag ftag = tagResolver.resolve(tag);
+			FieldType ftype = FieldType.fromShort(strategy.readShort(entries, pos + 2));
+			int field_length = strategy.readInt(entries, pos + 4);
+			int valuePos = pos + 8;
 			////// Try to read actual data.
 			switch (ftype)
 			{
 				case BYTE:
 				case UNDEFINED:
-					byte[] data = new byte[field_length];
-					rin.seek(offset);
-					if(field_length <= 4) {						
-						rin.readFully(data, 0, field_length);					   
-					} else {
-						rin.seek(rin.readInt());
-						rin.readFully(data, 0, field_length);
-					}					
+					byte[] data = readFieldData(rin, entries, valuePos, field_length);
 					TiffField<byte[]> byteField = null;
 					if(ftype == FieldType.BYTE)
 						byteField = new ByteField(tag, data);
 					else
 						byteField = new UndefinedField(tag, data);
 					tiffIFD.addField(byteField);
-					offset += 4;					
 					break;
 				case ASCII:
-					data = new byte[field_length];
-					if(field_length <= 4) {
-						rin.seek(offset);
-						rin.readFully(data, 0, field_length);
-					}						
-					else {
-						rin.seek(offset);
-						rin.seek(rin.readInt());
-						rin.readFully(data, 0, field_length);
-					}
+					data = readFieldData(rin, entries, valuePos, field_length);
 					TiffField<String> ascIIField = new ASCIIField(tag, new String(data, "UTF-8"));
 					tiffIFD.addField(ascIIField);
-					offset += 4;	
 					break;
 				case SHORT:
+					data = readFieldData(rin, entries, valuePos, 2L*field_length);
 					short[] sdata = new short[field_length];
-					if(field_length == 1) {
-					  rin.seek(offset);
-					  sdata[0] = rin.readShort();
-					  offset += 4;
-					} else if (field_length == 2) {
-						rin.seek(offset);
-						sdata[0] = rin.readShort();
-						offset += 2;
-						rin.seek(offset);
-						sdata[1] = rin.readShort();
-						offset += 2;
-					} else {
-						rin.seek(offset);
-						int toOffset = rin.readInt();
-						offset += 4;
-						for (int j = 0; j  <field_length; j++){
-							rin.seek(toOffset);
-							sdata[j] = rin.readShort();
-							toOffset += 2;
-						}
-					}
+					for (int j = 0; j < field_length; j++)
+						sdata[j] = strategy.readShort(data, 2*j);
 					TiffField<short[]> shortField = new ShortField(tag, sdata);
 					tiffIFD.addField(shortField);
 					break;
 				case LONG:
-					int[] ldata = new int[field_length];
-					if(field_length == 1) {
-					  rin.seek(offset);
-					  ldata[0] = rin.readInt();
-					  offset += 4;
-					} else {
-						rin.seek(offset);
-						int toOffset = rin.readInt();
-						offset += 4;
-						for (int j=0;j<field_length; j++){
-							rin.seek(toOffset);
-							ldata[j] = rin.readInt();
-							toOffset += 4;
-						}
-					}
+					int[] ldata = readInts(rin, entries, valuePos, field_length);
 					TiffField<int[]> longField = new LongField(tag, ldata);
 					tiffIFD.addField(longField);
 					
-					if ((ftag == TiffTag.EXIF_SUB_IFD) && (ldata[0]!= 0)) {
+					if (ldata.length == 0) {
+						// Nothing to follow
+					} else if ((ftag == TiffTag.EXIF_SUB_IFD) && (ldata[0]!= 0)) {
 						try { // If something bad happens, we skip the sub IFD
-							readIFD(tiffIFD, TiffTag.EXIF_SUB_IFD, ExifTag.class, rin, null, ldata[0]);
+							readIFD(tiffIFD, TiffTag.EXIF_SUB_IFD, ExifTag.getTagResolver(), rin, null, ldata[0]);
 						} catch(Exception e) {
 							tiffIFD.removeField(TiffTag.EXIF_SUB_IFD);
 							e.printStackTrace();
 						}
 					} else if ((ftag == TiffTag.GPS_SUB_IFD) && (ldata[0] != 0)) {
 						try {
-							readIFD(tiffIFD, TiffTag.GPS_SUB_IFD, GPSTag.class, rin, null, ldata[0]);
+							readIFD(tiffIFD, TiffTag.GPS_SUB_IFD, GPSTag.getTagResolver(), rin, null, ldata[0]);
 						} catch(Exception e) {
 							tiffIFD.removeField(TiffTag.GPS_SUB_IFD);
 							e.printStackTrace();
 						}
 					} else if((ftag == ExifTag.EXIF_INTEROPERABILITY_OFFSET) && (ldata[0] != 0)) {
 						try {
-							readIFD(tiffIFD, ExifTag.EXIF_INTEROPERABILITY_OFFSET, InteropTag.class, rin, null, ldata[0]);
+							readIFD(tiffIFD, ExifTag.EXIF_INTEROPERABILITY_OFFSET, InteropTag.getTagResolver(), rin, null, ldata[0]);
 						} catch(Exception e) {
 							tiffIFD.removeField(ExifTag.EXIF_INTEROPERABILITY_OFFSET);
 							e.printStackTrace();
@@ -1219,7 +1205,7 @@ public class TIFFMeta {
 					} else if (ftag == TiffTag.SUB_IFDS) {						
 						for(int ifd = 0; ifd < ldata.length; ifd++) {
 							try {
-								readIFD(tiffIFD, TiffTag.SUB_IFDS, TiffTag.class, rin, null, ldata[0]);
+								readIFD(tiffIFD, TiffTag.SUB_IFDS, TiffTag.getTagResolver(), rin, null, ldata[0]);
 							} catch(Exception e) {
 								tiffIFD.removeField(TiffTag.SUB_IFDS);
 								e.printStackTrace();
@@ -1228,54 +1214,26 @@ public class TIFFMeta {
 					}				
 					break;
 				case FLOAT:
+					ldata = readInts(rin, entries, valuePos, field_length);
 					float[] fdata = new float[field_length];
-					if(field_length == 1) {
-					  rin.seek(offset);
-					  fdata[0] = rin.readFloat();
-					  offset += 4;
-					} else {
-						rin.seek(offset);
-						int toOffset = rin.readInt();
-						offset += 4;
-						for (int j=0;j<field_length; j++){
-							rin.seek(toOffset);
-							fdata[j] = rin.readFloat();
-							toOffset += 4;
-						}
-					}
+					for (int j = 0; j < field_length; j++)
+						fdata[j] = Float.intBitsToFloat(ldata[j]);
 					TiffField<float[]> floatField = new FloatField(tag, fdata);
 					tiffIFD.addField(floatField);
 					
 					break;
 				case DOUBLE:
+					data = readFieldData(rin, entries, valuePos, 8L*field_length);
 					double[] ddata = new double[field_length];
-					rin.seek(offset);
-					int toOffset = rin.readInt();
-					offset += 4;
-					for (int j=0;j<field_length; j++){
-						rin.seek(toOffset);
-						ddata[j] = rin.readDouble();
-						toOffset += 8;
-					}
+					for (int j = 0; j < field_length; j++)
+						ddata[j] = Double.longBitsToDouble(strategy.readLong(data, 8*j));
 					TiffField<double[]> doubleField = new DoubleField(tag, ddata);
 					tiffIFD.addField(doubleField);
 					
 					break;
 				case RATIONAL:
 				case SRATIONAL:
-					int len = 2*field_length;
-					ldata = new int[len];	
-					rin.seek(offset);
-					toOffset = rin.readInt();
-					offset += 4;					
-					for (int j=0;j<len; j+=2){
-						rin.seek(toOffset);
-						ldata[j] = rin.readInt();
-						toOffset += 4;
-						rin.seek(toOffset);
-						ldata[j+1] = rin.readInt();
-						toOffset += 4;
-					}
+					ldata = readInts(rin, entries, valuePos, 2L*field_length);
 					TiffField<int[]> rationalField = null;
 					if(ftype == FieldType.SRATIONAL) {
 						rationalField = new SRationalField(tag, ldata);
@@ -1286,30 +1244,15 @@ public class TIFFMeta {
 					
 					break;
 				case IFD:
-					ldata = new int[field_length];
-					if(field_length == 1) {
-					  rin.seek(offset);
-					  ldata[0] = rin.readInt();
-					  offset += 4;
-					} else {
-						rin.seek(offset);
-						toOffset = rin.readInt();
-						offset += 4;
-						for (int j=0;j<field_length; j++){
-							rin.seek(toOffset);
-							ldata[j] = rin.readInt();
-							toOffset += 4;
-						}
-					}
+					ldata = readInts(rin, entries, valuePos, field_length);
 					TiffField<int[]> ifdField = new IFDField(tag, ldata);
 					tiffIFD.addField(ifdField);
 					for(int ifd = 0; ifd < ldata.length; ifd++) {
-						readIFD(tiffIFD, TiffTag.SUB_IFDS, TiffTag.class, rin, null, ldata[0]);
+						readIFD(tiffIFD, TiffTag.SUB_IFDS, TiffTag.getTagResolver(), rin, null, ldata[0]);
 					}
 								
 					break;
 				default:
-					offset += 4;
 					break;					
 			}
 		}
@@ -1318,21 +1261,72 @@ public class TIFFMeta {
 			parent.addChild(parentTag, tiffIFD);
 		else // Otherwise, add to the main IFD list
 			list.add(tiffIFD);
-		rin.seek(offset);
 		
-		return rin.readInt();
+		return strategy.readInt(entries, no_of_fields*12);
 	}
 	
-	private static void readIFDs(IFD parent, Tag parentTag, Class<? extends Tag> tagClass, List<IFD> list, int offset, RandomAccessInputStream rin) throws IOException {
+	/**
+	 * Returns the value bytes of an IFD entry. Values of up to 4 bytes are
+	 * taken from the entry itself, larger ones are read from the offset the
+	 * entry points to with a single read.
+	 * 
+	 * @param entries IFD entries read in one go
+	 * @param valuePos position of the value or offset field of the entry
+	 * @param size number of bytes of the value
+	 */
+	private static byte[] readFieldData(RandomAccessInputStream rin, byte[] entries, int valuePos, long size) throws IOException {
+		if(size < 0 || size > Integer.MAX_VALUE)
+			throw new IOException("Invalid TIFF field size: " + size);
+		byte[] data = new byte[(int)size];
+		if(size <= 4) {
+			System.arraycopy(entries, valuePos, data, 0, (int)size);
+		} else {
+			rin.seek(rin.getReadStrategy().readInt(entries, valuePos)&0xffffffffL);
+			rin.readFully(data);
+		}
+		
+		return data;
+	}
+	
+	private static int[] readInts(RandomAccessInputStream rin, byte[] entries, int valuePos, long count) throws IOException {
+		byte[] data = readFieldData(rin, entries, valuePos, 4L*count);
+		ReadStrategy strategy = rin.getReadStrategy();
+		int[] ints = new int[(int)count];
+		for (int j = 0; j < ints.length; j++)
+			ints[j] = strategy.readInt(data, 4*j);
+		
+		return ints;
+	}
+	
+	private static void readIFDs(IFD parent, Tag parentTag, TagResolver tagResolver, List<IFD> list, int offset, RandomAccessInputStream rin) throws IOException {
 		// Read the IFDs into a list first	
 		while (offset != 0)	{
-			offset = readIFD(parent, parentTag, tagClass, rin, list, offset);
+			offset = readIFD(parent, parentTag, tagResolver, rin, list, offset);
 		}
 	}
 	
+	/**
+	 * Reads a single IFD with tags from the given tag family. This can be used to
+	 * read private IFDs such as maker notes with a custom TagResolver.
+	 * <p>
+	 * Sub IFDs are followed only for the standard TIFF and EXIF pointer tags.
+	 * 
+	 * @param rin RandomAccessInputStream with the read strategy already set
+	 * @param offset offset of the IFD
+	 * @param tagResolver TagResolver for the tags of the IFD
+	 * @return the IFD read
+	 * @throws IOException
+	 */
+	public static IFD readIFD(RandomAccessInputStream rin, int offset, TagResolver tagResolver) throws IOException {
+		List<IFD> list = new ArrayList<IFD>(1);
+		readIFD(null, null, tagResolver, rin, list, offset);
+		
+		return list.get(0);
+	}
+	
 	public static void readIFDs(List<IFD> list, RandomAccessInputStream rin) throws IOException {
 		int offset = readHeader(rin);
-		readIFDs(null, null, TiffTag.class, list, offset, rin);
+		readIFDs(null, null, TiffTag.getTagResolver(), list, offset, rin);
 	}
 	
 	public static Map<MetadataType, Metadata> readMetadata(RandomAccessInputStream rin) throws IOException {
@@ -1340,41 +1334,68 @@ public class TIFFMeta {
 	}
 	
 	public static Map<MetadataType, Metadata> readMetadata(RandomAccessInputStream rin, int pageNumber) throws IOException	{
-		Map<MetadataType, Metadata> metadataMap = new HashMap<MetadataType, Metadata>();
-
+		return readMetadata(rin, pageNumber, EnumSet.allOf(MetadataType.class));
+	}
+	
+	public static Map<MetadataType, Metadata> readMetadata(RandomAccessInputStream rin, Set<MetadataType> types) throws IOException {
+		return readMetadata(rin, 0, types);
+	}
+	
+	/**
+	 * Reads the requested types of metadata from the given page. IFDs after
+	 * the page are not read and Photoshop IRB is only parsed if IPTC is wanted.
+	 * 
+	 * @param rin RandomAccessInputStream for the input TIFF
+	 * @param pageNumber page to read metadata from
+	 * @param types MetadataTypes to read
+	 * @return a map of Metadata read from the page
+	 * @throws IOException
+	 */
+	public static Map<MetadataType, Metadata> readMetadata(RandomAccessInputStream rin, int pageNumber, Set<MetadataType> types) throws IOException	{
 		int offset = readHeader(rin);
 		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
+		// No need to read past the page we are after
+		while (offset != 0 && ifds.size() <= pageNumber) {
+			offset = readIFD(null, null, TiffTag.getTagResolver(), rin, ifds, offset);
+		}
 		
 		if(pageNumber < 0 || pageNumber >= ifds.size())
 			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
 		
-		IFD currIFD = ifds.get(pageNumber);
+		return readMetadata(ifds.get(pageNumber), rin.getEndian() == IOUtils.BIG_ENDIAN, types);
+	}
+	
+	// Collects the requested types of metadata from a page already read
+	private static Map<MetadataType, Metadata> readMetadata(IFD currIFD, boolean bigEndian, Set<MetadataType> types) throws IOException {
+		Map<MetadataType, Metadata> metadataMap = new HashMap<MetadataType, Metadata>();
 		TiffField<?> field = currIFD.getField(TiffTag.ICC_PROFILE); 
-		if(field != null) { // We have found ICC_Profile
+		if(field != null && types.contains(MetadataType.ICC_PROFILE)) { // We have found ICC_Profile
 			metadataMap.put(MetadataType.ICC_PROFILE, new ICCProfile((byte[])field.getData()));
 		}
 		field = currIFD.getField(TiffTag.XMP);
-		if(field != null) { // We have found XMP
+		if(field != null && types.contains(MetadataType.XMP)) { // We have found XMP
 			metadataMap.put(MetadataType.XMP, new TiffXMP((byte[])field.getData()));
 		}
 		field = currIFD.getField(TiffTag.PHOTOSHOP);
 		if(field != null) { // We have found Photoshop IRB
 			IRB irb = new IRB((byte[])field.getData());
-			metadataMap.put(MetadataType.PHOTOSHOP_IRB, irb);
-			_8BIM photoshop_8bim = irb.get8BIM(ImageResourceID.IPTC_NAA.getValue());
-			if(photoshop_8bim != null) { // If we have IPTC data inside Photoshop, keep it
-				IPTC iptc = new IPTC(photoshop_8bim.getData());
-				metadataMap.put(MetadataType.IPTC, iptc);
+			if(types.contains(MetadataType.PHOTOSHOP_IRB))
+				metadataMap.put(MetadataType.PHOTOSHOP_IRB, irb);
+			if(types.contains(MetadataType.IPTC)) {
+				_8BIM photoshop_8bim = irb.get8BIM(ImageResourceID.IPTC_NAA.getValue());
+				if(photoshop_8bim != null) { // If we have IPTC data inside Photoshop, keep it
+					IPTC iptc = new IPTC(photoshop_8bim.getData());
+					metadataMap.put(MetadataType.IPTC, iptc);
+				}
 			}
 		}
 		field = currIFD.getField(TiffTag.IPTC);
-		if(field != null) { // We have found IPTC data
+		if(field != null && types.contains(MetadataType.IPTC)) { // We have found IPTC data
 			IPTC iptc = (IPTC)(metadataMap.get(MetadataType.IPTC));
 			byte[] iptcData = null;
 			FieldType type = field.getType();
 			if(type == FieldType.LONG)
-				iptcData = ArrayUtils.toByteArray(field.getDataAsLong(), rin.getEndian() == IOUtils.BIG_ENDIAN);
+				iptcData = ArrayUtils.toByteArray(field.getDataAsLong(), bigEndian);
 			else
 				iptcData = (byte[])field.getData();
 			if(iptc != null) // If we have IPTC data from IRB, consolidate it with the current data
@@ -1382,17 +1403,16 @@ public class TIFFMeta {
 			metadataMap.put(MetadataType.IPTC, new IPTC(iptcData));
 		}		
 		field = currIFD.getField(TiffTag.EXIF_SUB_IFD);
-		if(field != null) { // We have found EXIF SubIFD
+		if(field != null && types.contains(MetadataType.EXIF)) { // We have found EXIF SubIFD
 			metadataMap.put(MetadataType.EXIF, new TiffExif(currIFD));
 		}
 		field = currIFD.getField(TiffTag.IMAGE_SOURCE_DATA);
-		if(field != null) {
-			boolean bigEndian = (rin.getEndian() == IOUtils.BIG_ENDIAN);
+		if(field != null && types.contains(MetadataType.PHOTOSHOP_DDB)) {
 			ReadStrategy readStrategy = bigEndian?ReadStrategyMM.getInstance():ReadStrategyII.getInstance();
 			metadataMap.put(MetadataType.PHOTOSHOP_DDB, new DDB((byte[])field.getData(), readStrategy));
 		}
 		field = currIFD.getField(TiffTag.IMAGE_DESCRIPTION);
-		if(field != null) { // We have Comment
+		if(field != null && types.contains(MetadataType.COMMENT)) { // We have Comment
 			Comments comments = new pixy.meta.image.Comments();
 			comments.addComment(field.getDataAsString());
 			metadataMap.put(MetadataType.COMMENT, comments);
@@ -1401,6 +1421,154 @@ public class TIFFMeta {
 		return metadataMap;
 	}
 	
+	/**
+	 * Reads the requested types of metadata from all the pages. The IFD chain
+	 * is parsed only once.
+	 * 
+	 * @param rin RandomAccessInputStream for the input TIFF
+	 * @param types MetadataTypes to read
+	 * @return a list with a map of Metadata for each page in page order
+	 * @throws IOException
+	 */
+	public static List<Map<MetadataType, Metadata>> readPageMetadata(RandomAccessInputStream rin, Set<MetadataType> types) throws IOException {
+		List<IFD> ifds = new ArrayList<IFD>();
+		readIFDs(ifds, rin);
+		boolean bigEndian = (rin.getEndian() == IOUtils.BIG_ENDIAN);
+		List<Map<MetadataType, Metadata>> pages = new ArrayList<Map<MetadataType, Metadata>>(ifds.size());
+		for(IFD page : ifds)
+			pages.add(readMetadata(page, bigEndian, types));
+		
+		return pages;
+	}
+	
+	/**
+	 * Reads the requested types of metadata from all the pages one after the
+	 * other on the calling thread. Use {@link #readPageMetadata(File, Set, Executor)}
+	 * with an executor of your own to read the pages in parallel.
+	 * 
+	 * @param tiff the input TIFF file
+	 * @param types MetadataTypes to read
+	 * @return a list with a map of Metadata for each page in page order
+	 * @throws IOException
+	 */
+	public static List<Map<MetadataType, Metadata>> readPageMetadata(File tiff, Set<MetadataType> types) throws IOException {
+		return readPageMetadata(tiff, types, CALLING_THREAD);
+	}
+	
+	/**
+	 * Reads the requested types of metadata from all the pages in parallel.
+	 * <p>
+	 * The file is mapped once and only the page offsets are read up front.
+	 * Each page, its EXIF, GPS and interoperability sub IFDs included, is then
+	 * read by a task of its own through a duplicate of the mapped stream, and
+	 * the task also decodes the page's Metadata so the maps returned are ready
+	 * to use. This pays off for documents with many pages and large XMP or
+	 * IPTC per page.
+	 * <p>
+	 * The calling thread blocks until all the pages are read, so the executor
+	 * must not depend on it to make progress. Don't pass a pool the caller
+	 * itself runs on unless the pool has threads to spare.
+	 * 
+	 * @param tiff the input TIFF file
+	 * @param types MetadataTypes to read
+	 * @param executor Executor to run the page tasks
+	 * @return a list with a map of Metadata for each page in page order
+	 * @throws IOException
+	 */
+	public static List<Map<MetadataType, Metadata>> readPageMetadata(File tiff, Set<MetadataType> types, Executor executor) throws IOException {
+		MappedFileRandomAccessInputStream rin = new MappedFileRandomAccessInputStream(tiff);
+		List<FutureTask<Map<MetadataType, Metadata>>> tasks = new ArrayList<FutureTask<Map<MetadataType, Metadata>>>();
+		List<PageReader> readers = new ArrayList<PageReader>();
+		try {
+			int offset = readHeader(rin);
+			boolean bigEndian = (rin.getEndian() == IOUtils.BIG_ENDIAN);
+			// Only walk the chain here, the pages themselves are read by the tasks
+			while(offset != 0) {
+				// The duplicate is taken here, while the mapping is certainly open
+				PageReader reader = new PageReader(rin.duplicate(), offset, bigEndian, types);
+				readers.add(reader);
+				FutureTask<Map<MetadataType, Metadata>> task = new FutureTask<Map<MetadataType, Metadata>>(reader);
+				tasks.add(task);
+				executor.execute(task);
+				rin.seek(nextIFDPointer(rin, offset));
+				offset = rin.readInt();
+			}
+			
+			List<Map<MetadataType, Metadata>> pages = new ArrayList<Map<MetadataType, Metadata>>(tasks.size());
+			for(FutureTask<Map<MetadataType, Metadata>> task : tasks)
+				pages.add(getPage(task));
+			
+			return pages;
+		} finally {
+			// Nothing left to wait for after a failure. Tasks which haven't started
+			// won't, their duplicates are closed here. Running tasks close their own,
+			// the mapping is released when the last duplicate is closed.
+			for(FutureTask<Map<MetadataType, Metadata>> task : tasks)
+				task.cancel(false);
+			for(PageReader reader : readers)
+				reader.discard();
+			rin.close();
+		}
+	}
+	
+	/*
+	 * Reads one page through its own duplicate of the mapped stream. Either the
+	 * task or, if it never gets to run, readPageMetadata closes the duplicate.
+	 */
+	private static final class PageReader implements Callable<Map<MetadataType, Metadata>> {
+		private final RandomAccessInputStream pageIn;
+		private final int pageOffset;
+		private final boolean bigEndian;
+		private final Set<MetadataType> types;
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		
+		PageReader(RandomAccessInputStream pageIn, int pageOffset, boolean bigEndian, Set<MetadataType> types) {
+			this.pageIn = pageIn;
+			this.pageOffset = pageOffset;
+			this.bigEndian = bigEndian;
+			this.types = types;
+		}
+		
+		public Map<MetadataType, Metadata> call() throws IOException {
+			if(!claimed.compareAndSet(false, true))
+				throw new CancellationException();
+			try {
+				List<IFD> list = new ArrayList<IFD>(1);
+				readIFD(null, null, TiffTag.getTagResolver(), pageIn, list, pageOffset);
+				Map<MetadataType, Metadata> metadataMap = readMetadata(list.get(0), bigEndian, types);
+				for(Metadata metadata : metadataMap.values())
+					metadata.ensureDataRead();
+				return metadataMap;
+			} finally {
+				pageIn.close();
+			}
+		}
+		
+		// Closes the duplicate unless the task has taken it
+		void discard() throws IOException {
+			if(claimed.compareAndSet(false, true))
+				pageIn.close();
+		}
+	}
+	
+	private static Map<MetadataType, Metadata> getPage(FutureTask<Map<MetadataType, Metadata>> task) throws IOException {
+		try {
+			return task.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading TIFF pages");
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if(cause instanceof Error)
+				throw (Error)cause;
+			throw new IOException(cause);
+		}
+	}
+	
 	public static void removeMetadata(int pageNumber, RandomAccessInputStream rin, RandomAccessOutputStream rout, MetadataType ... metadataTypes) throws IOException {
 		removeMetadata(new HashSet<MetadataType>(Arrays.asList(metadataTypes)), pageNumber, rin, rout);
 	}
@@ -1409,6 +1577,18 @@ public class TIFFMeta {
 		removeMetadata(0, rin, rout, metadataTypes);
 	}
 	
+	/**
+	 * Writes the TIFF without the given types of metadata straight into the output file.
+	 * The output file is replaced only once the new TIFF is complete.
+	 */
+	public static void removeMetadata(File input, File output, final MetadataType ... metadataTypes) throws IOException {
+		writeToFile(input, output, new TIFFWriter() {
+			public void write(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
+				removeMetadata(rin, rout, metadataTypes);
+			}
+		});
+	}
+	
 	/**
 	 * Remove meta data from TIFF image
 	 * 
@@ -1421,7 +1601,7 @@ public class TIFFMeta {
 		int offset = copyHeader(rin, rout);
 		// Read the IFDs into a list first
 		List<IFD> ifds = new ArrayList<IFD>();
-		readIFDs(null, null, TiffTag.class, ifds, offset, rin);
+		readIFDs(null, null, TiffTag.getTagResolver(), ifds, offset, rin);
 	
 		if(pageNumber < 0 || pageNumber >= ifds.size())
 			throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
@@ -1514,7 +1694,7 @@ public class TIFFMeta {
 		int offset = copyHeader(rin, rout);
 		
 		// Step 1: read the IFDs into a list first
-		readIFDs(null, null, TiffTag.class, list, offset, rin);		
+		readIFDs(null, null, TiffTag.getTagResolver(), list, offset, rin);		
 		// Step 2: remove pages from a multiple page TIFF
 		int pagesRetained = list.size();
 		List<IFD> newList = new ArrayList<IFD>();
@@ -1545,13 +1725,30 @@ public class TIFFMeta {
 		return pagesRetained;
 	}
 	
+	/**
+	 * Writes the given pages of the TIFF straight into the output file.
+	 * The output file is replaced only once the new TIFF is complete.
+	 * 
+	 * @return number of pages retained
+	 */
+	public static int retainPages(File input, File output, final int... pages) throws IOException {
+		final int[] pagesRetained = new int[1];
+		writeToFile(input, output, new TIFFWriter() {
+			public void write(RandomAccessInputStream rin, RandomAccessOutputStream rout) throws IOException {
+				pagesRetained[0] = retainPages(rin, rout, pages);
+			}
+		});
+		
+		return pagesRetained[0];
+	}
+	
 	// Return number of pages retained
 	public static int retainPages(RandomAccessInputStream rin, RandomAccessOutputStream rout, int... pages) throws IOException {
 		List<IFD> list = new ArrayList<IFD>();
 	  
 		int offset = copyHeader(rin, rout);
 		// Step 1: read the IFDs into a list first
-		readIFDs(null, null, TiffTag.class, list, offset, rin);		
+		readIFDs(null, null, TiffTag.getTagResolver(), list, offset, rin);		
 		// Step 2: remove pages from a multiple page TIFF
 		int pagesRetained = list.size();
 		List<IFD> newList = new ArrayList<IFD>();
@@ -1581,6 +1778,176 @@ public class TIFFMeta {
 		return pagesRetained;
 	}
 	
+	/**
+	 * Updates the IFD of one page of a TIFF file without rewriting the file.
+	 * <p>
+	 * The changed IFD, its sub IFDs and the out-of-line values of new or changed
+	 * fields are appended to the end of the file and the pointer to the old IFD,
+	 * either in the header or in the previous IFD, is then set to the new one.
+	 * Fields the editor leaves alone keep pointing to their values where they are,
+	 * as do the image data and the other pages, so the amount of I/O only depends
+	 * on the size of the change. The old IFD and any values replaced stay in the
+	 * file as unreferenced bytes.
+	 * <p>
+	 * The pointer is patched last, so until then the file still reads as the
+	 * original one if the update is interrupted.
+	 * 
+	 * @param tiff the TIFF file to update
+	 * @param pageNumber zero based page to update
+	 * @param editor changes the IFD of the page
+	 * @throws IOException
+	 */
+	private static void updateInPlace(File tiff, int pageNumber, PageEditor editor) throws IOException {
+		List<IFD> ifds = new ArrayList<IFD>();
+		// Where the offset of the IFD to update is stored
+		long pointerPos = OFFSET_TO_WRITE_FIRST_IFD_OFFSET;
+		int nextIFDOffset;
+		short endian;
+		Map<TiffField<?>, Integer> valueOffsets = new IdentityHashMap<TiffField<?>, Integer>();
+		
+		RandomAccessInputStream rin = new MappedFileRandomAccessInputStream(tiff);
+		try {
+			int offset = readHeader(rin);
+			readIFDs(null, null, TiffTag.getTagResolver(), ifds, offset, rin);
+			
+			if(pageNumber < 0 || pageNumber >= ifds.size())
+				throw new IllegalArgumentException("pageNumber " + pageNumber + " out of bounds: 0 - " + (ifds.size() - 1));
+			
+			// Walk the IFD chain to the page, the next IFD offset follows the 12 byte entries
+			for(int i = 0; i <= pageNumber; i++) {
+				if(i > 0) pointerPos = nextIFDPointer(rin, offset);
+				rin.seek(pointerPos);
+				offset = rin.readInt();
+			}
+			rin.seek(nextIFDPointer(rin, offset));
+			nextIFDOffset = rin.readInt();
+			endian = rin.getEndian();
+			// Taken before the edit, fields replaced by the editor are not in the map
+			readValueOffsets(ifds.get(pageNumber), offset, rin, valueOffsets);
+			
+			editor.edit(ifds.get(pageNumber), rin);
+		} finally {
+			rin.close();
+		}
+		
+		RandomAccessFileOutputStream rout = new RandomAccessFileOutputStream(tiff);
+		try {
+			if(endian == IOUtils.BIG_ENDIAN)
+				rout.setWriteStrategy(WriteStrategyMM.getInstance());
+			else
+				rout.setWriteStrategy(WriteStrategyII.getInstance());
+			// IFDs have to begin on a word boundary
+			long writeOffset = (rout.getLength() + 1) & ~1L;
+			if(writeOffset > Integer.MAX_VALUE)
+				throw new IOException("TIFF file too large to be updated in place");
+			IFD page = ifds.get(pageNumber);
+			page.write(rout, (int)writeOffset, valueOffsets);
+			page.setNextIFDOffset(rout, nextIFDOffset);
+			rout.sync();
+			// Now link the new IFD in place of the old one
+			rout.seek(pointerPos);
+			rout.writeInt((int)writeOffset);
+		} finally {
+			rout.close();
+		}
+	}
+	
+	/*
+	 * Maps the fields of the IFD at offset and of its sub IFDs to the offsets of their
+	 * values, for those values which don't fit in the entry. Fields pointing to sub IFDs
+	 * are left out as they are updated when the sub IFDs are written.
+	 */
+	private static void readValueOffsets(IFD ifd, int offset, RandomAccessInputStream rin, Map<TiffField<?>, Integer> valueOffsets) throws IOException {
+		Map<Short, TiffField<?>> fields = new HashMap<Short, TiffField<?>>();
+		for(TiffField<?> field : ifd.getFields())
+			fields.put(field.getTag(), field);
+		for(Tag tag : ifd.getChildren().keySet())
+			fields.remove(tag.getValue());
+		
+		ReadStrategy strategy = rin.getReadStrategy();
+		rin.seek(offset);
+		byte[] entries = new byte[rin.readUnsignedShort()*12];
+		rin.readFully(entries);
+		
+		for(int pos = 0; pos < entries.length; pos += 12) {
+			TiffField<?> field = fields.get(strategy.readShort(entries, pos));
+			if(field == null) continue;
+			short type = strategy.readShort(entries, pos + 2);
+			int count = strategy.readInt(entries, pos + 4);
+			// Only reuse the value if the field would be written the same way
+			if(field.getType().getValue() == type && field.getLength() == count && getValueSize(type, count) > 4)
+				valueOffsets.put(field, strategy.readInt(entries, pos + 8));
+		}
+		
+		for(Map.Entry<Tag, IFD> child : ifd.getChildren().entrySet()) {
+			TiffField<?> pointer = ifd.getField(child.getKey());
+			if(pointer != null)
+				readValueOffsets(child.getValue(), pointer.getDataAsLong()[0], rin, valueOffsets);
+		}
+	}
+	
+	// Size in bytes of count values of the field type or -1 if the type is unknown
+	private static long getValueSize(short type, int count) {
+		long n = count&0xffffffffL;
+		switch(FieldType.fromShort(type)) {
+			case BYTE:
+			case ASCII:
+			case SBYTE:
+			case UNDEFINED:
+				return n;
+			case SHORT:
+			case SSHORT:
+				return 2*n;
+			case LONG:
+			case SLONG:
+			case FLOAT:
+			case IFD:
+				return 4*n;
+			case RATIONAL:
+			case SRATIONAL:
+			case DOUBLE:
+				return 8*n;
+			default:
+				return -1;
+		}
+	}
+	
+	/**
+	 * Writes a new TIFF into a temporary file next to the output file and renames it
+	 * to the output file once it is complete. The input file is mapped and the output
+	 * is written to the temporary file directly, so the image data are copied once
+	 * from file to file without going through a cache.
+	 * 
+	 * @param input the TIFF file to read
+	 * @param output the file to write, replaced if it exists. It can't be the input file,
+	 *        use the methods updating the file in place for that.
+	 * @param writer writes the new TIFF
+	 * @throws IOException
+	 */
+	private static void writeToFile(File input, File output, TIFFWriter writer) throws IOException {
+		if(output.exists() && Files.isSameFile(input.toPath(), output.toPath()))
+			throw new IllegalArgumentException("Output would overwrite the input image " + input);
+		RandomAccessInputStream rin = new MappedFileRandomAccessInputStream(input);
+		try {
+			AtomicFileRandomAccessOutputStream rout = new AtomicFileRandomAccessOutputStream(output);
+			try {
+				writer.write(rin, rout);
+				rout.commit();
+			} finally {
+				rout.close();
+			}
+		} finally {
+			rin.close();
+		}
+	}
+	
+	// Returns the position of the next IFD offset of the IFD at the given offset
+	private static long nextIFDPointer(RandomAccessInputStream rin, int offset) throws IOException {
+		rin.seek(offset&0xffffffffL);
+		
+		return (offset&0xffffffffL) + 2 + 12L*rin.readUnsignedShort();
+	}
+	
 	public static void write(TIFFImage tiffImage, RandomAccessOutputStream rout) throws IOException {
 		RandomAccessInputStream rin = tiffImage.getInputStream();
 		int offset = writeHeader(rout);
@@ -22,8 +22,10 @@ package pixy.meta.xmp;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
 import org.w3c.dom.CDATASection;
 import org.w3c.dom.Comment;
@@ -32,7 +34,6 @@ import org.w3c.dom.DocumentType;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.w3c.dom.ProcessingInstruction;
 import org.w3c.dom.Text;
 
@@ -42,6 +43,7 @@ import pixy.meta.MetadataType;
 import pixy.string.XMLUtils;
 
 public abstract class XMP extends Metadata {
+	public static final String XMP_NOTE_NS = "http://ns.adobe.com/xmp/note/";
 	// Fields
 	private Document xmpDocument;
 	private Document extendedXmpDocument;
@@ -49,6 +51,7 @@ public abstract class XMP extends Metadata {
 	private Document mergedXmpDocument;
 	private boolean hasExtendedXmp;
 	private byte[] extendedXmpData;
+	private List<XMPProperty> properties;
 	
 	private String xmp;
 	
@@ -72,7 +75,7 @@ public abstract class XMP extends Metadata {
 		this.xmp = xmp;
 		if(extendedXmp != null) { // We have ExtendedXMP
 			try {
-				setExtendedXMPData(XMLUtils.serializeToByteArray(XMLUtils.createXML(extendedXmp)));
+				setExtendedXMPData(new XMPWriter().write(extendedXmp));
 			} catch (IOException e) {				
 				e.printStackTrace();
 			}
@@ -146,24 +149,52 @@ public abstract class XMP extends Metadata {
 		}
 	}
 
+	/**
+	 * @return the XMP, serialized from its DOM if one has been handed out and
+	 *         merged with the extended XMP if there is one
+	 * @throws RuntimeException if the XMP cannot be serialized
+	 */
 	public byte[] getData() {
-		byte[] data = super.getData();
-		if(data != null && !hasExtendedXmp)
-			return data;
 		try {
-			return XMLUtils.serializeToByteArray(getMergedDocument());
+			byte[] data = (xmpDocument != null)? XMLUtils.serializeToByteArray(xmpDocument) : super.getData();
+			if(data != null && !hasExtendedXmp)
+				return data;
+			XMPWriter writer = new XMPWriter();
+			if(hasExtendedXmp) // Merge with the GUID from the standard XMP removed
+				writer.removeProperty(XMP_NOTE_NS, "HasExtendedXMP").merge(getExtendedXmpData());
+			return (data != null)? writer.write(data) : writer.write(xmp);
 		} catch (IOException e) {
-			return null;
+			throw new RuntimeException("Unable to serialize XMP", e);
 		}
 	}
 	
+	/**
+	 * @return the extended XMP, serialized from its DOM if {@link #getExtendedXmpDocument()}
+	 *         has been called, or null if there is none
+	 * @throws RuntimeException if the extended XMP DOM cannot be serialized
+	 */
 	public byte[] getExtendedXmpData() {
+		if(extendedXmpDocument != null) {
+			try {
+				return XMLUtils.serializeToByteArray(extendedXmpDocument);
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to serialize extended XMP", e);
+			}
+		}
 		return extendedXmpData;
 	}
 	
+	/**
+	 * Returns a DOM of the extended XMP. The DOM is only built on the first call,
+	 * from then on it replaces the extended XMP data, so changes made to it are
+	 * written back to the image.
+	 */
 	public Document getExtendedXmpDocument() {
-		if(hasExtendedXmp && extendedXmpDocument == null)
+		if(hasExtendedXmp && extendedXmpDocument == null) {
 			extendedXmpDocument = XMLUtils.createXML(extendedXmpData);
+			mergedXmpDocument = null;
+			properties = null;
+		}
 
 		return extendedXmpDocument;
 	}
@@ -171,38 +202,89 @@ public abstract class XMP extends Metadata {
 	/**
 	 * Merge the standard XMP and the extended XMP DOM
 	 * <p>
-	 * This is a very expensive operation, avoid if possible
+	 * This is a very expensive operation, avoid if possible. Use {@link #getProperties()}
+	 * to look up values. The merged Document is a snapshot, changes made to it are
+	 * not written back to the image.
 	 * 
 	 * @return a merged Document for the entire XMP data with the GUID from the standard XMP document removed
 	 */
 	public Document getMergedDocument() {
-		if(mergedXmpDocument != null)
-			return mergedXmpDocument;
-		else if(getExtendedXmpDocument() != null) { // Merge document
-			mergedXmpDocument = XMLUtils.createDocumentNode();
-			Document rootDoc = getXmpDocument();
-			NodeList children = rootDoc.getChildNodes();
-			for(int i = 0; i< children.getLength(); i++) {
-				Node importedNode = mergedXmpDocument.importNode(children.item(i), true);
-				mergedXmpDocument.appendChild(importedNode);
+		if(mergedXmpDocument == null) {
+			if(hasExtendedXmp)
+				mergedXmpDocument = XMLUtils.createXML(getData());
+			else
+				return getXmpDocument();
+		}
+		
+		return mergedXmpDocument;
+	}
+	
+	/**
+	 * Returns the value of the first property with the path from the standard
+	 * and the extended XMP. See {@link XMPProperty} for the path syntax.
+	 * 
+	 * @param path property path with the prefixes used in the packet such as "xmp:CreatorTool"
+	 * @return the property value or null if there is no such property
+	 */
+	public String getPropertyValue(String path) throws IOException {
+		for(XMPProperty property : getProperties()) {
+			if(property.getPath().equals(path))
+				return property.getValue();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Returns the properties of the standard and the extended XMP in document order.
+	 * <p>
+	 * The properties are parsed straight from the packet without building a DOM.
+	 * Once a DOM has been handed out, they are read from the DOM as it is now.
+	 * The GUID linking the standard XMP to the extended XMP is not included.
+	 * 
+	 * @return an unmodifiable list of the properties
+	 */
+	public List<XMPProperty> getProperties() throws IOException {
+		if(properties != null)
+			return properties;
+		List<XMPProperty> list;
+		if(xmpDocument != null)
+			list = XMPReader.readProperties(XMLUtils.serializeToByteArray(xmpDocument));
+		else
+			list = (xmp != null)? XMPReader.readProperties(xmp) : XMPReader.readProperties(data);
+		if(hasExtendedXmp) {
+			List<XMPProperty> merged = new ArrayList<XMPProperty>(list.size());
+			for(XMPProperty property : list) {
+				if(!XMP_NOTE_NS.equals(property.getNamespace()) || !property.getPath().endsWith(":HasExtendedXMP"))
+					merged.add(property);
 			}
-			// Remove GUID from the standard XMP
-			XMLUtils.removeAttribute(mergedXmpDocument, "rdf:Description", "xmpNote:HasExtendedXMP");
-			// Copy all the children of rdf:RDF element
-			NodeList list = extendedXmpDocument.getElementsByTagName("rdf:RDF").item(0).getChildNodes();
-			Element rdf = (Element)(mergedXmpDocument.getElementsByTagName("rdf:RDF").item(0));
-		  	for(int i = 0; i < list.getLength(); i++) {
-	    		Node curr = list.item(i);
-	    		Node newNode = mergedXmpDocument.importNode(curr, true);
-    			rdf.appendChild(newNode);
-	    	}
-	    	return mergedXmpDocument;
-		} else
-			return getXmpDocument();
+			merged.addAll(XMPReader.readProperties(getExtendedXmpData()));
+			list = merged;
+		}
+		list = Collections.unmodifiableList(list);
+		// A DOM may still change, only properties read from the packets are kept
+		if(xmpDocument == null && extendedXmpDocument == null)
+			properties = list;
+		
+		return list;
 	}
 	
+	/**
+	 * Returns a DOM of the standard XMP. The DOM is only built on the first call,
+	 * from then on it replaces the XMP data, so changes made to it are written
+	 * back to the image.
+	 */
 	public Document getXmpDocument() {
-		ensureDataRead();		
+		ensureDataRead();
+		if(xmpDocument == null) {
+			if(xmp != null)
+				xmpDocument = XMLUtils.createXML(xmp);
+			else if(data != null)
+				xmpDocument = XMLUtils.createXML(data);
+			mergedXmpDocument = null;
+			properties = null;
+		}
+		
 		return xmpDocument;
 	}
 	
@@ -219,20 +301,34 @@ public abstract class XMP extends Metadata {
 		return Collections.unmodifiableCollection(dummy.getMetadataEntries()).iterator();
 	}
 	
+	/**
+	 * Only marks the XMP as read. Parsing is deferred to {@link #getProperties()}
+	 * and the DOM views, so a malformed packet is not rejected here: it is
+	 * reported when one of those first parses it, and {@link #getProperties()}
+	 * logs a warning and keeps the properties read before the error.
+	 */
 	public void read() throws IOException {
-		if(!isDataRead) {
-			if(xmp != null)
-				xmpDocument = XMLUtils.createXML(xmp);
-			else if(data != null)
-				xmpDocument = XMLUtils.createXML(data);
-			
-			isDataRead = true;
-		}
+		isDataRead = true;
 	}
 	
 	public void setExtendedXMPData(byte[] extendedXmpData) {
 		this.extendedXmpData = extendedXmpData;
 		hasExtendedXmp = true;
+		extendedXmpDocument = null;
+		mergedXmpDocument = null;
+		properties = null;
+	}
+	
+	/**
+	 * Writes the standard XMP, or its DOM if one has been handed out, through the writer.
+	 */
+	protected void writeXmp(XMPWriter writer, OutputStream os) throws IOException {
+		if(xmpDocument != null)
+			writer.write(XMLUtils.serializeToByteArray(xmpDocument), os);
+		else if(xmp != null)
+			writer.write(xmp, os);
+		else
+			writer.write(data, os);
 	}
 	
 	public void showMetadata() {
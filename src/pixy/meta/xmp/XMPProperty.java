@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.meta.xmp;
+
+/**
+ * A leaf value of an XMP packet as reported by {@link XMPReader}.
+ * <p>
+ * The path names the property with the prefixes used in the packet: a simple
+ * property is "xmp:CreatorTool", a struct field "exif:Flash/exif:Fired" and an
+ * array item "dc:subject[2]" with one based indexes.
+ */
+public final class XMPProperty {
+	private final String namespace;
+	private final String path;
+	private final String value;
+
+	public XMPProperty(String namespace, String path, String value) {
+		if(path == null) throw new IllegalArgumentException("Property path is null");
+		this.namespace = namespace;
+		this.path = path;
+		this.value = value;
+	}
+
+	/**
+	 * @return the namespace URI of the last named step of the path
+	 */
+	public String getNamespace() {
+		return namespace;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	public String toString() {
+		return path + "=" + value;
+	}
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.meta.xmp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pixy.string.XMLUtils;
+
+/**
+ * Extracts the properties of an XMP packet with a streaming XML parser.
+ * <p>
+ * No DOM is built: the RDF is walked as it is parsed and each leaf value is
+ * reported as an {@link XMPProperty} in document order. Simple properties in
+ * attribute and element form, structs (rdf:parseType="Resource", nested
+ * rdf:Description and shorthand attributes) and rdf:Bag, rdf:Seq and rdf:Alt
+ * arrays are supported. Qualifiers such as xml:lang are not reported.
+ * <p>
+ * A packet which is not well formed yields the properties read before the error.
+ */
+public final class XMPReader {
+	// Obtain a logger instance
+	private static final Logger LOGGER = LoggerFactory.getLogger(XMPReader.class);
+
+	public static final String RDF_NS = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+	/**
+	 * Receives the properties as they are parsed
+	 */
+	public interface PropertyHandler {
+		/**
+		 * @return false to stop parsing
+		 */
+		public boolean handle(XMPProperty property);
+	}
+
+	private final XMLStreamReader reader;
+	private final PropertyHandler handler;
+	private boolean stopped;
+
+	private XMPReader(XMLStreamReader reader, PropertyHandler handler) {
+		this.reader = reader;
+		this.handler = handler;
+	}
+
+	public static List<XMPProperty> readProperties(byte[] xmp) throws IOException {
+		final List<XMPProperty> properties = new ArrayList<XMPProperty>();
+		readProperties(xmp, new PropertyHandler() {
+			public boolean handle(XMPProperty property) {
+				properties.add(property);
+				return true;
+			}
+		});
+
+		return properties;
+	}
+
+	public static List<XMPProperty> readProperties(String xmp) throws IOException {
+		final List<XMPProperty> properties = new ArrayList<XMPProperty>();
+		readProperties(xmp, new PropertyHandler() {
+			public boolean handle(XMPProperty property) {
+				properties.add(property);
+				return true;
+			}
+		});
+
+		return properties;
+	}
+
+	public static void readProperties(byte[] xmp, PropertyHandler handler) throws IOException {
+		try {
+			read(XMLUtils.createXMLStreamReader(xmp), handler);
+		} catch (XMLStreamException e) {
+			throw new IOException("Unable to parse XMP", e);
+		}
+	}
+
+	public static void readProperties(String xmp, PropertyHandler handler) throws IOException {
+		try {
+			read(XMLUtils.createXMLStreamReader(xmp), handler);
+		} catch (XMLStreamException e) {
+			throw new IOException("Unable to parse XMP", e);
+		}
+	}
+
+	/**
+	 * Parses the packet only up to the property.
+	 *
+	 * @param path property path such as "xmpNote:HasExtendedXMP"
+	 * @return the value of the first property with the path or null if there is none
+	 */
+	public static String getPropertyValue(byte[] xmp, final String path) throws IOException {
+		final String[] value = new String[1];
+		readProperties(xmp, new PropertyHandler() {
+			public boolean handle(XMPProperty property) {
+				if(!property.getPath().equals(path)) return true;
+				value[0] = property.getValue();
+				return false;
+			}
+		});
+
+		return value[0];
+	}
+
+	private static void read(XMLStreamReader reader, PropertyHandler handler) throws XMLStreamException {
+		try {
+			new XMPReader(reader, handler).readRDF();
+		} catch (XMLStreamException e) {
+			// Keep what has been read, XMP in the wild is often followed by garbage
+			LOGGER.warn("Malformed XMP: {}", e.getMessage());
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void readRDF() throws XMLStreamException {
+		while(reader.hasNext()) {
+			if(reader.next() == XMLStreamConstants.START_ELEMENT && isRDF("RDF")) {
+				// Each child is an rdf:Description or a typed node
+				while(!stopped && nextTag() == XMLStreamConstants.START_ELEMENT)
+					readNode("");
+				return;
+			}
+		}
+	}
+
+	// Reads a node element up to its end tag, the reader is at its start tag
+	private void readNode(String path) throws XMLStreamException {
+		readAttributes(path);
+		while(!stopped && nextTag() == XMLStreamConstants.START_ELEMENT)
+			readValue(path, qualifiedName(reader.getPrefix(), reader.getLocalName()), reader.getNamespaceURI());
+		skipToEnd();
+	}
+
+	// Properties in attribute form
+	private void readAttributes(String path) {
+		for(int i = 0; i < reader.getAttributeCount() && !stopped; i++) {
+			String ns = reader.getAttributeNamespace(i);
+			if(ns == null || ns.length() == 0 || RDF_NS.equals(ns) || "http://www.w3.org/XML/1998/namespace".equals(ns))
+				continue;
+			String name = qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i));
+			handle(ns, path.length() == 0? name : path + "/" + name, reader.getAttributeValue(i));
+		}
+	}
+
+	/*
+	 * Reads the value of a property element or array item up to its end tag.
+	 * The reader is at the start tag, name is appended to the path unless null.
+	 */
+	private void readValue(String path, String name, String ns) throws XMLStreamException {
+		if(name != null)
+			path = (path.length() == 0)? name : path + "/" + name;
+		String resource = reader.getAttributeValue(RDF_NS, "resource");
+		if(resource != null) {
+			handle(ns, path, resource);
+			skipToEnd();
+			return;
+		}
+		if("Resource".equals(reader.getAttributeValue(RDF_NS, "parseType"))) {
+			readNode(path);
+			return;
+		}
+		// Shorthand struct fields
+		boolean struct = hasProperties();
+		readAttributes(path);
+		StringBuilder text = null;
+		while(!stopped) {
+			int event = reader.next();
+			if(event == XMLStreamConstants.END_ELEMENT) {
+				break;
+			} else if(event == XMLStreamConstants.START_ELEMENT) {
+				struct = true;
+				if(isRDF("Bag") || isRDF("Seq") || isRDF("Alt")) {
+					int index = 0;
+					while(!stopped && nextTag() == XMLStreamConstants.START_ELEMENT) {
+						if(isRDF("li"))
+							readValue(path + "[" + (++index) + "]", null, ns);
+						else
+							skipToEnd();
+					}
+				} else if(RDF_NS.equals(reader.getNamespaceURI())) { // rdf:Description or other RDF node
+					readNode(path);
+				} else {
+					readValue(path, qualifiedName(reader.getPrefix(), reader.getLocalName()), reader.getNamespaceURI());
+				}
+			} else if(event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+					|| event == XMLStreamConstants.SPACE) {
+				if(text == null) text = new StringBuilder();
+				text.append(reader.getText());
+			}
+		}
+		if(!struct && !stopped)
+			handle(ns, path, (text == null)? "" : text.toString());
+	}
+
+	private boolean hasProperties() {
+		for(int i = 0; i < reader.getAttributeCount(); i++) {
+			String ns = reader.getAttributeNamespace(i);
+			if(ns != null && ns.length() > 0 && !RDF_NS.equals(ns) && !"http://www.w3.org/XML/1998/namespace".equals(ns))
+				return true;
+		}
+		return false;
+	}
+
+	private void handle(String ns, String path, String value) {
+		if(!handler.handle(new XMPProperty(ns, path, value)))
+			stopped = true;
+	}
+
+	private boolean isRDF(String localName) {
+		return localName.equals(reader.getLocalName()) && RDF_NS.equals(reader.getNamespaceURI());
+	}
+
+	// Moves to the next start or end tag, skipping text, comments and PIs
+	private int nextTag() throws XMLStreamException {
+		while(reader.hasNext()) {
+			int event = reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT || event == XMLStreamConstants.END_ELEMENT)
+				return event;
+		}
+		return XMLStreamConstants.END_DOCUMENT;
+	}
+
+	private static String qualifiedName(String prefix, String localName) {
+		return (prefix == null || prefix.length() == 0)? localName : prefix + ":" + localName;
+	}
+
+	// Skips to the end tag of the current element unless already there
+	private void skipToEnd() throws XMLStreamException {
+		if(stopped || reader.getEventType() == XMLStreamConstants.END_ELEMENT) return;
+		int depth = 1;
+		while(depth > 0 && reader.hasNext()) {
+			int event = reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT) depth++;
+			else if(event == XMLStreamConstants.END_ELEMENT) depth--;
+		}
+	}
+}
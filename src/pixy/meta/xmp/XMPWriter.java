@@ -0,0 +1,370 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.meta.xmp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import pixy.string.XMLUtils;
+
+/**
+ * Serializes an XMP packet with edits applied while it is being parsed.
+ * <p>
+ * The packet is copied event by event from a streaming reader to a streaming
+ * writer, so no DOM is built. The XML declaration and whitespace outside the
+ * root element are dropped and the output is always UTF-8. Edits apply to
+ * the top level properties: a property which is set or removed is dropped
+ * wherever it appears and a set property is written in attribute form to the
+ * first node element under rdf:RDF. Anything after the root element which
+ * can't be parsed, such as packet padding, is ignored.
+ * <p>
+ * A writer can be reused for any number of packets but it is not thread safe.
+ */
+public final class XMPWriter {
+	private static final String XML_NS = XMLConstants.XML_NS_URI;
+	private static final String RDF_NS = XMPReader.RDF_NS;
+
+	private final Map<String, String[]> properties = new LinkedHashMap<String, String[]>();
+	private final Set<String> removed = new HashSet<String>();
+	private String packetEnd;
+	private byte[] extendedXmp;
+
+	/**
+	 * Sets a simple top level property.
+	 *
+	 * @param namespace namespace URI of the property
+	 * @param name qualified name of the property such as "xmpNote:HasExtendedXMP"
+	 * @param value property value
+	 * @return this writer
+	 */
+	public XMPWriter setProperty(String namespace, String name, String value) {
+		if(namespace == null || name == null || value == null)
+			throw new IllegalArgumentException("Argument(s) are null");
+		int colon = name.indexOf(':');
+		if(colon <= 0) throw new IllegalArgumentException("Property name has no prefix: " + name);
+		String localName = name.substring(colon + 1);
+		removed.remove(key(namespace, localName));
+		properties.put(key(namespace, localName), new String[] {namespace, name.substring(0, colon), localName, value});
+
+		return this;
+	}
+
+	/**
+	 * Removes a top level property together with its value.
+	 *
+	 * @param namespace namespace URI of the property
+	 * @param localName name of the property without prefix
+	 * @return this writer
+	 */
+	public XMPWriter removeProperty(String namespace, String localName) {
+		if(namespace == null || localName == null)
+			throw new IllegalArgumentException("Argument(s) are null");
+		properties.remove(key(namespace, localName));
+		removed.add(key(namespace, localName));
+
+		return this;
+	}
+
+	/**
+	 * Wraps the output in xpacket processing instructions in place of the
+	 * ones in the packet, if any.
+	 *
+	 * @param end "r" for a read-only packet, "w" for a writable one or null for no wrapper
+	 * @return this writer
+	 */
+	public XMPWriter setPacketWrapper(String end) {
+		this.packetEnd = end;
+		return this;
+	}
+
+	/**
+	 * Copies the content of the rdf:RDF element of an extended XMP packet
+	 * into the rdf:RDF element of the output.
+	 *
+	 * @param extendedXmp serialized extended XMP or null for none
+	 * @return this writer
+	 */
+	public XMPWriter merge(byte[] extendedXmp) {
+		this.extendedXmp = extendedXmp;
+		return this;
+	}
+
+	public byte[] write(byte[] xmp) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream(xmp.length + 128);
+		write(xmp, bout);
+
+		return bout.toByteArray();
+	}
+
+	public byte[] write(String xmp) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream(xmp.length() + 128);
+		write(xmp, bout);
+
+		return bout.toByteArray();
+	}
+
+	public void write(byte[] xmp, OutputStream os) throws IOException {
+		try {
+			write(XMLUtils.createXMLStreamReader(xmp), os);
+		} catch (XMLStreamException e) {
+			throw new IOException("Unable to write XMP", e);
+		}
+	}
+
+	public void write(String xmp, OutputStream os) throws IOException {
+		try {
+			write(XMLUtils.createXMLStreamReader(xmp), os);
+		} catch (XMLStreamException e) {
+			throw new IOException("Unable to write XMP", e);
+		}
+	}
+
+	private void write(XMLStreamReader reader, OutputStream os) throws XMLStreamException {
+		XMLStreamWriter writer = XMLUtils.createXMLStreamWriter(os);
+		try {
+			if(packetEnd != null)
+				writer.writeProcessingInstruction("xpacket", "begin='' id='W5M0MpCehiHzreSzNTczkc9d'");
+			copyPacket(reader, writer);
+			if(packetEnd != null)
+				writer.writeProcessingInstruction("xpacket", "end='" + packetEnd + "'");
+			writer.flush();
+		} finally {
+			reader.close();
+			writer.close();
+		}
+	}
+
+	private void copyPacket(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+		int depth = 0;
+		int rdfDepth = -1;
+		boolean added = properties.isEmpty();
+		boolean rootClosed = false;
+
+		while(reader.hasNext()) {
+			int event;
+			try {
+				event = reader.next();
+			} catch (XMLStreamException e) {
+				if(rootClosed) break; // Trailing garbage
+				throw e;
+			}
+			switch(event) {
+				case XMLStreamConstants.START_ELEMENT:
+					if(rdfDepth >= 0 && depth == rdfDepth + 1 && isEdited(reader.getNamespaceURI(), reader.getLocalName())) {
+						skipElement(reader);
+						break;
+					}
+					boolean node = (rdfDepth >= 0 && depth == rdfDepth);
+					writeStartElement(reader, writer, node);
+					if(node && !added) {
+						writeProperties(writer);
+						added = true;
+					}
+					depth++;
+					if(rdfDepth < 0 && isRDF(reader, "RDF"))
+						rdfDepth = depth;
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if(depth == rdfDepth) {
+						if(!added) { // No node element to hold the properties
+							String rdf = prefixFor(writer, RDF_NS);
+							writer.writeStartElement(rdf, "Description", RDF_NS);
+							writer.writeAttribute(rdf, RDF_NS, "about", "");
+							writeProperties(writer);
+							writer.writeEndElement();
+							added = true;
+						}
+						if(extendedXmp != null)
+							copyRDFContent(XMLUtils.createXMLStreamReader(extendedXmp), writer);
+						rdfDepth = -2; // Only the first rdf:RDF is edited
+					}
+					writer.writeEndElement();
+					if(--depth == 0) rootClosed = true;
+					break;
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					if(depth > 0 || packetEnd == null || !"xpacket".equals(reader.getPITarget()))
+						writeEvent(reader, writer);
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.SPACE:
+					if(depth > 0) writeEvent(reader, writer);
+					break;
+				case XMLStreamConstants.START_DOCUMENT:
+				case XMLStreamConstants.END_DOCUMENT:
+				case XMLStreamConstants.DTD:
+					break;
+				default:
+					writeEvent(reader, writer);
+			}
+		}
+	}
+
+	// Copies the children of the first rdf:RDF element
+	private static void copyRDFContent(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+		try {
+			while(reader.hasNext()) {
+				if(reader.next() == XMLStreamConstants.START_ELEMENT && isRDF(reader, "RDF"))
+					break;
+			}
+			int depth = 0;
+			while(reader.hasNext()) {
+				int event = reader.next();
+				if(event == XMLStreamConstants.START_ELEMENT) {
+					copyStartElement(reader, writer);
+					depth++;
+				} else if(event == XMLStreamConstants.END_ELEMENT) {
+					if(depth-- == 0) break;
+					writer.writeEndElement();
+				} else {
+					writeEvent(reader, writer);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private boolean isEdited(String namespace, String localName) {
+		if(namespace == null) return false;
+		String key = key(namespace, localName);
+
+		return removed.contains(key) || properties.containsKey(key);
+	}
+
+	private static boolean isRDF(XMLStreamReader reader, String localName) {
+		return localName.equals(reader.getLocalName()) && RDF_NS.equals(reader.getNamespaceURI());
+	}
+
+	private static String key(String namespace, String localName) {
+		return namespace + " " + localName;
+	}
+
+	private void writeProperties(XMLStreamWriter writer) throws XMLStreamException {
+		for(String[] property : properties.values()) {
+			String prefix = writer.getNamespaceContext().getPrefix(property[0]);
+			if(prefix == null || prefix.length() == 0) {
+				// Pick another prefix if the packet uses this one for a different namespace
+				prefix = property[1];
+				for(int i = 1; !emptyIfNull(writer.getNamespaceContext().getNamespaceURI(prefix)).isEmpty(); i++)
+					prefix = property[1] + i;
+				writer.writeNamespace(prefix, property[0]);
+			}
+			writer.writeAttribute(prefix, property[0], property[2], property[3]);
+		}
+	}
+
+	// Copies the start tag, dropping edited properties in attribute form from node elements
+	private void writeStartElement(XMLStreamReader reader, XMLStreamWriter writer, boolean node) throws XMLStreamException {
+		writeStartTag(reader, writer);
+		for(int i = 0; i < reader.getAttributeCount(); i++) {
+			if(!node || !isEdited(reader.getAttributeNamespace(i), reader.getAttributeLocalName(i)))
+				writeAttribute(reader, writer, i);
+		}
+	}
+
+	private static void copyStartElement(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+		writeStartTag(reader, writer);
+		for(int i = 0; i < reader.getAttributeCount(); i++)
+			writeAttribute(reader, writer, i);
+	}
+
+	private static void writeStartTag(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+		String prefix = emptyIfNull(reader.getPrefix());
+		String namespace = emptyIfNull(reader.getNamespaceURI());
+		writer.writeStartElement(prefix, reader.getLocalName(), namespace);
+		for(int i = 0; i < reader.getNamespaceCount(); i++) {
+			String nsPrefix = emptyIfNull(reader.getNamespacePrefix(i));
+			if(nsPrefix.length() == 0)
+				writer.writeDefaultNamespace(emptyIfNull(reader.getNamespaceURI(i)));
+			else
+				writer.writeNamespace(nsPrefix, emptyIfNull(reader.getNamespaceURI(i)));
+		}
+		// Declarations made on an ancestor are out of scope when copying extended XMP
+		declareNamespace(writer, prefix, namespace);
+	}
+
+	private static void writeAttribute(XMLStreamReader reader, XMLStreamWriter writer, int index) throws XMLStreamException {
+		String namespace = emptyIfNull(reader.getAttributeNamespace(index));
+		if(namespace.length() == 0) {
+			writer.writeAttribute(reader.getAttributeLocalName(index), reader.getAttributeValue(index));
+		} else {
+			String prefix = emptyIfNull(reader.getAttributePrefix(index));
+			declareNamespace(writer, prefix, namespace);
+			writer.writeAttribute(prefix, namespace, reader.getAttributeLocalName(index), reader.getAttributeValue(index));
+		}
+	}
+
+	private static void writeEvent(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+		switch(reader.getEventType()) {
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.SPACE:
+				writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				break;
+			case XMLStreamConstants.CDATA:
+				writer.writeCData(reader.getText());
+				break;
+			case XMLStreamConstants.COMMENT:
+				writer.writeComment(reader.getText());
+				break;
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				if(reader.getPIData() == null)
+					writer.writeProcessingInstruction(reader.getPITarget());
+				else
+					writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+				break;
+			case XMLStreamConstants.ENTITY_REFERENCE:
+				writer.writeEntityRef(reader.getLocalName());
+				break;
+			default:
+				break;
+		}
+	}
+
+	private static void declareNamespace(XMLStreamWriter writer, String prefix, String namespace) throws XMLStreamException {
+		if(namespace.length() == 0 || XML_NS.equals(namespace)) return;
+		if(namespace.equals(writer.getNamespaceContext().getNamespaceURI(prefix))) return;
+		if(prefix.length() == 0)
+			writer.writeDefaultNamespace(namespace);
+		else
+			writer.writeNamespace(prefix, namespace);
+	}
+
+	private static String emptyIfNull(String value) {
+		return (value == null)? "" : value;
+	}
+
+	private static String prefixFor(XMLStreamWriter writer, String namespace) {
+		String prefix = writer.getNamespaceContext().getPrefix(namespace);
+
+		return (prefix == null)? "rdf" : prefix;
+	}
+
+	// Skips the current element with all its content
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while(depth > 0 && reader.hasNext()) {
+			int event = reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT) depth++;
+			else if(event == XMLStreamConstants.END_ELEMENT) depth--;
+		}
+	}
+}
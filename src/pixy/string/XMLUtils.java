@@ -25,13 +25,20 @@ package pixy.string;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.Iterator;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
 import javax.xml.transform.Transformer;
@@ -63,6 +70,33 @@ import org.w3c.dom.ls.LSSerializer;
 public class XMLUtils {
 	// Obtain a logger instance
 	private static final Logger LOGGER = LoggerFactory.getLogger(XMLUtils.class);
+	
+	/*
+	 * Looking up a factory loads classes and scans the class path, so it is
+	 * done once. Parsers, transformers and serializers aren't thread safe:
+	 * each thread creates its own from the shared factories and keeps it,
+	 * resetting it before every use.
+	 */
+	private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = createDocumentBuilderFactory();
+	private static final TransformerFactory TRANSFORMER_FACTORY = createTransformerFactory();
+	
+	private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = new ThreadLocal<DocumentBuilder>();
+	private static final ThreadLocal<Transformer> TRANSFORMER = new ThreadLocal<Transformer>();
+	private static final ThreadLocal<LSSerializer> LS_SERIALIZER = new ThreadLocal<LSSerializer>();
+	private static final ThreadLocal<XMLInputFactory> XML_INPUT_FACTORY = new ThreadLocal<XMLInputFactory>() {
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+			return factory;
+		}
+	};
+	private static final ThreadLocal<XMLOutputFactory> XML_OUTPUT_FACTORY = new ThreadLocal<XMLOutputFactory>() {
+		protected XMLOutputFactory initialValue() {
+			return XMLOutputFactory.newInstance();
+		}
+	};
 		
 	public static void addChild(Node parent, Node child) {
 		parent.appendChild(child);
@@ -74,16 +108,7 @@ public class XMLUtils {
 	
 	// Create an empty Document node
 	public static Document createDocumentNode() {
-		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-	    DocumentBuilder builder = null;
-	    
-		try {
-			builder = factory.newDocumentBuilder();
-		} catch (ParserConfigurationException e) {
-			e.printStackTrace();
-		}
-		
-		return builder.newDocument();
+		return getDocumentBuilder().newDocument();
 	}
 	
 	public static Node createElement(Document doc, String tagName) {
@@ -91,15 +116,8 @@ public class XMLUtils {
 	}
 	
 	public static Document createXML(byte[] xml) {
-		//Get the DOM Builder Factory
-		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 		//Get the DOM Builder
-		DocumentBuilder builder = null;
-		try {
-			builder = factory.newDocumentBuilder();
-		} catch (ParserConfigurationException e) {
-			e.printStackTrace();
-		}
+		DocumentBuilder builder = getDocumentBuilder();
 		//Load and Parse the XML document
 		//document contains the complete XML as a Tree.
 		Document document = null;
@@ -115,15 +133,8 @@ public class XMLUtils {
 	}
 	
 	public static Document createXML(String xml) {
-		//Get the DOM Builder Factory
-		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 		//Get the DOM Builder
-		DocumentBuilder builder = null;
-		try {
-			builder = factory.newDocumentBuilder();
-		} catch (ParserConfigurationException e) {
-			e.printStackTrace();
-		}
+		DocumentBuilder builder = getDocumentBuilder();
 		//Load and Parse the XML document
 		//document contains the complete XML as a Tree.
 		Document document = null;
@@ -139,6 +150,27 @@ public class XMLUtils {
 		return document;		 
 	}
 	
+	/**
+	 * Creates a namespace aware streaming reader for the XML. DTDs and external
+	 * entities are not supported.
+	 * 
+	 * @param xml XML bytes, the encoding is detected from the data
+	 */
+	public static XMLStreamReader createXMLStreamReader(byte[] xml) throws XMLStreamException {
+		return XML_INPUT_FACTORY.get().createXMLStreamReader(new ByteArrayInputStream(xml));
+	}
+	
+	public static XMLStreamReader createXMLStreamReader(String xml) throws XMLStreamException {
+		return XML_INPUT_FACTORY.get().createXMLStreamReader(new StringReader(xml));
+	}
+	
+	/**
+	 * Creates a streaming writer which writes UTF-8 to the output stream.
+	 */
+	public static XMLStreamWriter createXMLStreamWriter(OutputStream os) throws XMLStreamException {
+		return XML_OUTPUT_FACTORY.get().createXMLStreamWriter(os, "UTF-8");
+	}
+	
 	public static String escapeXML(String input) {
 		Iterator<Character> itr = StringUtils.stringIterator(input);
 		StringBuilder result = new StringBuilder();		
@@ -301,15 +333,7 @@ public class XMLUtils {
 	}
 	
 	public static byte[] serializeToByteArray(Document doc) throws IOException {
-		TransformerFactory tFactory = TransformerFactory.newInstance();
-		Transformer transformer = null;
-		try {
-			transformer = tFactory.newTransformer();
-		} catch (TransformerConfigurationException e) {
-			throw new IOException("Unable to serialize XML document");
-		}
-		transformer.setOutputProperty(OutputKeys.INDENT, "no");
-		transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+		Transformer transformer = getTransformer();
 		String encoding = doc.getInputEncoding();
 		if(encoding == null) encoding = "UTF-8";
 		transformer.setOutputProperty(OutputKeys.ENCODING, encoding);
@@ -365,7 +389,7 @@ public class XMLUtils {
 	 */
 	public static String serializeToStringLS(Document doc, Node node, String encoding) throws IOException {
 		DOMImplementationLS domImpl = (DOMImplementationLS) doc.getImplementation();
-        LSSerializer lsSerializer = domImpl.createLSSerializer();
+        LSSerializer lsSerializer = getLSSerializer(domImpl);
         LSOutput output = domImpl.createLSOutput();
         output.setEncoding(encoding);
         StringWriter writer = new StringWriter();
@@ -392,15 +416,7 @@ public class XMLUtils {
 	 * @throws IOException
 	 */
 	public static String serializeToString(Node node, String encoding) throws IOException {
-		TransformerFactory tFactory = TransformerFactory.newInstance();
-		Transformer transformer = null;
-		try {
-			transformer = tFactory.newTransformer();
-		} catch (TransformerConfigurationException e) {
-			throw new IOException("Unable to serialize XML document");
-		}
-		transformer.setOutputProperty(OutputKeys.INDENT, "no");
-		transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+		Transformer transformer = getTransformer();
 		transformer.setOutputProperty(OutputKeys.ENCODING, encoding);
 		DOMSource source = new DOMSource(node);
 		StringWriter writer = new StringWriter();
@@ -415,6 +431,90 @@ public class XMLUtils {
         return writer.toString();
 	}
 	
+	private static DocumentBuilderFactory createDocumentBuilderFactory() {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		// Limit entity expansion and never fetch anything referenced by a document
+		setFeature(factory, XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		setFeature(factory, "http://xml.org/sax/features/external-general-entities", false);
+		setFeature(factory, "http://xml.org/sax/features/external-parameter-entities", false);
+		setFeature(factory, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+		factory.setXIncludeAware(false);
+		
+		return factory;
+	}
+	
+	private static TransformerFactory createTransformerFactory() {
+		TransformerFactory factory = TransformerFactory.newInstance();
+		try {
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		} catch (TransformerConfigurationException e) {
+			LOGGER.warn("XML transformer doesn't support secure processing");
+		}
+		
+		return factory;
+	}
+	
+	private static void setFeature(DocumentBuilderFactory factory, String feature, boolean value) {
+		try {
+			factory.setFeature(feature, value);
+		} catch (ParserConfigurationException e) {
+			LOGGER.warn("XML parser doesn't support feature {}", feature);
+		}
+	}
+	
+	// The builder is confined to the calling thread and reset to the factory settings
+	private static DocumentBuilder getDocumentBuilder() {
+		DocumentBuilder builder = DOCUMENT_BUILDER.get();
+		if(builder == null) {
+			try {
+				// Factories aren't thread safe either
+				synchronized(DOCUMENT_BUILDER_FACTORY) {
+					builder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+				}
+			} catch (ParserConfigurationException e) {
+				throw new IllegalStateException("Unable to create XML parser", e);
+			}
+			DOCUMENT_BUILDER.set(builder);
+		} else
+			builder.reset();
+		
+		return builder;
+	}
+	
+	// Documents parsed by this thread share a serializer, the serializer's configuration is never changed
+	private static LSSerializer getLSSerializer(DOMImplementationLS domImpl) {
+		DocumentBuilder builder = DOCUMENT_BUILDER.get();
+		if(builder == null || builder.getDOMImplementation() != domImpl)
+			return domImpl.createLSSerializer();
+		LSSerializer serializer = LS_SERIALIZER.get();
+		if(serializer == null) {
+			serializer = domImpl.createLSSerializer();
+			LS_SERIALIZER.set(serializer);
+		}
+		
+		return serializer;
+	}
+	
+	// Returns the calling thread's transformer set up to write without declaration or indentation
+	private static Transformer getTransformer() throws IOException {
+		Transformer transformer = TRANSFORMER.get();
+		if(transformer == null) {
+			try {
+				synchronized(TRANSFORMER_FACTORY) {
+					transformer = TRANSFORMER_FACTORY.newTransformer();
+				}
+			} catch (TransformerConfigurationException e) {
+				throw new IOException("Unable to serialize XML document");
+			}
+			TRANSFORMER.set(transformer);
+		} else
+			transformer.reset();
+		transformer.setOutputProperty(OutputKeys.INDENT, "no");
+		transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+		
+		return transformer;
+	}
+	
 	public static void showXML(Document document) {
 		printNode(document,"");
 	}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pixy.meta.Metadata;
+import pixy.meta.MetadataType;
+
+/**
+ * Reads the same images from several threads at once and compares every
+ * result with a single threaded read of the image. Metadata are parsed and
+ * written out in full, so lazily parsed data and shared parser state are
+ * exercised too. Run it with image files as arguments, the files in the
+ * images directory are read if there are none. Fails with an exception if
+ * any concurrent read differs.
+ */
+public class TestConcurrentRead {
+	// Obtain a logger instance
+	private static final Logger LOGGER = LoggerFactory.getLogger(TestConcurrentRead.class);
+
+	private static final int ROUNDS = 20;
+
+	public static void main(String[] args) throws Exception {
+		new TestConcurrentRead().test(args);
+	}
+
+	public void test(String ... args) throws Exception {
+		final List<File> files = new ArrayList<File>();
+		if(args.length == 0) {
+			for(File file : new File("images").listFiles())
+				if(file.isFile()) files.add(file);
+		} else {
+			for(String arg : args)
+				files.add(new File(arg));
+		}
+		final List<byte[]> images = new ArrayList<byte[]>();
+		final List<Map<MetadataType, String>> expected = new ArrayList<Map<MetadataType, String>>();
+		for(File file : files) {
+			byte[] image = Files.readAllBytes(file.toPath());
+			images.add(image);
+			expected.add(read(image));
+		}
+
+		int nThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		try {
+			for(int i = 0; i < nThreads; i++) {
+				final int first = i;
+				results.add(executor.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						start.await();
+						int mismatches = 0;
+						for(int round = 0; round < ROUNDS; round++) {
+							// Each thread starts at another image so different formats overlap
+							for(int j = 0; j < images.size(); j++) {
+								int index = (first + j) % images.size();
+								if(!read(images.get(index)).equals(expected.get(index))) {
+									LOGGER.error("Concurrent read of {} differs from the single threaded read", files.get(index));
+									mismatches++;
+								}
+							}
+						}
+						return mismatches;
+					}
+				}));
+			}
+			start.countDown();
+			int mismatches = 0;
+			for(Future<Integer> result : results)
+				mismatches += result.get();
+			LOGGER.info("{} threads read {} images {} times each, {} mismatches", nThreads, images.size(), nThreads * ROUNDS, mismatches);
+			if(mismatches > 0)
+				throw new IllegalStateException(mismatches + " concurrent reads differ from the single threaded read");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	// Every metadata of the image written out, or the error writing it
+	private static Map<MetadataType, String> read(byte[] image) {
+		Map<MetadataType, String> result = new HashMap<MetadataType, String>();
+		Map<MetadataType, Metadata> metadataMap;
+		try {
+			metadataMap = Metadata.readMetadata(image);
+		} catch(Exception e) {
+			result.put(null, e.toString());
+			return result;
+		}
+		for(Map.Entry<MetadataType, Metadata> entry : metadataMap.entrySet()) {
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			try {
+				entry.getValue().ensureDataRead();
+				entry.getValue().write(bout);
+				result.put(entry.getKey(), new String(bout.toByteArray(), "ISO-8859-1"));
+			} catch(IOException e) {
+				result.put(entry.getKey(), e.toString());
+			} catch(RuntimeException e) {
+				result.put(entry.getKey(), e.toString());
+			}
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2014-2016 by Wen Yu.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Any modifications to this file must keep this entire header intact.
+ */
+
+package pixy.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pixy.meta.Metadata;
+import pixy.meta.MetadataType;
+import pixy.meta.exif.Exif;
+import pixy.meta.iptc.IPTCApplicationTag;
+import pixy.meta.iptc.IPTCDataSet;
+import pixy.meta.jpeg.JPEGMeta;
+import pixy.meta.xmp.XMP;
+
+/**
+ * Updates JPEG files in place which have 0xff fill bytes in front of their
+ * markers. The fixture is built from the image given as argument, images/12.jpg
+ * by default, with one to three fill bytes inserted in front of each marker up
+ * to SOS. The EXIF, IPTC and XMP of the image are written back into the padded
+ * file and into a plain copy and the metadata of the two are compared. Fails
+ * with an exception if they differ.
+ */
+public class TestJPEGFillBytes {
+	// Obtain a logger instance
+	private static final Logger LOGGER = LoggerFactory.getLogger(TestJPEGFillBytes.class);
+
+	public static void main(String[] args) throws Exception {
+		new TestJPEGFillBytes().test(args);
+	}
+
+	public void test(String ... args) throws Exception {
+		byte[] image = Files.readAllBytes(new File(args.length > 0? args[0] : "images/12.jpg").toPath());
+		Map<MetadataType, Metadata> metadataMap = Metadata.readMetadata(image);
+		Exif exif = (Exif)metadataMap.get(MetadataType.EXIF);
+		XMP xmp = (XMP)metadataMap.get(MetadataType.XMP);
+		List<IPTCDataSet> iptcs = new ArrayList<IPTCDataSet>();
+		iptcs.add(new IPTCDataSet(IPTCApplicationTag.KEY_WORDS, "pixymeta"));
+
+		File plain = File.createTempFile("pixy-plain-", ".jpg");
+		File padded = File.createTempFile("pixy-padded-", ".jpg");
+		try {
+			Files.write(plain.toPath(), image);
+			Files.write(padded.toPath(), insertFillBytes(image));
+			int failures = 0;
+			if(exif != null)
+				failures += compare("EXIF", JPEGMeta.insertExif(plain, exif, true), JPEGMeta.insertExif(padded, exif, true), plain, padded);
+			failures += compare("IPTC", JPEGMeta.insertIPTC(plain, iptcs, true), JPEGMeta.insertIPTC(padded, iptcs, true), plain, padded);
+			if(xmp != null)
+				failures += compare("XMP", JPEGMeta.insertXMP(plain, xmp), JPEGMeta.insertXMP(padded, xmp), plain, padded);
+			if(failures > 0)
+				throw new IllegalStateException(failures + " in place updates differ with fill bytes");
+			LOGGER.info("In place updates with fill bytes match the plain image");
+		} finally {
+			plain.delete();
+			padded.delete();
+		}
+	}
+
+	private static int compare(String what, boolean plainReplaced, boolean paddedReplaced, File plain, File padded) throws IOException {
+		if(plainReplaced != paddedReplaced) {
+			LOGGER.error("{}: replaced {} in the plain image but {} with fill bytes", what, plainReplaced, paddedReplaced);
+			return 1;
+		}
+		if(!read(plain).equals(read(padded))) {
+			LOGGER.error("{}: metadata differ after the update with fill bytes", what);
+			return 1;
+		}
+		LOGGER.info("{}: replaced {}, metadata match", what, plainReplaced);
+		return 0;
+	}
+
+	// Inserts one to three 0xff fill bytes in front of every marker after SOI up to SOS
+	private static byte[] insertFillBytes(byte[] image) {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream(image.length + 256);
+		bout.write(image, 0, 2);
+		int pos = 2;
+		for(int n = 1; pos + 4 <= image.length && (image[pos]&0xff) == 0xff; n = n%3 + 1) {
+			for(int i = 0; i < n; i++)
+				bout.write(0xff);
+			int marker = image[pos + 1]&0xff;
+			int length = ((image[pos + 2]&0xff)<<8)|(image[pos + 3]&0xff);
+			if(marker == 0xda) break; // SOS
+			bout.write(image, pos, length + 2);
+			pos += length + 2;
+		}
+		bout.write(image, pos, image.length - pos);
+
+		return bout.toByteArray();
+	}
+
+	// Every metadata of the image written out
+	private static Map<MetadataType, String> read(File image) throws IOException {
+		Map<MetadataType, String> result = new HashMap<MetadataType, String>();
+		for(Map.Entry<MetadataType, Metadata> entry : Metadata.readMetadata(image).entrySet()) {
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			entry.getValue().ensureDataRead();
+			entry.getValue().write(bout);
+			result.put(entry.getKey(), new String(bout.toByteArray(), "ISO-8859-1"));
+		}
+
+		return result;
+	}
+}
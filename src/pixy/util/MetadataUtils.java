@@ -54,14 +54,14 @@ import pixy.io.IOUtils;
  */
 public class MetadataUtils {
 	// Image magic number constants
-	private static byte[] BM = {0x42, 0x4d}; // BM
-	private static byte[] GIF = {0x47, 0x49, 0x46, 0x38}; // GIF8
-	private static byte[] PNG = {(byte)0x89, 0x50, 0x4e, 0x47}; //.PNG
-	private static byte[] TIFF_II = {0x49, 0x49, 0x2a, 0x00}; // II*.
-	private static byte[] TIFF_MM = {0x4d, 0x4d, 0x00, 0x2a}; //MM.*
-	private static byte[] JPG = {(byte)0xff, (byte)0xd8, (byte)0xff};
-	private static byte[] PCX = {0x0a};
-	private static byte[] JPG2000 = {0x00, 0x00, 0x00, 0x0C};
+	private static final byte[] BM = {0x42, 0x4d}; // BM
+	private static final byte[] GIF = {0x47, 0x49, 0x46, 0x38}; // GIF8
+	private static final byte[] PNG = {(byte)0x89, 0x50, 0x4e, 0x47}; //.PNG
+	private static final byte[] TIFF_II = {0x49, 0x49, 0x2a, 0x00}; // II*.
+	private static final byte[] TIFF_MM = {0x4d, 0x4d, 0x00, 0x2a}; //MM.*
+	private static final byte[] JPG = {(byte)0xff, (byte)0xd8, (byte)0xff};
+	private static final byte[] PCX = {0x0a};
+	private static final byte[] JPG2000 = {0x00, 0x00, 0x00, 0x0C};
 	
 	public static final int IMAGE_MAGIC_NUMBER_LEN = 4;
 	
@@ -12,6 +12,10 @@ package pixy.util.zip;
 
 /** 
  * Table based CRC32 implementation.
+ * <p>
+ * Byte arrays are processed eight bytes at a time using the slicing-by-8
+ * algorithm: eight tables derived from the standard table let one lookup
+ * round consume a long word instead of a single byte.
  *
  * @author Wen Yu, yuwen_66@yahoo.com
  * @version 1.0 11/01/2013
@@ -66,6 +70,20 @@ public class CRC32 implements Checksum {
 		0xb40bbe37, 0xc30c8ea1, 0x5a05df1b, 0x2d02ef8d
 	};
 	
+	// Slicing-by-8 tables, crc32_tables[0] is the standard table
+	private static final int crc32_tables[][] = new int[8][];
+	
+	static {
+		crc32_tables[0] = crc32_table;
+		for(int k = 1; k < 8; k++) {
+			int[] prev = crc32_tables[k - 1];
+			int[] table = new int[256];
+			for(int i = 0; i < 256; i++)
+				table[i] = (prev[i] >>> 8) ^ crc32_table[prev[i] & 0xff];
+			crc32_tables[k] = table;
+		}
+	}
+	
 	public long getValue() {
 		return crc32 & 0XFFFFFFFFL;
 	}
@@ -86,10 +104,38 @@ public class CRC32 implements Checksum {
 	}
 	
 	public void update(byte[] buff, int offset, int size) {
-	    int	temp = ~crc32;
+		if ((offset < 0) || (size < 0) || (offset + size > buff.length))
+			throw new ArrayIndexOutOfBoundsException();
+		
+		final int[] t0 = crc32_tables[0], t1 = crc32_tables[1], t2 = crc32_tables[2], t3 = crc32_tables[3];
+		final int[] t4 = crc32_tables[4], t5 = crc32_tables[5], t6 = crc32_tables[6], t7 = crc32_tables[7];
+		
+		int	temp = ~crc32;
 
+		while (size >= 8) {
+			int low = temp ^ ((buff[offset]&0xff)|((buff[offset + 1]&0xff)<<8)|((buff[offset + 2]&0xff)<<16)|((buff[offset + 3]&0xff)<<24));
+			int high = (buff[offset + 4]&0xff)|((buff[offset + 5]&0xff)<<8)|((buff[offset + 6]&0xff)<<16)|((buff[offset + 7]&0xff)<<24);
+			temp = t7[low & 0xff] ^ t6[(low >>> 8) & 0xff] ^ t5[(low >>> 16) & 0xff] ^ t4[low >>> 24]
+					^ t3[high & 0xff] ^ t2[(high >>> 8) & 0xff] ^ t1[(high >>> 16) & 0xff] ^ t0[high >>> 24];
+			offset += 8;
+			size -= 8;
+		}
+		
 		while (size-->0)
-			temp = crc32_table[(temp^buff[offset++]) & 0xFF] ^ (temp >>> 8);
+			temp = t0[(temp^buff[offset++]) & 0xFF] ^ (temp >>> 8);
+		crc32 = ~temp;
+	}
+	
+	/**
+	 * Updates the checksum with the four bytes of an int in Motorola byte order.
+	 * Saves wrapping a PNG chunk type into a byte array.
+	 */
+	public void updateIntMM(int value) {
+		int temp = ~crc32;
+		temp = crc32_table[(temp ^ (value >>> 24)) & 0xff] ^ (temp >>> 8);
+		temp = crc32_table[(temp ^ (value >>> 16)) & 0xff] ^ (temp >>> 8);
+		temp = crc32_table[(temp ^ (value >>> 8)) & 0xff] ^ (temp >>> 8);
+		temp = crc32_table[(temp ^ value) & 0xff] ^ (temp >>> 8);
 		crc32 = ~temp;
 	}
 }